@@ -47,6 +47,14 @@ android {
         }
     }
 
+    sourceSets {
+        // Test fixtures used by both the unit tests and the instrumented tests
+        getByName("test").java.srcDir("src/sharedTest/java")
+        getByName("androidTest").java.srcDir("src/sharedTest/java")
+        // Exported schemas, for the migration tests
+        getByName("androidTest").assets.srcDir("$projectDir/schemas")
+    }
+
     buildTypes {
         release {
             isMinifyEnabled = false
@@ -94,13 +102,17 @@ dependencies {
     implementation("com.google.android.material:material")
 
     implementation(libs.work.runtime)
+    implementation(libs.concurrent.futures)
     // Unit testing dependencies
     testImplementation(libs.junit)
     testImplementation(libs.mockito.core)
+    testImplementation(libs.mockwebserver) // Same version as the OkHttp used by Retrofit
 
     // For Android-specific mocking
     testImplementation(libs.robolectric)
     androidTestImplementation(libs.work.testing)
+    androidTestImplementation(libs.room.testing)
+    testImplementation(libs.work.testing)
 
     implementation(libs.play.services.oss.licenses)
 
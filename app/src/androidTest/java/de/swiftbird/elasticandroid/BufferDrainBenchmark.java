@@ -0,0 +1,72 @@
+package de.swiftbird.elasticandroid;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Storage benchmark on a device: draining a batch must not get slower as the backlog in the buffer grows.
+ * Runs as an instrumented test, as wall-clock timings are meaningless in the shared unit test run. The query plans
+ * that keep it flat are checked by the BufferDrainTest unit test.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BufferDrainBenchmark {
+
+    private static final int BATCH_SIZE = 500;
+    private static final int DRAIN_ROUNDS = 20;
+
+    private AppDatabase db;
+    private SelfLogCompBuffer buffer;
+
+    @Before
+    public void setUp() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), AppDatabase.class).build();
+        buffer = db.selfLogCompBuffer();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    // Median duration of claiming and acknowledging one batch, while the buffer holds about tableSize documents
+    private long medianDrainNanos(int tableSize) {
+        buffer.deleteAllDocuments();
+        BufferFixture.fillSelfLogBuffer(buffer, tableSize + DRAIN_ROUNDS * BATCH_SIZE);
+
+        long[] durations = new long[DRAIN_ROUNDS];
+        for (int round = 0; round < DRAIN_ROUNDS; round++) {
+            String batchId = "batch-" + round;
+            long start = System.nanoTime();
+            List<SelfLogCompDocument> claimed = buffer.claimOldestDocuments(batchId, System.currentTimeMillis(), 0, BATCH_SIZE);
+            int deleted = buffer.deleteClaimedDocuments(batchId);
+            durations[round] = System.nanoTime() - start;
+
+            Assert.assertEquals(BATCH_SIZE, claimed.size());
+            Assert.assertEquals(BATCH_SIZE, deleted);
+        }
+        Arrays.sort(durations);
+        return durations[DRAIN_ROUNDS / 2];
+    }
+
+    @Test
+    public void drain_staysFlatAsBufferGrows() {
+        medianDrainNanos(1_000); // Warm-up
+
+        long small = medianDrainNanos(1_000);
+        long large = medianDrainNanos(100_000);
+
+        Assert.assertTrue(String.format(Locale.US, "Drain of %d documents: %.2f ms with 1k buffered, %.2f ms with 100k buffered",
+                BATCH_SIZE, small / 1e6, large / 1e6), large < small * 5);
+    }
+}
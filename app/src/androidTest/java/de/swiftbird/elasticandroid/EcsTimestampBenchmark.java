@@ -0,0 +1,57 @@
+package de.swiftbird.elasticandroid;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Microbenchmark on a device against the previous path, a new SimpleDateFormat per timestamp. Runs as an
+ * instrumented test, as wall-clock timings are meaningless in the shared unit test run. The output is checked by the
+ * EcsTimestampTest unit test.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class EcsTimestampBenchmark {
+
+    private static final int ITERATIONS = 200_000;
+
+    private static String legacyFormat(long epochMillis) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat.format(new Date(epochMillis));
+    }
+
+    @Test
+    public void format_isFasterThanSimpleDateFormat() {
+        long start = 1_700_000_000_000L;
+        int sink = 0;
+
+        // Warm-up
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += legacyFormat(start + i).length();
+            sink += EcsTimestamp.format(start + i).length();
+        }
+
+        long legacyStart = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += legacyFormat(start + i).length();
+        }
+        long legacyNanos = System.nanoTime() - legacyStart;
+
+        long formatterStart = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += EcsTimestamp.format(start + i).length();
+        }
+        long formatterNanos = System.nanoTime() - formatterStart;
+
+        Assert.assertTrue(sink > 0);
+        Assert.assertTrue(String.format(Locale.US, "SimpleDateFormat: %.1f ns/op, EcsTimestamp: %.1f ns/op",
+                (double) legacyNanos / ITERATIONS, (double) formatterNanos / ITERATIONS), formatterNanos < legacyNanos);
+    }
+}
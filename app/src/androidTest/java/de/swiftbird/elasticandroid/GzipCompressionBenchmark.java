@@ -0,0 +1,80 @@
+package de.swiftbird.elasticandroid;
+
+import android.os.Debug;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntFunction;
+import okio.Buffer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Benchmark on a device of the opt-in gzip compression of _bulk requests: bytes on the wire and CPU time per 1k
+ * documents of every component document type, with and without compression. Runs as an instrumented test, as
+ * CPU timings of the shared unit test run say nothing about a phone. The results are logged and part of the
+ * assertion message; the compression itself is checked by the GzipCompressionTest unit test.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class GzipCompressionBenchmark {
+
+    private static final String TAG = "GzipCompressionBenchmark";
+    private static final int DOCUMENTS = 1000;
+    private static final int ROUNDS = 15;
+
+    private final Gson gson = ElasticDocument.createGson();
+
+    // Writes the bulk body like OkHttp does and returns the bytes on the wire
+    private long write(List<ElasticDocument> documents, boolean compress) throws IOException {
+        Buffer wire = new Buffer();
+        BulkRequestBody body = new BulkRequestBody(documents, gson);
+        if (compress) {
+            GzipRequestInterceptor.gzip(body).writeTo(wire);
+        } else {
+            body.writeTo(wire);
+        }
+        return wire.size();
+    }
+
+    // Median CPU time of the calling thread to write the body of the documents
+    private long medianCpuNanos(List<ElasticDocument> documents, boolean compress) throws IOException {
+        long[] durations = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = Debug.threadCpuTimeNanos();
+            write(documents, compress);
+            durations[round] = Debug.threadCpuTimeNanos() - start;
+        }
+        Arrays.sort(durations);
+        return durations[ROUNDS / 2];
+    }
+
+    private void measure(String name, IntFunction<ElasticDocument> factory) throws IOException {
+        List<ElasticDocument> documents = DocumentFixture.createDocuments(factory, DOCUMENTS);
+        medianCpuNanos(documents, true); // Warm-up
+
+        long rawBytes = write(documents, false);
+        long gzipBytes = write(documents, true);
+        long rawNanos = medianCpuNanos(documents, false);
+        long gzipNanos = medianCpuNanos(documents, true);
+
+        String result = String.format(Locale.US, "%s: %.1f KB -> %.1f KB, %.1f ms -> %.1f ms CPU per %d documents",
+                name, rawBytes / 1024.0, gzipBytes / 1024.0, rawNanos / 1e6, gzipNanos / 1e6, DOCUMENTS);
+        Log.i(TAG, result);
+        Assert.assertTrue(result, gzipBytes < rawBytes);
+    }
+
+    @Test
+    public void gzip_reportsWireBytesAndCpuTimePerDocumentType() throws IOException {
+        measure("SelfLogCompDocument", DocumentFixture::selfLog);
+        measure("SecurityLogsCompDocument", DocumentFixture::securityLog);
+        measure("NetworkLogsCompDocument", DocumentFixture::networkLog);
+        measure("LocationCompDocument", DocumentFixture::location);
+    }
+}
@@ -0,0 +1,52 @@
+package de.swiftbird.elasticandroid;
+
+import android.database.Cursor;
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the migrations against the exported schemas in app/schemas, so a migration that doesn't produce the schema of
+ * the entities fails here instead of on the devices. Needs a device, as the exported schemas are read as assets.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+
+    private static final String TEST_DB = "migration-test";
+    private static final int FIRST_MIGRATED_VERSION = 31;
+    private static final int LATEST_VERSION = 43;
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(), AppDatabase.class);
+
+    @Test
+    public void migrate_everyVersionMatchesItsSchema() throws IOException {
+        helper.createDatabase(TEST_DB, FIRST_MIGRATED_VERSION).close();
+        for (int version = FIRST_MIGRATED_VERSION + 1; version <= LATEST_VERSION; version++) {
+            helper.runMigrationsAndValidate(TEST_DB, version, true, AppDatabase.MIGRATIONS).close();
+        }
+    }
+
+    @Test
+    public void migrate_keepsBufferedDocuments() throws IOException {
+        try (SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, FIRST_MIGRATED_VERSION)) {
+            db.execSQL("INSERT INTO SelfLogCompDocument (log_level, tag, message, timestamp, elasticAgentSnapshot) "
+                    + "VALUES ('INFO', 'MigrationTest', 'Buffered before the update', '2024-03-19T21:25:27.937Z', 0)");
+        }
+
+        try (SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, LATEST_VERSION, true, AppDatabase.MIGRATIONS);
+             Cursor cursor = db.query("SELECT message, timestamp_millis, batch_id, claimed_at FROM SelfLogCompDocument")) {
+            Assert.assertTrue(cursor.moveToFirst());
+            Assert.assertEquals("Buffered before the update", cursor.getString(0));
+            Assert.assertEquals(1710883527937L, cursor.getLong(1));
+            Assert.assertTrue("Not claimed by a batch", cursor.isNull(2));
+            Assert.assertEquals(0, cursor.getLong(3));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package de.swiftbird.elasticandroid;
+
+import java.util.Locale;
+
+/**
+ * Tunes the number of documents claimed per component and bulk request, based on the measured round-trip time,
+ * payload size and rejections of the previous requests. {@link PolicyData#maxDocumentsPerRequest} is only used
+ * as the upper limit, so the same policy works on a fast Wi-Fi as well as on a slow mobile link, or against a
+ * cluster that is busy.
+ *
+ * <p>The controller follows the AIMD scheme of TCP congestion control:</p>
+ * <ul>
+ *     <li>Additive increase: if a full batch was answered within {@link #TARGET_LATENCY_MILLIS}, the batch size
+ *     grows by at most a tenth of the policy maximum, but only as far as the larger payload is expected to stay
+ *     within the target at the measured throughput. Below the size Elasticsearch pushed back at last time, it
+ *     only closes half of the remaining gap per request, so a busy cluster isn't overrun again right away.</li>
+ *     <li>Multiplicative decrease: if Elasticsearch pushes back (429, 5xx, temporarily rejected documents or a
+ *     timeout), the batch size is halved. If the latency exceeds the target, it shrinks in proportion, but at most
+ *     by half.</li>
+ * </ul>
+ *
+ * <p>The state lives in memory and is persisted to {@link AppStatisticsData} after every request, so it can be
+ * shown in the app and restored when the process is started again. The controller doesn't log by itself, so it
+ * can be simulated in plain unit tests.</p>
+ */
+public class AdaptiveBatchController {
+    static final long TARGET_LATENCY_MILLIS = 3000; // A bulk request should be answered within this time
+    static final int MIN_BATCH_SIZE = 10;
+    private static final int STEPS_TO_MAX = 10; // The additive step is a tenth of the policy maximum
+    private static final double SMOOTHING = 0.3; // Weight of the newest sample in the moving averages
+
+    private static final AdaptiveBatchController instance = new AdaptiveBatchController();
+
+    private int batchSize; // 0 until the first batch or the state was restored
+    private double latencyMillis;
+    private double bytesPerSecond;
+    private int backpressureSize; // The batch size Elasticsearch pushed back at last time, 0 once it was exceeded
+
+    AdaptiveBatchController() {}
+
+    public static AdaptiveBatchController getInstance() {
+        return instance;
+    }
+
+    /**
+     * Restores the batch size persisted by a previous process, unless the controller already has a state.
+     *
+     * @param statistics The persisted statistics, may be null.
+     */
+    public synchronized void restore(AppStatisticsData statistics) {
+        if (batchSize == 0 && statistics != null && statistics.adaptiveBatchSize > 0) {
+            batchSize = statistics.adaptiveBatchSize;
+            latencyMillis = statistics.bulkLatencyMillis;
+            bytesPerSecond = statistics.bulkBytesPerSecond;
+        }
+    }
+
+    /**
+     * Returns the number of documents to claim per component for the next batch.
+     *
+     * @param maxBatchSize The upper limit set by the policy.
+     * @return The current batch size, never above the policy limit.
+     */
+    public synchronized int getBatchSize(int maxBatchSize) {
+        if (batchSize == 0) {
+            batchSize = maxBatchSize; // Start optimistic, a slow link or a busy cluster reduces it within a few requests
+        }
+        batchSize = clamp(batchSize, maxBatchSize);
+        return batchSize;
+    }
+
+    /**
+     * Adapts the batch size after Elasticsearch answered a request without pushing back.
+     *
+     * @param documents The number of documents sent.
+     * @param bytes The uncompressed size of the request.
+     * @param latencyMillis The round-trip time of the request.
+     * @param full True if at least one component filled its share of the batch, i.e. the batch size was the limit.
+     * @param maxBatchSize The upper limit set by the policy.
+     * @return The batch size for the next batch.
+     */
+    public synchronized int onAccepted(int documents, long bytes, long latencyMillis, boolean full, int maxBatchSize) {
+        int current = getBatchSize(maxBatchSize);
+        updateAverages(bytes, latencyMillis);
+
+        if (latencyMillis > TARGET_LATENCY_MILLIS && this.latencyMillis > TARGET_LATENCY_MILLIS) {
+            // Shrink in proportion to the missed target, so a slow link converges within a few requests.
+            // The smoothed latency has to miss it as well, so a single slow request doesn't shrink the batch.
+            batchSize = clamp((int) (current * Math.max(0.5, (double) TARGET_LATENCY_MILLIS / latencyMillis)), maxBatchSize);
+        } else if (full && documents > 0 && latencyMillis < TARGET_LATENCY_MILLIS) {
+            // Latency grows about linearly with the payload, so only grow as far as the time left to the target allows
+            double bytesPerBatchSize = (double) bytes / current;
+            double headroomBytes = (TARGET_LATENCY_MILLIS - latencyMillis) * bytesPerSecond / 1000;
+            int step = Math.max(1, maxBatchSize / STEPS_TO_MAX);
+            if (current >= backpressureSize) {
+                backpressureSize = 0; // Grown past the last pushback, the cluster can take more now
+            } else {
+                step = Math.min(step, Math.max(1, (backpressureSize - current) / 2));
+            }
+            step = (int) Math.min(step, headroomBytes / Math.max(1.0, bytesPerBatchSize));
+            if (step > 0) {
+                batchSize = clamp(current + step, maxBatchSize);
+            }
+        }
+        return batchSize;
+    }
+
+    /**
+     * Halves the batch size after Elasticsearch pushed back, e.g. with 429 Too Many Requests or a timeout.
+     *
+     * @param maxBatchSize The upper limit set by the policy.
+     * @return The batch size for the next batch.
+     */
+    public synchronized int onBackpressure(int maxBatchSize) {
+        int current = getBatchSize(maxBatchSize);
+        backpressureSize = current;
+        batchSize = clamp(current / 2, maxBatchSize);
+        return batchSize;
+    }
+
+    /**
+     * Writes the current state to the statistics.
+     *
+     * @param statisticsDataDAO The DAO of the statistics.
+     */
+    public void persist(AppStatisticsDataDAO statisticsDataDAO) {
+        int size;
+        int latency;
+        int throughput;
+        synchronized (this) {
+            size = batchSize;
+            latency = (int) latencyMillis;
+            throughput = (int) bytesPerSecond;
+        }
+        statisticsDataDAO.setAdaptiveBatchState(size, latency, throughput);
+    }
+
+    /**
+     * Returns a short summary of the state for logging.
+     *
+     * @return The batch size, smoothed latency and throughput.
+     */
+    public synchronized String getStatistics() {
+        return String.format(Locale.US, "Adaptive batch size %d (latency %.0f ms, %.0f KB/s)", batchSize, latencyMillis, bytesPerSecond / 1024);
+    }
+
+    synchronized double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    private void updateAverages(long bytes, long latency) {
+        double throughput = bytes * 1000.0 / Math.max(1, latency);
+        if (latencyMillis == 0) {
+            latencyMillis = latency;
+            bytesPerSecond = throughput;
+        } else {
+            latencyMillis += SMOOTHING * (latency - latencyMillis);
+            bytesPerSecond += SMOOTHING * (throughput - bytesPerSecond);
+        }
+    }
+
+    private static int clamp(int size, int maxBatchSize) {
+        return Math.max(Math.min(MIN_BATCH_SIZE, maxBatchSize), Math.min(size, maxBatchSize));
+    }
+}
@@ -175,7 +175,7 @@ public class AgentMetadata {
         hostECSMeta.name = hostname;
         hostECSMeta.id = Build.ID; // A build ID, not necessarily unique per device
 
-        hostECSMeta.ip = getDeviceIPs(); // Get all non-loopback IP addresses
+        hostECSMeta.ip = HostMetadataCache.getDeviceIPs(); // Get all non-loopback IP addresses (cached until the network changes)
         hostECSMeta.mac = Collections.singletonList("02:00:00:00:00:00"); // Android doesn't provide any other MAC address anyway
 
         // System metadata with static/hardcoded values
@@ -195,6 +195,7 @@ public class AgentMetadata {
      * Retrieves a list of IP addresses assigned to the device, excluding loopback addresses.
      * This method iterates over all network interfaces of the device, collecting non-loopback, IPv4 addresses.
      * It's useful for identifying the device's network interfaces that are accessible within a network.
+     * This is rather expensive, use {@link HostMetadataCache#getDeviceIPs()} instead.
      *
      * @return A List of String objects, each representing an IPv4 address assigned to the device.
      */
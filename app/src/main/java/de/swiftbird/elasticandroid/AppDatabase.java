@@ -6,8 +6,9 @@ import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Central abstract database class for the application, using the Room persistence library to manage SQLite database operations.
@@ -30,8 +31,9 @@ import java.util.concurrent.Executors;
                 SecurityLogsCompDocument.class,
                 NetworkLogsCompDocument.class,
                 LocationCompDocument.class,
+                DeadLetterDocument.class,
         },
-        version = 31,
+        version = 43,
         exportSchema = true,
         autoMigrations = {
                 //@AutoMigration(from = 30, to = 31),
@@ -47,14 +49,144 @@ public abstract class AppDatabase extends RoomDatabase {
     public abstract SecurityLogsCompBuffer securityLogCompBuffer();
     public abstract NetworkLogsCompBuffer networkLogsCompBuffer();
     public abstract LocationCompBuffer locationCompBuffer();
+    public abstract DeadLetterDocumentDAO deadLetterDocumentDAO();
 
     private static final boolean FALLBACK_TO_DESTRUCTIVE_MIGRATION = BuildConfig.DEBUG; // Flag to enable destructive migration in debug mode
-    private static final int NUMBER_OF_THREADS = 4; // Thread pool size for database write operations
-    static final ExecutorService databaseWriteExecutor =
-            Executors.newFixedThreadPool(NUMBER_OF_THREADS); // Executor service for asynchronous database operations
+    static final ExecutorService databaseWriteExecutor = AppExecutors.diskIO(); // Shared pool for asynchronous database operations
     private static volatile AppDatabase appDatabase; // Singleton instance of the database
 
+    static final String[] BUFFER_TABLES = {
+            "SelfLogCompDocument",
+            "SecurityLogsCompDocument",
+            "NetworkLogsCompDocument",
+            "LocationCompDocument",
+    };
 
+    /**
+     * Adds the batch claim columns to all component buffers, so documents are only deleted after they were sent.
+     */
+    static final Migration MIGRATION_31_32 = new Migration(31, 32) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            for (String table : BUFFER_TABLES) {
+                database.execSQL("ALTER TABLE `" + table + "` ADD COLUMN `batch_id` TEXT");
+                database.execSQL("ALTER TABLE `" + table + "` ADD COLUMN `claimed_at` INTEGER NOT NULL DEFAULT 0");
+            }
+        }
+    };
+
+    /**
+     * Adds the counter of documents dropped after a permanent rejection by Elasticsearch.
+     */
+    static final Migration MIGRATION_32_33 = new Migration(32, 33) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `AppStatisticsData` ADD COLUMN `dropped_documents` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Adds the policy flag to compress requests to Elasticsearch.
+     */
+    static final Migration MIGRATION_33_34 = new Migration(33, 34) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `PolicyData` ADD COLUMN `compress_requests` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Adds the numeric epoch millis timestamp to all component buffers and fills it from the ECS timestamp of existing documents.
+     */
+    static final Migration MIGRATION_34_35 = new Migration(34, 35) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            for (String table : BUFFER_TABLES) {
+                database.execSQL("ALTER TABLE `" + table + "` ADD COLUMN `timestamp_millis` INTEGER NOT NULL DEFAULT 0");
+                // julianday() understands "2024-03-19T21:25:27.937Z"; 2440587.5 is the julian day of the unix epoch
+                database.execSQL("UPDATE `" + table + "` SET `timestamp_millis` = CAST(ROUND((julianday(`timestamp`) - 2440587.5) * 86400000) AS INTEGER) WHERE `timestamp` IS NOT NULL");
+            }
+        }
+    };
+
+    static final Migration MIGRATION_35_36 = new Migration(35, 36) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            // Claims, acknowledgements and releases look up documents by batch, so they must not scan the whole buffer
+            for (String table : BUFFER_TABLES) {
+                database.execSQL("CREATE INDEX IF NOT EXISTS `index_" + table + "_batch_id` ON `" + table + "` (`batch_id`)");
+            }
+        }
+    };
+
+    /**
+     * Adds the catch-up budget to the policy and the catch-up throughput to the statistics.
+     */
+    static final Migration MIGRATION_36_37 = new Migration(36, 37) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `PolicyData` ADD COLUMN `catchup_max_in_flight` INTEGER NOT NULL DEFAULT 2");
+            database.execSQL("ALTER TABLE `PolicyData` ADD COLUMN `catchup_max_duration` INTEGER NOT NULL DEFAULT 120");
+            database.execSQL("ALTER TABLE `PolicyData` ADD COLUMN `catchup_max_bytes` INTEGER NOT NULL DEFAULT 52428800");
+            database.execSQL("ALTER TABLE `AppStatisticsData` ADD COLUMN `catchup_documents_per_second` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Adds the state of the adaptive batch size to the statistics.
+     */
+    static final Migration MIGRATION_37_38 = new Migration(37, 38) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `AppStatisticsData` ADD COLUMN `adaptive_batch_size` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE `AppStatisticsData` ADD COLUMN `bulk_latency_millis` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE `AppStatisticsData` ADD COLUMN `bulk_bytes_per_second` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Adds the byte budget per bulk request to the policy and the histogram of the request sizes to the statistics.
+     */
+    static final Migration MIGRATION_38_39 = new Migration(38, 39) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `PolicyData` ADD COLUMN `max_bytes_per_request` INTEGER NOT NULL DEFAULT 5242880");
+            database.execSQL("ALTER TABLE `AppStatisticsData` ADD COLUMN `bulk_size_histogram` TEXT");
+        }
+    };
+
+    static final Migration MIGRATION_39_40 = new Migration(39, 40) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `PolicyData` ADD COLUMN `checkin_poll_timeout` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_40_41 = new Migration(40, 41) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `AppStatisticsData` ADD COLUMN `ingest_latency_millis` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_41_42 = new Migration(41, 42) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `PolicyData` ADD COLUMN `wakeup_alignment_window` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_42_43 = new Migration(42, 43) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `DeadLetterDocument` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `component` TEXT, `document` TEXT, `status` INTEGER NOT NULL, `error_type` TEXT, `error_reason` TEXT, `dead_lettered_at` INTEGER NOT NULL)");
+        }
+    };
+
+    static final Migration[] MIGRATIONS = {
+            MIGRATION_31_32, MIGRATION_32_33, MIGRATION_33_34, MIGRATION_34_35, MIGRATION_35_36, MIGRATION_36_37,
+            MIGRATION_37_38, MIGRATION_38_39, MIGRATION_39_40, MIGRATION_40_41, MIGRATION_41_42, MIGRATION_42_43,
+    };
 
     /**
      * Gets the singleton instance of the AppDatabase.
@@ -69,7 +201,8 @@ public abstract class AppDatabase extends RoomDatabase {
             synchronized (AppDatabase.class) {
                 if (appDatabase == null) {
                     Builder<AppDatabase> builder = Room.databaseBuilder(context.getApplicationContext(),
-                            AppDatabase.class, "agent-data");
+                            AppDatabase.class, "agent-data")
+                            .addMigrations(MIGRATIONS);
 
                     if(FALLBACK_TO_DESTRUCTIVE_MIGRATION){
                         builder.fallbackToDestructiveMigration();
@@ -26,8 +26,8 @@ public class AppDeviceAdminReceiver extends DeviceAdminReceiver {
     }
 
     /**
-     * Invoked when security logs are available for the device. This method initiates a new thread
-     * to handle the security logs asynchronously to avoid blocking the main thread.
+     * Invoked when security logs are available for the device. This runs on the main thread, so it only enqueues
+     * a {@link LogIngestionWorker}, which retrieves and stores the logs in the background.
      *
      * @param context The Context in which the receiver is running.
      * @param intent  The Intent being received.
@@ -36,20 +36,12 @@ public class AppDeviceAdminReceiver extends DeviceAdminReceiver {
     public void onSecurityLogsAvailable(@NonNull Context context, @NonNull Intent intent) {
         super.onSecurityLogsAvailable(context, intent);
         AppLog.i("AppDeviceAdminReceiver", "Security logs available");
-        SecurityLogsComp logsComp = SecurityLogsComp.getInstance();
-        // New thread to handle the security logs
-        new Thread(() -> {
-            try {
-                logsComp.handleSecurityLogs(context);
-            } catch (Exception e) {
-                AppLog.e("AppDeviceAdminReceiver", "Error handling security logs: " + e.getMessage());
-            }
-        }).start();
+        WorkScheduler.scheduleLogIngestionWorker(context, LogIngestionWorker.TYPE_SECURITY, 0, -1);
     }
 
     /**
-     * Called when network logs are available. This method starts a new thread to process the network logs
-     * asynchronously, based on the received batchToken and the count of network logs.
+     * Called when network logs are available. Only the batch is recorded here, a {@link LogIngestionWorker}
+     * retrieves and stores the network logs of the batchToken in the background.
      *
      * @param context The Context in which the receiver is running.
      * @param intent  The Intent being received.
@@ -60,14 +52,6 @@ public class AppDeviceAdminReceiver extends DeviceAdminReceiver {
     public void onNetworkLogsAvailable(@NonNull Context context, @NonNull Intent intent, long batchToken, int networkLogsCount) {
         super.onNetworkLogsAvailable(context, intent, batchToken, networkLogsCount);
         AppLog.i("AppDeviceAdminReceiver", "Network logs available from batchToken: " + batchToken + " with count: " + networkLogsCount);
-        NetworkLogsComp logsComp = NetworkLogsComp.getInstance();
-        // New thread to handle the network logs
-        new Thread(() -> {
-            try {
-                logsComp.handleNetworkLogs(context, batchToken);
-            } catch (Exception e) {
-                AppLog.e("AppDeviceAdminReceiver", "Error handling network logs: " + e.getMessage());
-            }
-        }).start();
+        WorkScheduler.scheduleLogIngestionWorker(context, LogIngestionWorker.TYPE_NETWORK, batchToken, networkLogsCount);
     }
 }
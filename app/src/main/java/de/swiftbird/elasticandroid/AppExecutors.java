@@ -0,0 +1,137 @@
+package de.swiftbird.elasticandroid;
+
+import androidx.annotation.NonNull;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Agent-wide execution layer. All background work of the agent runs on one of these named, bounded pools
+ * instead of threads and executors created ad hoc, which were never shut down and leaked a thread per use.
+ *
+ * <ul>
+ *     <li>{@link #diskIO()}: database writes and other short database work.</li>
+ *     <li>{@link #networkIO()}: blocking I/O, e.g. draining component buffers or reading device logs.</li>
+ *     <li>{@link #callbacks()}: handling the results of asynchronous requests and scheduling follow-up work.</li>
+ *     <li>{@link #scheduler()}: delayed tasks, e.g. flushing the self-log buffer.</li>
+ * </ul>
+ *
+ * <p>Idle threads time out, so the pools cost nothing while the agent is idle. The queues are bounded: if one
+ * overflows, the task is rejected with a {@link RejectedExecutionException} and counted, instead of the heap
+ * growing without limit. The callbacks pool is the exception: its tasks complete the workers, and are submitted
+ * from OkHttp threads that would crash the process on a rejection. If its queue is full, the task runs on the
+ * submitting thread instead, which is counted as well. The pools live as long as the process and are never
+ * shut down.</p>
+ */
+public final class AppExecutors {
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final BoundedPool diskIO = new BoundedPool("db", 4, 1024, false);
+    private static final BoundedPool networkIO = new BoundedPool("io", 4, 256, false);
+    private static final BoundedPool callbacks = new BoundedPool("callback", 2, 256, true);
+    private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("scheduler"));
+
+    static {
+        scheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+    }
+
+    private AppExecutors() {}
+
+    public static ExecutorService diskIO() {
+        return diskIO.executor;
+    }
+
+    public static ExecutorService networkIO() {
+        return networkIO.executor;
+    }
+
+    public static ExecutorService callbacks() {
+        return callbacks.executor;
+    }
+
+    public static ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Returns a short summary of the thread counts and queue depths of all pools for logging.
+     *
+     * @return The metrics of all pools.
+     */
+    public static String getStatistics() {
+        return "Executors: " + diskIO.getStatistics() + "; " + networkIO.getStatistics() + "; " + callbacks.getStatistics()
+                + String.format(Locale.US, "; scheduler: %d threads, %d queued", scheduler.getPoolSize(), scheduler.getQueue().size());
+    }
+
+    /**
+     * Returns how often a callback ran on the submitting thread because the callbacks pool was full.
+     *
+     * @return The number of callbacks run by the caller.
+     */
+    static long getCallbacksRunByCaller() {
+        return callbacks.runByCaller.get();
+    }
+
+    /**
+     * A fixed-size thread pool with a bounded queue that counts rejected tasks.
+     */
+    private static class BoundedPool {
+        final String name;
+        final int queueCapacity;
+        final ThreadPoolExecutor executor;
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong runByCaller = new AtomicLong();
+
+        /**
+         * @param callerRuns If the queue is full, run the task on the submitting thread instead of rejecting it.
+         */
+        BoundedPool(String name, int threads, int queueCapacity, boolean callerRuns) {
+            this.name = name;
+            this.queueCapacity = queueCapacity;
+            this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), new NamedThreadFactory(name),
+                    (task, pool) -> {
+                        if (callerRuns && !pool.isShutdown()) {
+                            runByCaller.incrementAndGet();
+                            task.run();
+                            return;
+                        }
+                        rejected.incrementAndGet();
+                        throw new RejectedExecutionException("Queue of executor " + name + " is full (" + queueCapacity + " tasks)");
+                    });
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        String getStatistics() {
+            return String.format(Locale.US, "%s: %d/%d threads active, %d/%d queued, %d completed, %d rejected, %d run by caller",
+                    name, executor.getActiveCount(), executor.getPoolSize(), executor.getQueue().size(), queueCapacity,
+                    executor.getCompletedTaskCount(), rejected.get(), runByCaller.get());
+        }
+    }
+
+    /**
+     * Names the threads of a pool, so they can be told apart in thread dumps and the profiler.
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.prefix = "elastic-" + name + "-";
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            return new Thread(runnable, prefix + counter.incrementAndGet());
+        }
+    }
+}
@@ -19,6 +19,12 @@ public class AppInstance extends Application {
     public void onCreate() {
         super.onCreate();
         instance = this;
+
+        // Keep the host metadata cached until the network changes
+        HostMetadataCache.init(this);
+
+        // Count the buffered documents once, from then on they are counted in memory
+        AppDatabase.databaseWriteExecutor.execute(() -> BufferCounter.seedAll(AppDatabase.getDatabase(this)));
     }
 
     /**
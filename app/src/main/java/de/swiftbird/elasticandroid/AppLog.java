@@ -2,16 +2,49 @@ package de.swiftbird.elasticandroid;
 
 import android.os.Build;
 import android.util.Log;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Provides a unified logging interface that extends Android's Log class functionalities.
  * In addition to outputting logs to the console, it inserts log records into the application's
  * database for persistence and further processing, depending on configured policies.
+ *
+ * <p>The levels enabled by the policy are compiled once per policy change (see {@link ComponentPlan}), so filtered records cost nothing but
+ * the console output. Accepted records go to a bounded ring buffer that is written to the database in batches.</p>
+ *
+ * <p>To keep the self-log volume bounded no matter how much the agent logs, every tag is rate limited by a token
+ * bucket, repetitions of the same message are collapsed into a "Last message repeated N times" record, and the
+ * DEBUG and INFO records of the pipeline that ships the self-logs are not stored at all, as each flush would
+ * otherwise create new records about itself.</p>
  */
 public class AppLog {
-    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final String TAG = "AppLog";
+    static final String[] LEVELS = {"DEBUG", "INFO", "WARN", "ERROR"};
+    static final int BUFFER_CAPACITY = 2000; // Records kept in memory at most, the oldest are dropped first
+    static final int FLUSH_BATCH_SIZE = 200; // Records written per transaction, also flushes immediately when reached
+    private static final long FLUSH_DELAY_MILLIS = 1000; // Time to gather records before a batch is written
+    static final int RATE_LIMIT_BURST = 20; // Records a tag may log at once before it is rate limited
+    static final double RATE_LIMIT_PER_SECOND = 1.0; // Records a tag may log per second on average
+    private static final Set<String> PIPELINE_TAGS = new HashSet<>(Arrays.asList("AppLog", "ElasticWorker", "NetworkBuilder", "HostMetadataCache"));
+
+    private static final ArrayDeque<PendingLog> pendingLogs = new ArrayDeque<>();
+    private static final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private static final Map<String, TagState> tagStates = new HashMap<>(); // Guarded by pendingLogs
+    private static final AtomicLong droppedLogs = new AtomicLong();
+    private static volatile ScheduledExecutorService flushExecutor = AppExecutors.scheduler();
 
     /**
      * Logs an informational message both to the console and the application's log storage.
@@ -77,67 +110,283 @@ public class AppLog {
         return 0;
     }
 
+    private static int levelIndex(String level) {
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (LEVELS[i].equals(level)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
-     * Inserts a log record into the application's log storage for persistence and later processing.
-     * This operation is performed asynchronously to prevent blocking the main thread.
+     * Queues a log record for the application's log storage for persistence and later processing.
+     * Records of levels the current policy doesn't enable are discarded right away. Accepted records are kept
+     * in a bounded in-memory buffer and written in batches on a background thread, so the calling thread
+     * never touches the database. If the buffer is full, the oldest record is dropped.
+     *
+     * <p>A record repeating the last buffered record of its tag only increases its repeat count. Other records
+     * need a token of their tag's bucket and are counted as suppressed if there is none.</p>
      *
      * @param level The severity level of the log message (e.g., INFO, WARN, ERROR).
      * @param tag   Tag associated with the log message.
      * @param message The log message.
      */
     private static void insertLog(String level, String tag, String message) {
-        // Execute on a background thread to avoid blocking the main thread
-        executor.submit(() -> {
-            try {
-                AppDatabase db = AppDatabase.getDatabase(AppInstance.getAppContext());
-                FleetEnrollData enrollmentData = db.enrollmentDataDAO().getEnrollmentInfoSync(1);
-                PolicyData policyData = db.policyDataDAO().getPolicyDataSync();
-                boolean selfLogEnabled = policyData != null && policyData.paths != null && policyData.paths.contains("android://self-log");
-                if(!selfLogEnabled) {
-                    return;
-                }
+        ComponentPlan plan = ComponentPlan.getCurrent();
+        boolean[] levels = plan != null ? plan.getSelfLogLevels() : null; // Unknown until the policy was applied
+        int index = levelIndex(level);
+        if (index < 0 || (levels != null && !levels[index])) {
+            return;
+        }
+        if (index < levelIndex("WARN") && PIPELINE_TAGS.contains(tag)) {
+            return;
+        }
 
-                // Get the path from the policy data for self-log in the "," separated format
-                String[] paths = policyData.paths.split(",");
-                for (String path : paths) {
-                    if (path.startsWith("android://self-log")) {
-                        // The path is in the format "android://self-log.INFO"
-                        String[] pathParts = path.split("\\.");
-                        if (pathParts.length > 1) {
-                            // Check if the log level is high enough to be sent
-                            if (level.equals("DEBUG") && pathParts[1].equals("info")) {
-                                return;
-                            }
-                            if ((level.equals("DEBUG") || level.equals("INFO")) && pathParts[1].equals("warn")) {
-                                return;
-                            }
-                            if ((level.equals("DEBUG") || level.equals("INFO") || level.equals("WARN")) && pathParts[1].equals("error")) {
-                                return;
-                            }
-                        } else {
-                            // If no log level is specified, send only INFO logs
-                            if (!level.equals("INFO")) {
-                                return;
-                            }
-                        }
+        long now = System.currentTimeMillis();
+        int pending;
+        synchronized (pendingLogs) {
+            TagState state = tagStates.get(tag);
+            if (state == null) {
+                state = new TagState(now);
+                tagStates.put(tag, state);
+            }
+
+            PendingLog last = state.lastLog;
+            if (last != null && !last.taken && last.level.equals(level) && Objects.equals(last.message, message)) {
+                last.repeated++;
+                last.lastRepeatedAt = now;
+                return;
+            }
+            if (!state.bucket.tryAcquire(now)) {
+                state.suppressed++;
+                return;
+            }
+
+            if (pendingLogs.size() >= BUFFER_CAPACITY) {
+                pendingLogs.pollFirst().taken = true;
+                droppedLogs.incrementAndGet();
+            }
+            PendingLog log = new PendingLog(now, level, tag, message);
+            pendingLogs.addLast(log);
+            state.lastLog = log;
+            pending = pendingLogs.size();
+        }
+
+        if (pending >= FLUSH_BATCH_SIZE) {
+            scheduleFlush(0);
+        } else {
+            scheduleFlush(FLUSH_DELAY_MILLIS);
+        }
+    }
+
+    private static void scheduleFlush(long delayMillis) {
+        // A pending delayed flush is brought forward if the buffer filled up in the meantime
+        if (!flushScheduled.compareAndSet(false, true) && delayMillis > 0) {
+            return;
+        }
+        try {
+            flushExecutor.schedule(() -> flush(), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            flushScheduled.set(false); // Records stay in the buffer until the next flush
+        }
+    }
+
+    /**
+     * Writes all buffered log records to the self-log buffer. Until the agent is enrolled and has a policy, there is
+     * nowhere to store them, so the buffered records are dropped and counted.
+     */
+    private static void flush() {
+        flushScheduled.set(false);
+        IngestionContext ingestionContext;
+        AppDatabase db;
+        try {
+            db = AppDatabase.getDatabase(AppInstance.getAppContext());
+            FleetEnrollData enrollmentData = db.enrollmentDataDAO().getEnrollmentInfoSync(1);
+            PolicyData policyData = db.policyDataDAO().getPolicyDataSync();
+            if (ComponentPlan.getCurrent() == null) {
+                // First flush since the app started, compile the stored policy once
+                ComponentPlan.apply(policyData);
+            }
+            if (enrollmentData == null || policyData == null) {
+                // The agent is not enrolled yet and therefore can't send logs anyway
+                synchronized (pendingLogs) {
+                    droppedLogs.addAndGet(pendingLogs.size());
+                    for (PendingLog log : pendingLogs) {
+                        log.taken = true;
                     }
+                    pendingLogs.clear();
                 }
+                return;
+            }
+            ingestionContext = IngestionContext.of(enrollmentData, policyData);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read the enrollment, keeping the buffered log records: " + e.getMessage());
+            return;
+        }
+        flush(ingestionContext, db.selfLogCompBuffer());
+    }
 
-                SelfLogCompDocument document = new SelfLogCompDocument(enrollmentData, policyData, level, tag, message);
-                SelfLogComp selfLogComp = SelfLogComp.getInstance();
-                selfLogComp.setup(AppInstance.getAppContext() , null, null, "");
-                selfLogComp.addDocumentToBuffer(document);
+    /**
+     * Writes all buffered log records to the given self-log buffer, one transaction per batch. If a batch can't be
+     * written, only that batch is dropped and the remaining records are kept for the next flush. Dropped records are
+     * counted and reported with the next batch that is written.
+     *
+     * @param ingestionContext The enrollment, policy and metadata of the documents.
+     * @param buffer           The self-log buffer to write to.
+     */
+    static void flush(IngestionContext ingestionContext, SelfLogCompBuffer buffer) {
+        List<PendingLog> batch = new ArrayList<>(FLUSH_BATCH_SIZE);
+        while (true) {
+            batch.clear();
+            synchronized (pendingLogs) {
+                while (batch.size() < FLUSH_BATCH_SIZE && !pendingLogs.isEmpty()) {
+                    PendingLog log = pendingLogs.pollFirst();
+                    log.taken = true;
+                    batch.add(log);
+                }
+                for (Map.Entry<String, TagState> entry : tagStates.entrySet()) {
+                    TagState state = entry.getValue();
+                    if (state.suppressed > 0) {
+                        batch.add(new PendingLog(System.currentTimeMillis(), "WARN", entry.getKey(),
+                                "Rate limited, suppressed " + state.suppressed + " log messages of this tag"));
+                        state.suppressed = 0;
+                    }
+                }
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                writeBatch(ingestionContext, buffer, batch);
             } catch (Exception e) {
-                // Ignore any exceptions, as it may be that the agent is not enrolled yet and therefor can't send logs anyway
+                droppedLogs.addAndGet(batch.size());
+                Log.w(TAG, "Failed to write " + batch.size() + " log records, keeping the rest for the next flush: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private static void writeBatch(IngestionContext ingestionContext, SelfLogCompBuffer buffer, List<PendingLog> batch) {
+        boolean[] levels = ComponentPlan.getCurrent().getSelfLogLevels(); // Applied by flush() before the first batch
+        List<SelfLogCompDocument> documents = new ArrayList<>(batch.size() + 1);
+
+        long dropped = droppedLogs.get();
+        if (dropped > 0 && !levels[levelIndex("WARN")]) {
+            droppedLogs.addAndGet(-dropped); // Not reported, as the policy disabled warnings
+        } else if (dropped > 0) {
+            String message = "Dropped " + dropped + " log messages because the self-log buffer was full or could not be written";
+            Log.w(TAG, message);
+            documents.add(new SelfLogCompDocument(ingestionContext, "WARN", TAG, message));
+        }
+
+        for (PendingLog log : batch) {
+            // Records queued before the policy was known are filtered here
+            if (!levels[levelIndex(log.level)]) {
+                continue;
             }
-        });
+            SelfLogCompDocument document = new SelfLogCompDocument(ingestionContext, log.level, log.tag, log.message);
+            document.setTimestamp(log.timestamp);
+            documents.add(document);
+            if (log.repeated > 0) {
+                SelfLogCompDocument repeatedDocument = new SelfLogCompDocument(ingestionContext, log.level, log.tag, "Last message repeated " + log.repeated + " times");
+                repeatedDocument.setTimestamp(log.lastRepeatedAt);
+                documents.add(repeatedDocument);
+            }
+        }
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        buffer.insertDocumentsAndCount(documents, BufferCounter.SELF_LOG);
+        droppedLogs.addAndGet(-dropped); // Reported, records dropped meanwhile are reported with the next batch
+    }
 
+    /**
+     * Discards all buffered log records, the dropped count and the rate limiting state, and schedules the flushes on
+     * the given executor from now on. Used by tests, which flush into their own database.
+     *
+     * @param executor The executor to schedule the flushes on.
+     */
+    static void reset(ScheduledExecutorService executor) {
+        synchronized (pendingLogs) {
+            pendingLogs.clear();
+            tagStates.clear();
+            droppedLogs.set(0);
+        }
+        flushScheduled.set(false);
+        flushExecutor = executor;
     }
 
     /**
-     * Shuts down the logger by stopping the executor service.
+     * Returns the number of log records dropped because the buffer was full or could not be written, since they were
+     * last reported.
+     *
+     * @return The number of dropped log records.
      */
-    public static void shutdownLogger() {
-        executor.shutdown();
+    public static long getDroppedLogCount() {
+        return droppedLogs.get();
+    }
+
+    /**
+     * A log record waiting to be written to the self-log buffer.
+     * The mutable fields are guarded by the lock of the pending records.
+     */
+    private static class PendingLog {
+        final long timestamp;
+        final String level;
+        final String tag;
+        final String message;
+        int repeated; // Number of identical records collapsed into this one
+        long lastRepeatedAt; // Time of the last collapsed record
+        boolean taken; // Removed from the buffer, so no more repetitions can be collapsed into it
+
+        PendingLog(long timestamp, String level, String tag, String message) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.tag = tag;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Rate limiting and repeat collapsing state of a single tag.
+     */
+    private static class TagState {
+        final TokenBucket bucket;
+        PendingLog lastLog; // The last record of this tag that was buffered
+        long suppressed; // Records rejected by the rate limit since the last flush
+
+        TagState(long nowMillis) {
+            bucket = new TokenBucket(RATE_LIMIT_BURST, RATE_LIMIT_PER_SECOND, nowMillis);
+        }
+    }
+
+    /**
+     * Classic token bucket: it starts full, refills continuously and allows one record per token.
+     * Not thread-safe.
+     */
+    static class TokenBucket {
+        private final int capacity;
+        private final double tokensPerMilli;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(int capacity, double tokensPerSecond, long nowMillis) {
+            this.capacity = capacity;
+            this.tokensPerMilli = tokensPerSecond / 1000;
+            this.tokens = capacity;
+            this.lastRefill = nowMillis;
+        }
+
+        boolean tryAcquire(long nowMillis) {
+            tokens = Math.min(capacity, tokens + Math.max(0, nowMillis - lastRefill) * tokensPerMilli);
+            lastRefill = Math.max(lastRefill, nowMillis);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
     }
 }
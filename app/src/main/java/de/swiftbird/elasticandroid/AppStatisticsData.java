@@ -34,6 +34,27 @@ public class AppStatisticsData {
     @ColumnInfo(name = "agent_health")
     public String agentHealth; // Descriptive status of the agent's health.
 
+    @ColumnInfo(name = "dropped_documents", defaultValue = "0")
+    public int droppedDocuments; // The total number of documents permanently rejected by Elasticsearch and moved to the DeadLetterDocument table.
+
+    @ColumnInfo(name = "catchup_documents_per_second", defaultValue = "0")
+    public int catchupDocumentsPerSecond; // Throughput of the last upload run that sent more than one batch to catch up on a backlog.
+
+    @ColumnInfo(name = "adaptive_batch_size", defaultValue = "0")
+    public int adaptiveBatchSize; // Documents per component and bulk request as tuned by the AdaptiveBatchController, 0 if not tuned yet.
+
+    @ColumnInfo(name = "bulk_latency_millis", defaultValue = "0")
+    public int bulkLatencyMillis; // Smoothed round-trip time of the bulk requests.
+
+    @ColumnInfo(name = "bulk_bytes_per_second", defaultValue = "0")
+    public int bulkBytesPerSecond; // Smoothed uncompressed throughput of the bulk requests.
+
+    @ColumnInfo(name = "bulk_size_histogram")
+    public String bulkSizeHistogram; // Number of bulk requests per size bucket, see RequestSizeHistogram.
+
+    @ColumnInfo(name = "ingest_latency_millis", defaultValue = "0")
+    public int ingestLatencyMillis; // Time from the last security or network log broadcast until its events were stored.
+
     /**
      * Constructor initializing the statistics data with a default id.
      * This ensures that the entity acts as a singleton, only allowing a single set of statistics data.
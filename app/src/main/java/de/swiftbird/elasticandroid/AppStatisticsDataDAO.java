@@ -49,20 +49,54 @@ public interface AppStatisticsDataDAO {
     void setLastDocumentsSentCount(int lastDocumentsSentCount);
 
     /**
-     * Increases the combined buffer size by a specified amount.
+     * Persists the combined buffer size, as counted in memory by {@link BufferCounter}.
      *
-     * @param amount The amount by which to increase the combined buffer size.
+     * @param combinedBufferSize The number of documents in all buffers.
      */
-    @Query("UPDATE AppStatisticsData SET combined_buffer_size = combined_buffer_size + :amount")
-    void increaseCombinedBufferSize(int amount);
+    @Query("UPDATE AppStatisticsData SET combined_buffer_size = :combinedBufferSize")
+    void setCombinedBufferSize(int combinedBufferSize);
 
     /**
-     * Decreases the combined buffer size by a specified amount.
+     * Increases the number of documents dropped after being permanently rejected by Elasticsearch.
      *
-     * @param amount The amount by which to decrease the combined buffer size.
+     * @param amount The number of dropped documents.
      */
-    @Query("UPDATE AppStatisticsData SET combined_buffer_size = combined_buffer_size - :amount")
-    void decreaseCombinedBufferSize(int amount);
+    @Query("UPDATE AppStatisticsData SET dropped_documents = dropped_documents + :amount")
+    void increaseDroppedDocuments(int amount);
+
+    /**
+     * Sets the throughput of the last upload run that caught up on a backlog.
+     *
+     * @param documentsPerSecond The number of documents sent per second.
+     */
+    @Query("UPDATE AppStatisticsData SET catchup_documents_per_second = :documentsPerSecond")
+    void setCatchupDocumentsPerSecond(int documentsPerSecond);
+
+    /**
+     * Sets the state of the {@link AdaptiveBatchController}.
+     *
+     * @param batchSize The current batch size.
+     * @param latencyMillis The smoothed round-trip time of the bulk requests.
+     * @param bytesPerSecond The smoothed throughput of the bulk requests.
+     */
+    @Query("UPDATE AppStatisticsData SET adaptive_batch_size = :batchSize, bulk_latency_millis = :latencyMillis, bulk_bytes_per_second = :bytesPerSecond")
+    void setAdaptiveBatchState(int batchSize, int latencyMillis, int bytesPerSecond);
+
+    /**
+     * Sets the histogram of the bulk request sizes.
+     *
+     * @param bulkSizeHistogram The bucket counts as written by {@link RequestSizeHistogram#format()}.
+     */
+    @Query("UPDATE AppStatisticsData SET bulk_size_histogram = :bulkSizeHistogram")
+    void setBulkSizeHistogram(String bulkSizeHistogram);
+
+    /**
+     * Sets the ingest latency of the last security or network log batch, see {@link LogIngestionWorker}.
+     *
+     * @param ingestLatencyMillis The time from the broadcast until the events were stored.
+     */
+    @Query("UPDATE AppStatisticsData SET ingest_latency_millis = :ingestLatencyMillis")
+    void setIngestLatencyMillis(int ingestLatencyMillis);
 
     /**
      * Updates the health status of the agent.
@@ -0,0 +1,124 @@
+package de.swiftbird.elasticandroid;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory count of the documents in the buffer of a component.
+ *
+ * <p>Instead of updating the statistics table for every buffered document, each component buffer keeps an
+ * atomic counter that is seeded from the actual table size when the app starts. The buffer DAOs change the
+ * counter in the same transaction as the rows, so it stays exact even if a flush fails halfway. The combined
+ * size is published through {@link #getCombinedSizeLiveData()} and only persisted to {@link AppStatisticsData}
+ * once per flush by the {@link ElasticWorker}.</p>
+ */
+public class BufferCounter {
+    private static final String TAG = "BufferCounter";
+
+    public static final BufferCounter SELF_LOG = new BufferCounter("self-log");
+    public static final BufferCounter SECURITY_LOGS = new BufferCounter("security-logs");
+    public static final BufferCounter NETWORK_LOGS = new BufferCounter("network-logs");
+    public static final BufferCounter LOCATION = new BufferCounter("location");
+    private static final List<BufferCounter> ALL = Arrays.asList(SELF_LOG, SECURITY_LOGS, NETWORK_LOGS, LOCATION);
+
+    private static final MutableLiveData<Integer> combinedSize = new MutableLiveData<>();
+
+    private final String componentName;
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile boolean seeded = false;
+
+    private BufferCounter(String componentName) {
+        this.componentName = componentName;
+    }
+
+    /**
+     * Seeds all counters from the actual sizes of the buffer tables. Must not be called on the main thread.
+     *
+     * @param db The database holding the buffers.
+     */
+    public static void seedAll(AppDatabase db) {
+        db.selfLogCompBuffer().seedCounter(SELF_LOG);
+        db.securityLogCompBuffer().seedCounter(SECURITY_LOGS);
+        db.networkLogsCompBuffer().seedCounter(NETWORK_LOGS);
+        db.locationCompBuffer().seedCounter(LOCATION);
+        AppLog.d(TAG, "Buffer counters seeded, " + getCombinedSize() + " documents buffered");
+    }
+
+    /**
+     * Returns the number of documents in all buffers.
+     *
+     * @return The combined buffer size.
+     */
+    public static int getCombinedSize() {
+        int size = 0;
+        for (BufferCounter counter : ALL) {
+            size += counter.get();
+        }
+        return size;
+    }
+
+    /**
+     * Returns whether all counters have been seeded, i.e. whether {@link #getCombinedSize()} is exact.
+     *
+     * @return True if all counters are seeded.
+     */
+    public static boolean isSeeded() {
+        for (BufferCounter counter : ALL) {
+            if (!counter.seeded) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Provides the combined buffer size as LiveData, updated whenever documents are buffered or removed.
+     *
+     * @return LiveData holding the combined buffer size.
+     */
+    public static LiveData<Integer> getCombinedSizeLiveData() {
+        return combinedSize;
+    }
+
+    /**
+     * Sets the counter to the actual number of documents in the buffer.
+     * Called by the buffer DAOs within the transaction that counted the rows.
+     *
+     * @param actualCount The number of rows in the buffer table.
+     */
+    void seed(int actualCount) {
+        count.set(actualCount);
+        seeded = true;
+        publish();
+    }
+
+    /**
+     * Changes the counter after documents were added to or removed from the buffer.
+     * Called by the buffer DAOs within the transaction that changed the rows.
+     *
+     * @param delta The number of added (positive) or removed (negative) documents.
+     */
+    void add(int delta) {
+        if (delta != 0) {
+            count.addAndGet(delta);
+            publish();
+        }
+    }
+
+    public int get() {
+        return count.get();
+    }
+
+    public String getComponentName() {
+        return componentName;
+    }
+
+    private static void publish() {
+        if (isSeeded()) {
+            combinedSize.postValue(getCombinedSize());
+        }
+    }
+}
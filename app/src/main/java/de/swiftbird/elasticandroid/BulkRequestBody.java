@@ -0,0 +1,193 @@
+package de.swiftbird.elasticandroid;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Utf8;
+
+/**
+ * Streaming {@link RequestBody} for the Elasticsearch {@code _bulk} API.
+ *
+ * <p>Instead of building the whole NDJSON payload in memory, every document is serialized and written to
+ * the OkHttp {@link BufferedSink} one at a time. Complete segments are emitted to the underlying connection
+ * after each document, so the memory held by the body is bounded by the size of a single document
+ * (plus one okio segment), no matter how many documents the batch contains.</p>
+ *
+ * <p>The body can be written more than once (e.g. when OkHttp retries on a connection failure), as the
+ * documents are only read and never consumed.</p>
+ *
+ * <p>If the body has a byte budget, writing stops before the first document that would exceed it, so a batch can
+ * be sent without measuring every document up front. The documents that were not written are reported by
+ * {@link #getDocumentsWritten()} once the body has been written. The first document is always written, so a single
+ * document larger than the budget can't get stuck.</p>
+ */
+public class BulkRequestBody extends RequestBody {
+
+    private static final MediaType NDJSON = MediaType.parse("application/x-ndjson");
+    private static final String ACTION_METADATA = "{\"create\": {}}";
+    private static final AtomicLong largestDocumentBytes = new AtomicLong(); // Largest document written or measured since the app started
+
+    private final List<? extends ElasticDocument> documents;
+    private final Gson gson;
+    private final long maxBytes;
+    private volatile long bytesWritten;
+    private volatile int documentsWritten;
+
+    /**
+     * Creates a new streaming bulk body without a byte budget.
+     *
+     * @param documents The documents to be sent in the bulk operation, in the order they should be indexed.
+     * @param gson The Gson instance used to serialize each document.
+     */
+    public BulkRequestBody(List<? extends ElasticDocument> documents, Gson gson) {
+        this(documents, gson, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a new streaming bulk body that writes at most the given number of bytes.
+     *
+     * @param documents The documents to be sent in the bulk operation, in the order they should be indexed.
+     * @param gson The Gson instance used to serialize each document.
+     * @param maxBytes The byte budget of the payload, the first document is written even if it exceeds it.
+     */
+    public BulkRequestBody(List<? extends ElasticDocument> documents, Gson gson, long maxBytes) {
+        this.documents = documents;
+        this.gson = gson;
+        this.maxBytes = maxBytes;
+    }
+
+    @Nullable
+    @Override
+    public MediaType contentType() {
+        return NDJSON;
+    }
+
+    /**
+     * The length is unknown up front, as documents are only serialized while writing.
+     * OkHttp will therefore use chunked transfer encoding.
+     */
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+        long bytes = 0;
+        int written = 0;
+        for (ElasticDocument document : documents) {
+            String json = gson.toJson(document);
+            long size = ACTION_METADATA.length() + Utf8.size(json) + 2;
+            recordDocumentSize(size);
+            if (written > 0 && bytes + size > maxBytes) {
+                break; // The budget ran out, the remaining documents are left for the next batch
+            }
+            sink.writeUtf8(ACTION_METADATA).writeByte('\n');
+            sink.writeUtf8(json).writeByte('\n');
+            bytes += size;
+            written++;
+
+            // Hand full segments to the connection right away, so they don't pile up in memory
+            sink.emitCompleteSegments();
+        }
+        bytesWritten = bytes;
+        documentsWritten = written;
+    }
+
+    /**
+     * Returns the number of documents contained in this body.
+     *
+     * @return The number of documents.
+     */
+    public int getDocumentCount() {
+        return documents.size();
+    }
+
+    /**
+     * Returns the number of documents in the payload, known once the body has been written. Fewer than
+     * {@link #getDocumentCount()} if the byte budget ran out, the documents from this index on were not sent.
+     *
+     * @return The number of documents written by the last call to {@link #writeTo(BufferedSink)}, or 0 if it wasn't written yet.
+     */
+    public int getDocumentsWritten() {
+        return documentsWritten;
+    }
+
+    /**
+     * Returns the size of the largest document written or measured since the app started, including its action line.
+     * Used as an upper bound to skip measuring a batch that fits into the budget anyway; the body enforces the budget
+     * in case a document is larger than any before.
+     *
+     * @return The size in bytes, 0 if no document was serialized yet.
+     */
+    public static long getLargestDocumentBytes() {
+        return largestDocumentBytes.get();
+    }
+
+    private static void recordDocumentSize(long size) {
+        largestDocumentBytes.accumulateAndGet(size, Math::max);
+    }
+
+    /**
+     * Returns the number of bytes a document takes in the bulk payload, including its action line. The document is
+     * serialized into a counter, so its JSON is never held in memory.
+     *
+     * @param document The document to measure.
+     * @param gson The Gson instance used to serialize the document, the same as for the body.
+     * @return The size of the document in the payload in bytes.
+     */
+    public static long measure(ElasticDocument document, Gson gson) {
+        Utf8Counter counter = new Utf8Counter();
+        gson.toJson(document, counter);
+        long size = ACTION_METADATA.length() + counter.bytes + 2;
+        recordDocumentSize(size);
+        return size;
+    }
+
+    /**
+     * Counts the UTF-8 encoded size of the characters appended to it, without storing them.
+     */
+    private static class Utf8Counter implements Appendable {
+        long bytes;
+
+        @Override
+        public Appendable append(CharSequence sequence) {
+            return append(sequence, 0, sequence.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence sequence, int start, int end) {
+            for (int i = start; i < end; i++) {
+                append(sequence.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                bytes += 2; // A surrogate pair takes four bytes
+            } else {
+                bytes += 3;
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Returns the uncompressed size of the payload, known once the body has been written.
+     *
+     * @return The number of bytes written by the last call to {@link #writeTo(BufferedSink)}, or 0 if it wasn't written yet.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,96 @@
+package de.swiftbird.elasticandroid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which pull-based components the {@link ComponentWorker} collects on a wake-up, and when the next
+ * wake-up is due.
+ *
+ * <p>Every component declares its collection interval with {@link Component#getCollectionIntervalSeconds()}.
+ * Instead of one wake-up per component, a wake-up collects every component that is due within
+ * {@link #COALESCING_WINDOW_MILLIS}, pulling the ones that are almost due forward. The pulled components are then
+ * in phase and stay coalesced, so adding a pull-based component costs at most one wake-up per window. A component is
+ * never pulled forward by more than a quarter of its interval, so short intervals aren't collected far too often.</p>
+ *
+ * <p>The due times are kept in memory. After a process restart, every component is collected on the first
+ * wake-up.</p>
+ */
+public class CollectionScheduler {
+    static final long COALESCING_WINDOW_MILLIS = 60 * 1000;
+
+    private static final CollectionScheduler instance = new CollectionScheduler();
+
+    private final Map<Component, Long> nextDueAt = new IdentityHashMap<>(); // Elapsed realtime a component is due
+
+    CollectionScheduler() {}
+
+    public static CollectionScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns whether a plan enables at least one pull-based component, i.e. whether the {@link ComponentWorker}
+     * needs to be scheduled at all.
+     *
+     * @param plan The plan of the current policy.
+     * @return True if a component of the plan has a collection interval.
+     */
+    public static boolean hasScheduledComponents(ComponentPlan plan) {
+        for (ComponentPlan.Entry entry : plan.getEntries()) {
+            if (entry.getComponent().getCollectionIntervalSeconds() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the components to collect on this wake-up and schedules their next collection. Components without a
+     * collection interval are never returned, components that are no longer enabled are forgotten.
+     *
+     * @param enabled The enabled entries of the plan, see {@link ComponentLifecycleManager#apply}.
+     * @param now The current elapsed realtime in milliseconds.
+     * @return The entries whose component is due within the coalescing window, each component once.
+     */
+    public synchronized List<ComponentPlan.Entry> claimDue(List<ComponentPlan.Entry> enabled, long now) {
+        List<ComponentPlan.Entry> due = new ArrayList<>();
+        Set<Component> scheduled = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ComponentPlan.Entry entry : enabled) {
+            Component component = entry.getComponent();
+            long intervalSeconds = component.getCollectionIntervalSeconds();
+            if (intervalSeconds <= 0 || !scheduled.add(component)) {
+                continue;
+            }
+            long intervalMillis = intervalSeconds * 1000;
+            Long dueAt = nextDueAt.get(component);
+            if (dueAt == null || dueAt - now <= Math.min(COALESCING_WINDOW_MILLIS, intervalMillis / 4)) {
+                due.add(entry);
+                nextDueAt.put(component, now + intervalMillis);
+            }
+        }
+        nextDueAt.keySet().retainAll(scheduled);
+        return due;
+    }
+
+    /**
+     * Returns the delay until the next component is due.
+     *
+     * @param now The current elapsed realtime in milliseconds.
+     * @return The delay in milliseconds, 0 if a component is already due, -1 if no component is scheduled.
+     */
+    public synchronized long getNextWakeupDelayMillis(long now) {
+        long delay = -1;
+        for (long dueAt : nextDueAt.values()) {
+            long componentDelay = Math.max(0, dueAt - now);
+            if (delay < 0 || componentDelay < delay) {
+                delay = componentDelay;
+            }
+        }
+        return delay;
+    }
+}
@@ -23,7 +23,7 @@ public interface Component {
 
     /**
      * Collects relevant events or data, as per the component's functionality.
-     * This method will be called periodically by the agent's main loop (TODO: not yet implemented).
+     * This method is called by the {@link ComponentWorker} every {@link #getCollectionIntervalSeconds()}.
      * Notice: Most components will not need to implement this method as they will be event-driven.
      *
      * @param enrollmentData Data regarding the agent's enrollment.
@@ -31,6 +31,16 @@ public interface Component {
      */
     default void collectEvents(FleetEnrollData enrollmentData, PolicyData policyData) {}
 
+    /**
+     * Returns how often {@link #collectEvents} should be called. Pull-based components that are due at about the
+     * same time are collected on a single wake-up, see {@link CollectionScheduler}.
+     *
+     * @return The collection interval in seconds, or 0 if the component is event-driven and never collected.
+     */
+    default long getCollectionIntervalSeconds() {
+        return 0;
+    }
+
     /**
      * Adds a document to the component's internal buffer for later processing or transmission.
      *
@@ -39,12 +49,62 @@ public interface Component {
     void addDocumentToBuffer(ElasticDocument document);
 
     /**
-     * Retrieves a list of documents from the buffer, up to a specified maximum number.
+     * Adds a batch of documents to the component's internal buffer. All documents are inserted
+     * in a single transaction, together with one update of the buffer statistics.
+     *
+     * @param documents The documents to add to the buffer.
+     */
+    void addDocumentsToBuffer(List<? extends ElasticDocument> documents);
+
+    /**
+     * Claims the oldest unclaimed documents from the buffer for a batch, up to a specified maximum number.
+     * Claimed documents stay in the buffer until the batch is acknowledged or released, so a failed
+     * request never loses data.
+     *
+     * <p>Documents are claimed in insertion order. To claim several batches in a row, pass the
+     * {@link ElasticDocument#getBufferId()} of the last document of the previous batch as cursor.</p>
+     *
+     * @param batchId The unique id of the batch claiming the documents.
+     * @param afterId Only documents with a higher buffer id are claimed; 0 to start at the oldest document.
+     * @param maxDocuments The maximum number of documents to claim.
+     * @return A list of the claimed documents.
+     */
+    <T extends ElasticDocument> List<T> claimDocumentsFromBuffer(String batchId, int afterId, int maxDocuments);
+
+    /**
+     * Removes the documents of a batch from the buffer after they were successfully sent.
      *
-     * @param maxDocuments The maximum number of documents to retrieve.
-     * @return A list of documents from the buffer.
+     * @param batchId The id of the batch to acknowledge.
+     * @return The number of documents removed from the buffer.
      */
-    <T extends ElasticDocument> List<T> getDocumentsFromBuffer(int maxDocuments);
+    int acknowledgeDocuments(String batchId);
+
+    /**
+     * Releases the documents of a batch back to the buffer, so they will be claimed again by a later batch.
+     *
+     * @param batchId The id of the batch to release.
+     * @return The number of documents released.
+     */
+    int releaseDocuments(String batchId);
+
+    /**
+     * Releases single documents of a batch back to the buffer, e.g. after Elasticsearch rejected them temporarily.
+     * The other documents of the batch stay claimed.
+     *
+     * @param batchId The id of the batch holding the documents.
+     * @param documentIds The buffer ids of the documents to release (see {@link ElasticDocument#getBufferId()}).
+     * @return The number of documents released.
+     */
+    int releaseDocuments(String batchId, List<Integer> documentIds);
+
+    /**
+     * Releases all claims older than the given time. Used to recover documents of batches that never
+     * finished, e.g. because the app was killed while the request was in-flight.
+     *
+     * @param claimedBefore Claims made before this time (epoch milliseconds) are released.
+     * @return The number of documents released.
+     */
+    int releaseStaleClaims(long claimedBefore);
 
     /**
      * Gets the count of documents currently stored in the buffer.
@@ -53,6 +113,16 @@ public interface Component {
      */
     int getDocumentsInBufferCount();
 
+    /**
+     * Gets the time of the oldest document in the buffer that is not claimed by a batch, i.e. how far the
+     * upload lags behind.
+     *
+     * @return The timestamp in epoch milliseconds, or 0 if the buffer is empty or the component has none.
+     */
+    default long getOldestDocumentInBufferMillis() {
+        return 0;
+    }
+
     /**
      * Lists the permissions required by the component for its operation.
      *
@@ -0,0 +1,195 @@
+package de.swiftbird.elasticandroid;
+
+import android.content.Context;
+import android.os.SystemClock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Keeps the components in line with the {@link ComponentPlan} of the current policy, calling
+ * {@link Component#setup} and {@link Component#disable} only when the state of a component actually changes.
+ *
+ * <p>Every component goes through a small state machine:</p>
+ * <ul>
+ *     <li>{@link State#UNINITIALIZED}: not touched since the process started. It is set up if the policy enables it,
+ *     otherwise disabled once, to undo anything a previous process enabled (e.g. network logging).</li>
+ *     <li>{@link State#ENABLED}: set up with the sub-component of the policy. Nothing happens until the policy removes
+ *     the component or changes its sub-component, which disables and sets it up again.</li>
+ *     <li>{@link State#DISABLED}: disabled, or its setup failed. A failed setup, e.g. network logging without being
+ *     device owner, is retried after {@link #FAILED_SETUP_RETRY_MILLIS} or when the sub-component changes.</li>
+ * </ul>
+ *
+ * <p>So the DevicePolicyManager and LocationManager calls of the components happen once per policy change instead
+ * of on every upload. The duration of every transition is kept per component and logged.</p>
+ */
+public class ComponentLifecycleManager {
+    private static final String TAG = "ComponentLifecycle";
+    static final long FAILED_SETUP_RETRY_MILLIS = 15 * 60 * 1000;
+
+    private static final ComponentLifecycleManager instance = new ComponentLifecycleManager();
+
+    public enum State {
+        UNINITIALIZED,
+        ENABLED,
+        DISABLED
+    }
+
+    /**
+     * The lifecycle state of a single component. Guarded by the manager.
+     */
+    private static class Lifecycle {
+        State state = State.UNINITIALIZED;
+        String subComponent; // The sub-component the component was set up with
+        long failedSetupAt = -1; // Elapsed realtime of the last failed setup, -1 if the last setup succeeded
+        int enables;
+        int disables;
+        int failures;
+        long enableMillis; // Total time spent in setup()
+        long disableMillis; // Total time spent in disable()
+    }
+
+    private final Map<Component, Lifecycle> lifecycles = new IdentityHashMap<>();
+
+    ComponentLifecycleManager() {}
+
+    public static ComponentLifecycleManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Brings all registered components in line with the plan: components the plan enables are set up, all others
+     * are disabled. Components that are already in the right state are left alone.
+     *
+     * @param context The application context.
+     * @param enrollmentData Data regarding the agent's enrollment.
+     * @param policyData The current policy.
+     * @param plan The compiled plan of the policy.
+     * @return The entries of the plan whose component is enabled, in policy order.
+     */
+    public synchronized List<ComponentPlan.Entry> apply(Context context, FleetEnrollData enrollmentData, PolicyData policyData, ComponentPlan plan) {
+        for (Component component : ComponentFactory.getAllInstances()) {
+            if (!plan.isEnabled(component)) {
+                Lifecycle lifecycle = getLifecycle(component);
+                if (lifecycle.state != State.DISABLED) {
+                    disable(component, lifecycle, context, enrollmentData, policyData);
+                }
+            }
+        }
+
+        List<ComponentPlan.Entry> enabled = new ArrayList<>();
+        Set<Component> handled = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ComponentPlan.Entry entry : plan.getEntries()) {
+            Component component = entry.getComponent();
+            Lifecycle lifecycle = getLifecycle(component);
+            if (!handled.add(component)) {
+                // Listed more than once, e.g. two self-log levels: the first path sets the component up
+                if (lifecycle.state == State.ENABLED) {
+                    enabled.add(entry);
+                }
+                continue;
+            }
+            boolean reconfigured = !Objects.equals(lifecycle.subComponent, entry.getSubComponent());
+
+            if (lifecycle.state == State.ENABLED && reconfigured) {
+                disable(component, lifecycle, context, enrollmentData, policyData);
+            }
+            if (lifecycle.state != State.ENABLED && (reconfigured || mayRetrySetup(lifecycle))) {
+                enable(component, entry.getSubComponent(), lifecycle, context, enrollmentData, policyData);
+            }
+            if (lifecycle.state == State.ENABLED) {
+                enabled.add(entry);
+            }
+        }
+        return enabled;
+    }
+
+    /**
+     * Returns the state of a component.
+     *
+     * @param component The component.
+     * @return The state of the component.
+     */
+    public synchronized State getState(Component component) {
+        Lifecycle lifecycle = lifecycles.get(component);
+        return lifecycle != null ? lifecycle.state : State.UNINITIALIZED;
+    }
+
+    /**
+     * Returns a short summary of the transitions of all components for logging.
+     *
+     * @return The state, number and total duration of the transitions of every component.
+     */
+    public synchronized String getStatistics() {
+        StringBuilder builder = new StringBuilder("Components:");
+        for (Map.Entry<Component, Lifecycle> entry : lifecycles.entrySet()) {
+            Lifecycle lifecycle = entry.getValue();
+            builder.append(String.format(Locale.US, " %s %s (%d enables in %d ms, %d failed, %d disables in %d ms);",
+                    entry.getKey().getPathName(), lifecycle.state, lifecycle.enables, lifecycle.enableMillis,
+                    lifecycle.failures, lifecycle.disables, lifecycle.disableMillis));
+        }
+        return builder.toString();
+    }
+
+    private Lifecycle getLifecycle(Component component) {
+        Lifecycle lifecycle = lifecycles.get(component);
+        if (lifecycle == null) {
+            lifecycle = new Lifecycle();
+            lifecycles.put(component, lifecycle);
+        }
+        return lifecycle;
+    }
+
+    private static boolean mayRetrySetup(Lifecycle lifecycle) {
+        return lifecycle.failedSetupAt < 0 || SystemClock.elapsedRealtime() - lifecycle.failedSetupAt >= FAILED_SETUP_RETRY_MILLIS;
+    }
+
+    private void enable(Component component, String subComponent, Lifecycle lifecycle, Context context, FleetEnrollData enrollmentData, PolicyData policyData) {
+        State from = lifecycle.state;
+        long start = SystemClock.elapsedRealtime();
+        boolean success;
+        try {
+            success = component.setup(context, enrollmentData, policyData, subComponent);
+        } catch (Exception e) {
+            AppLog.e(TAG, "Unhandled app error while setting up component " + component.getPathName() + ": " + e.getMessage());
+            success = false;
+        }
+        long millis = SystemClock.elapsedRealtime() - start;
+        lifecycle.enableMillis += millis;
+        lifecycle.subComponent = subComponent;
+
+        if (success) {
+            lifecycle.state = State.ENABLED;
+            lifecycle.failedSetupAt = -1;
+            lifecycle.enables++;
+            AppLog.i(TAG, "Component " + component.getPathName() + " " + from + " -> ENABLED (" + subComponent + ") in " + millis + " ms");
+        } else {
+            lifecycle.state = State.DISABLED;
+            lifecycle.failedSetupAt = SystemClock.elapsedRealtime();
+            lifecycle.failures++;
+            AppLog.w(TAG, "Component " + component.getPathName() + " setup failed after " + millis + " ms, retrying in " + FAILED_SETUP_RETRY_MILLIS / 60000 + " minutes or on a policy change");
+        }
+    }
+
+    private void disable(Component component, Lifecycle lifecycle, Context context, FleetEnrollData enrollmentData, PolicyData policyData) {
+        State from = lifecycle.state;
+        long start = SystemClock.elapsedRealtime();
+        try {
+            component.disable(context, enrollmentData, policyData);
+        } catch (Exception e) {
+            AppLog.e(TAG, "Unhandled app error while disabling component " + component.getPathName() + ": " + e.getMessage());
+        }
+        long millis = SystemClock.elapsedRealtime() - start;
+        lifecycle.disableMillis += millis;
+        lifecycle.disables++;
+        lifecycle.state = State.DISABLED;
+        lifecycle.subComponent = null;
+        lifecycle.failedSetupAt = -1;
+        AppLog.i(TAG, "Component " + component.getPathName() + " " + from + " -> DISABLED in " + millis + " ms");
+    }
+}
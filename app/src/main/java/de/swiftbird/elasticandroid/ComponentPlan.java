@@ -0,0 +1,216 @@
+package de.swiftbird.elasticandroid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable, compiled form of the component paths of a policy (see {@link PolicyData#paths}).
+ *
+ * <p>The comma separated paths, e.g. {@code android://location.fine?minTimeMs=300000&minDistanceMeters=50}, are
+ * parsed once per policy change instead of being split again by every worker run and log record. The plan holds
+ * the resolved component instances in policy order together with their sub-components, and the log levels the
+ * self-log paths enable. A component is enabled if its registered key matches a path exactly, so e.g. an unknown
+ * {@code android://self-logger} path doesn't enable the self-log.</p>
+ *
+ * <p>The current plan is published through a volatile reference by {@link #apply(PolicyData)}, which
+ * {@link FleetCheckinRepository} calls on every new policy. Readers use {@link #get(PolicyData)}, which also
+ * compiles the plan after a process restart.</p>
+ */
+public final class ComponentPlan {
+    private static final String TAG = "ComponentPlan";
+    private static final String SCHEME = "android://";
+    private static final String SELF_LOG_KEY = "android://self-log";
+
+    private static volatile ComponentPlan current = null; // null until the policy is known
+
+    private final String paths;
+    private final List<Entry> entries;
+    private final List<String> unsupportedPaths;
+    private final Set<Component> components;
+    private final boolean[] selfLogLevels; // Indexed like AppLog.LEVELS
+
+    /**
+     * A component path of the policy, resolved to its component.
+     */
+    public static final class Entry {
+        private final String path;
+        private final Component component;
+        private final String subComponent;
+
+        Entry(String path, Component component, String subComponent) {
+            this.path = path;
+            this.component = component;
+            this.subComponent = subComponent;
+        }
+
+        /**
+         * @return The path as defined in the policy, e.g. "android://location.fine".
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public Component getComponent() {
+            return component;
+        }
+
+        /**
+         * @return Everything behind the first "." of the path including parameters, e.g. "fine?minTimeMs=300000",
+         * or an empty string. Passed to {@link Component#setup}.
+         */
+        public String getSubComponent() {
+            return subComponent;
+        }
+    }
+
+    private ComponentPlan(String paths, List<Entry> entries, List<String> unsupportedPaths, boolean[] selfLogLevels) {
+        this.paths = paths;
+        this.entries = Collections.unmodifiableList(entries);
+        this.unsupportedPaths = Collections.unmodifiableList(unsupportedPaths);
+        Set<Component> enabled = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Entry entry : entries) {
+            enabled.add(entry.component);
+        }
+        this.components = Collections.unmodifiableSet(enabled);
+        this.selfLogLevels = selfLogLevels;
+    }
+
+    /**
+     * Compiles the component paths of a policy. Doesn't publish or log anything.
+     *
+     * @param policyData The policy to compile, may be null if the agent is not enrolled.
+     * @return The compiled plan, empty if there is no policy.
+     */
+    static ComponentPlan compile(PolicyData policyData) {
+        String paths = policyData != null ? policyData.paths : null;
+        List<Entry> entries = new ArrayList<>();
+        List<String> unsupportedPaths = new ArrayList<>();
+        boolean[] levels = new boolean[AppLog.LEVELS.length];
+        boolean selfLogEnabled = false;
+
+        if (paths != null) {
+            for (String rawPath : paths.split(",")) {
+                String path = rawPath.trim();
+                if (path.isEmpty()) {
+                    continue;
+                }
+                int dot = path.indexOf('.');
+                String key = dot >= 0 ? path.substring(0, dot) : path;
+                String subComponent = dot >= 0 ? path.substring(dot + 1) : "";
+
+                Component component;
+                try {
+                    component = key.startsWith(SCHEME) ? ComponentFactory.createInstance(key) : null;
+                } catch (IllegalArgumentException e) {
+                    component = null;
+                }
+                if (component == null) {
+                    unsupportedPaths.add(path);
+                    continue;
+                }
+                entries.add(new Entry(path, component, subComponent));
+
+                if (key.equals(SELF_LOG_KEY)) {
+                    if (!selfLogEnabled) {
+                        Arrays.fill(levels, true);
+                        selfLogEnabled = true;
+                    }
+                    restrictSelfLogLevels(levels, subComponent);
+                }
+            }
+        }
+        return new ComponentPlan(paths, entries, unsupportedPaths, levels);
+    }
+
+    /**
+     * Every self-log path can only restrict the levels further. "android://self-log.warn" enables WARN and above,
+     * a path without level only INFO.
+     */
+    private static void restrictSelfLogLevels(boolean[] levels, String level) {
+        if (!level.isEmpty()) {
+            int minimum = level.equals("info") ? 1 : level.equals("warn") ? 2 : level.equals("error") ? 3 : 0;
+            for (int i = 0; i < minimum; i++) {
+                levels[i] = false;
+            }
+        } else {
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] &= AppLog.LEVELS[i].equals("INFO");
+            }
+        }
+    }
+
+    /**
+     * Compiles the plan of a new policy and publishes it to all readers. Must be called whenever the policy changes.
+     *
+     * @param policyData The new policy, or null if the agent is no longer enrolled.
+     * @return The published plan.
+     */
+    public static ComponentPlan apply(PolicyData policyData) {
+        ComponentPlan plan = compile(policyData);
+        current = plan;
+        for (String path : plan.unsupportedPaths) {
+            AppLog.w(TAG, "Component path " + path + " defined in policy but app does not support it");
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the plan of the given policy. The published plan is reused if it was compiled from the same paths,
+     * otherwise, e.g. after the process was restarted, the plan is compiled and published.
+     *
+     * @param policyData The current policy.
+     * @return The plan of the policy.
+     */
+    public static ComponentPlan get(PolicyData policyData) {
+        ComponentPlan plan = current;
+        if (plan != null && Objects.equals(plan.paths, policyData != null ? policyData.paths : null)) {
+            return plan;
+        }
+        return apply(policyData);
+    }
+
+    /**
+     * Returns the published plan without compiling anything.
+     *
+     * @return The current plan, or null if no policy has been applied since the process started.
+     */
+    static ComponentPlan getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return The supported components of the policy in policy order.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return The paths of the policy that no registered component supports.
+     */
+    public List<String> getUnsupportedPaths() {
+        return unsupportedPaths;
+    }
+
+    /**
+     * Returns whether the policy enables a component.
+     *
+     * @param component The component.
+     * @return True if a path of the policy resolves to the component.
+     */
+    public boolean isEnabled(Component component) {
+        return components.contains(component);
+    }
+
+    /**
+     * @return The log levels stored by the self-log, indexed like {@link AppLog#LEVELS}. Must not be modified.
+     */
+    boolean[] getSelfLogLevels() {
+        return selfLogLevels;
+    }
+}
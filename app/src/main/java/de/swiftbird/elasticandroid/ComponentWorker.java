@@ -1,18 +1,21 @@
 package de.swiftbird.elasticandroid;
 
 import android.content.Context;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A worker class that extends WorkManager's Worker, designed to execute background tasks for various components of the application.
  * It aims to perform operations that should run outside of the application's UI thread for collecting events.
- * This worker iterates over all components specified in the application's policy data, initializes them,
- * and triggers their event collection routines.
+ * This worker collects the pull-based components of the policy that are due, see {@link CollectionScheduler},
+ * and schedules itself for the next due component. Components that are due at about the same time share one run.
  *
- * <p></p>Note: This class is part of the application's background execution strategy but is not yet integrated into the application's workflow.
- * TODO: Integrate this worker into the application's workflow to enable background data collection for components.
+ * <p>It is only scheduled if the policy enables a component with a collection interval, event-driven components
+ * don't need it.</p>
  */
 public class ComponentWorker extends Worker {
     /**
@@ -27,8 +30,8 @@ public class ComponentWorker extends Worker {
     }
 
     /**
-     * Executes the background task. This is where the worker iterates over available components,
-     * performs setup and triggers data collection based on the current policy data.
+     * Executes the background task. This is where the worker collects the due components
+     * and schedules the next run based on the current policy data.
      *
      * @return The result of the background work; {@link Result#success()} if the operation completes successfully.
      */
@@ -41,21 +44,27 @@ public class ComponentWorker extends Worker {
         FleetEnrollData enrollmentData = AppDatabase.getDatabase(getApplicationContext()).enrollmentDataDAO().getEnrollmentInfoSync(1);
         PolicyData policyData = AppDatabase.getDatabase(getApplicationContext()).policyDataDAO().getPolicyDataSync();
 
-        // Iterates over components defined in policy data, initializing and collecting events for each.
-        for(String componentPath : policyData.paths.split(",")) {
+        // Components are only set up when the policy changed their state, see ComponentLifecycleManager.
+        List<ComponentPlan.Entry> enabled = ComponentLifecycleManager.getInstance()
+                .apply(getApplicationContext(), enrollmentData, policyData, ComponentPlan.get(policyData));
+
+        // Collects every component that is due within the coalescing window.
+        CollectionScheduler scheduler = CollectionScheduler.getInstance();
+        for (ComponentPlan.Entry entry : scheduler.claimDue(enabled, SystemClock.elapsedRealtime())) {
             try {
-                if (!componentPath.startsWith("android://")) {
-                    AppLog.w("ComponentWorker", "Invalid component path: " + componentPath);
-                    continue;
-                }
-                Component component = ComponentFactory.createInstance(componentPath);
-                component.setup(getApplicationContext(), enrollmentData, policyData, "");
-                component.collectEvents(enrollmentData, policyData);
+                entry.getComponent().collectEvents(enrollmentData, policyData);
 
             } catch (Exception e) {
-                AppLog.e("ComponentWorker", "Error processing component: " + componentPath);
+                AppLog.e("ComponentWorker", "Error processing component: " + entry.getPath());
             }
         }
+
+        long delayMillis = scheduler.getNextWakeupDelayMillis(SystemClock.elapsedRealtime());
+        if (delayMillis >= 0) {
+            WorkScheduler.scheduleNextComponentWorker(getApplicationContext(), delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            AppLog.i("ComponentWorker", "No pull-based components enabled, not scheduling the next run");
+        }
         return Result.success(); // Indicates successful completion of worker tasks.
     }
 }
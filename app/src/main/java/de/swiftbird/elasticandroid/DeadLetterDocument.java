@@ -0,0 +1,49 @@
+package de.swiftbird.elasticandroid;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * A document that Elasticsearch rejected permanently, e.g. because of a mapping error, together with the reason.
+ *
+ * <p>Sending such a document again would fail again, so the {@link ElasticWorker} moves it out of the component
+ * buffer into this table instead of dropping it. The payload is kept as the JSON that was sent, so the rejection can
+ * be inspected and the document replayed once the mapping was fixed. The table is bounded by
+ * {@link DeadLetterDocumentDAO#insertAndTrim}.</p>
+ */
+@Entity
+public class DeadLetterDocument {
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "id")
+    public int id;
+
+    @ColumnInfo(name = "component")
+    public String component; // Path name of the component that buffered the document, e.g. "location"
+
+    @ColumnInfo(name = "document")
+    public String document; // The document as serialized into the bulk request
+
+    @ColumnInfo(name = "status")
+    public int status; // HTTP status of the bulk item
+
+    @ColumnInfo(name = "error_type")
+    public String errorType; // e.g. "mapper_parsing_exception"
+
+    @ColumnInfo(name = "error_reason")
+    public String errorReason;
+
+    @ColumnInfo(name = "dead_lettered_at")
+    public long deadLetteredAt; // Epoch millis the document was rejected
+
+    public DeadLetterDocument() {}
+
+    public DeadLetterDocument(String component, String document, int status, String errorType, String errorReason, long deadLetteredAt) {
+        this.component = component;
+        this.document = document;
+        this.status = status;
+        this.errorType = errorType;
+        this.errorReason = errorReason;
+        this.deadLetteredAt = deadLetteredAt;
+    }
+}
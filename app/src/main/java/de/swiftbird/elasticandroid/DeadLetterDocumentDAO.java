@@ -0,0 +1,49 @@
+package de.swiftbird.elasticandroid;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+import androidx.room.Transaction;
+import java.util.List;
+
+/**
+ * Data Access Object (DAO) for the {@link DeadLetterDocument}s, the documents permanently rejected by Elasticsearch.
+ */
+@Dao
+public interface DeadLetterDocumentDAO {
+    @Insert
+    void insertDocuments(List<DeadLetterDocument> documents);
+
+    // Delete the documents rejected before the given time (epoch millis)
+    @Query("DELETE FROM DeadLetterDocument WHERE dead_lettered_at < :before")
+    int deleteOlderThan(long before);
+
+    // Keep only the newest documents
+    @Query("DELETE FROM DeadLetterDocument WHERE id NOT IN (SELECT id FROM DeadLetterDocument ORDER BY id DESC LIMIT :maxDocuments)")
+    int trimToNewest(int maxDocuments);
+
+    /**
+     * Stores rejected documents and enforces the retention in the same transaction, so the table stays bounded.
+     *
+     * @param documents The rejected documents.
+     * @param before Documents rejected before this time (epoch millis) are deleted.
+     * @param maxDocuments The maximum number of documents kept, the oldest are deleted first.
+     */
+    @Transaction
+    default void insertAndTrim(List<DeadLetterDocument> documents, long before, int maxDocuments) {
+        insertDocuments(documents);
+        deleteOlderThan(before);
+        trimToNewest(maxDocuments);
+    }
+
+    // Get the rejected documents, newest first, e.g. to inspect or replay them
+    @Query("SELECT * FROM DeadLetterDocument ORDER BY id DESC LIMIT :maxDocuments")
+    List<DeadLetterDocument> getNewestDocuments(int maxDocuments);
+
+    @Query("SELECT COUNT(*) FROM DeadLetterDocument")
+    int getDocumentCount();
+
+    // Delete all documents, e.g. after they were replayed
+    @Query("DELETE FROM DeadLetterDocument")
+    void deleteAllDocuments();
+}
@@ -13,7 +13,6 @@ import androidx.work.WorkInfo;
 import androidx.work.WorkManager;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import de.swiftbird.elasticandroid.R.id;
 
@@ -212,7 +211,10 @@ public class DetailsActivity extends AppCompatActivity  {
         // Update the UI based on the statistics data
         lastDocumentsSendAtValue.setText(statisticsData.lastDocumentsSentAt != null ? statisticsData.lastDocumentsSentAt : "Never");
         lastDocumentsSendSizeValue.setText(statisticsData.lastDocumentsSentCount != -1 ? String.valueOf(statisticsData.lastDocumentsSentCount) : "Never");
-        combinedBufferSizeValue.setText(statisticsData.combinedBufferSize != -1 ? String.valueOf(statisticsData.combinedBufferSize) : "0");
+        if (!BufferCounter.isSeeded()) {
+            // Persisted value until the live counters are available
+            combinedBufferSizeValue.setText(statisticsData.combinedBufferSize != -1 ? String.valueOf(statisticsData.combinedBufferSize) : "0");
+        }
         tAgentStatusValue.setText(statisticsData.agentHealth != null ? statisticsData.agentHealth : "Unhealthy");
         tAgentStatusValue.setTextColor(ContextCompat.getColor(this, statisticsData.agentHealth != null && statisticsData.agentHealth.equals("Healthy") ? android.R.color.holo_green_dark : android.R.color.holo_orange_dark));
     }
@@ -276,6 +278,12 @@ public class DetailsActivity extends AppCompatActivity  {
                     updateUIBasedOnStatistics(statisticsData);
                 }
             });
+
+            BufferCounter.getCombinedSizeLiveData().observe(this, combinedBufferSize -> {
+                if(combinedBufferSize != null) {
+                    combinedBufferSizeValue.setText(String.valueOf(combinedBufferSize));
+                }
+            });
         } catch (Exception e) {
             AppLog.e(TAG, "Error updating UI: " + e.getMessage());
         }
@@ -318,7 +326,7 @@ public class DetailsActivity extends AppCompatActivity  {
 
                     AppDatabase db = AppDatabase.getDatabase(this.getApplicationContext());
 
-                    Executors.newSingleThreadExecutor().execute(() -> {
+                    AppExecutors.diskIO().execute(() -> {
                         // Perform database read operation in background
                         AppStatisticsData statisticsData = db.statisticsDataDAO().getStatisticsSync();
                         if (statisticsData != null) {
@@ -0,0 +1,48 @@
+package de.swiftbird.elasticandroid;
+
+import android.content.Context;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+
+/**
+ * Reads the power state of the device, to decide whether work that keeps the device awake is acceptable.
+ *
+ * <p>Holding a network request open, e.g. a long-poll check-in, keeps the CPU and radio awake. That is cheap
+ * while the screen is on or the device is charging anyway, but would drain the battery of an idle device.</p>
+ */
+public final class DeviceState {
+
+    private DeviceState() {}
+
+    /**
+     * Returns whether the device is interactive, i.e. the screen is on.
+     *
+     * @param context Application context.
+     * @return True if the device is interactive.
+     */
+    public static boolean isInteractive(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return powerManager != null && powerManager.isInteractive();
+    }
+
+    /**
+     * Returns whether the device is charging.
+     *
+     * @param context Application context.
+     * @return True if the device is charging.
+     */
+    public static boolean isCharging(Context context) {
+        BatteryManager batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        return batteryManager != null && batteryManager.isCharging();
+    }
+
+    /**
+     * Returns whether the device is awake or charging, so keeping it awake costs little battery.
+     *
+     * @param context Application context.
+     * @return True if the device is interactive or charging.
+     */
+    public static boolean isAwakeOrCharging(Context context) {
+        return isInteractive(context) || isCharging(context);
+    }
+}
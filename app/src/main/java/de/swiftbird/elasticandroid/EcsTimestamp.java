@@ -0,0 +1,87 @@
+package de.swiftbird.elasticandroid;
+
+/**
+ * Shared, thread-safe formatter for the UTC ISO-8601 timestamps with millisecond precision used throughout the agent
+ * (e.g. {@code 2024-03-19T21:25:27.937Z}), as expected by ECS' {@code @timestamp} and the Fleet API.
+ *
+ * <p>Unlike {@link java.text.SimpleDateFormat} it has no mutable state to share, no dependency on the default locale
+ * or time zone, and it doesn't allocate anything besides the resulting string: the calendar fields are calculated
+ * directly from the epoch milliseconds and written into a per-thread character buffer.</p>
+ */
+public final class EcsTimestamp {
+
+    private static final int LENGTH = 24; // yyyy-MM-ddTHH:mm:ss.SSSZ
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private static final ThreadLocal<char[]> buffer = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[LENGTH];
+        }
+    };
+
+    private EcsTimestamp() {}
+
+    /**
+     * Formats the current time.
+     *
+     * @return The current time as UTC ISO-8601 timestamp with milliseconds.
+     */
+    public static String now() {
+        return format(System.currentTimeMillis());
+    }
+
+    /**
+     * Formats the given point in time.
+     *
+     * @param epochMillis Milliseconds since 1970-01-01T00:00:00.000Z; years 0 to 9999 are supported.
+     * @return The time as UTC ISO-8601 timestamp with milliseconds.
+     */
+    public static String format(long epochMillis) {
+        long days = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(epochMillis, MILLIS_PER_DAY);
+
+        // Convert days since the epoch to a civil date (see Howard Hinnant's "days_from_civil" / "civil_from_days")
+        long z = days + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        int dayOfEra = (int) (z - era * 146_097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146_096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153; // March based
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        int hour = millisOfDay / 3_600_000;
+        int minute = millisOfDay / 60_000 % 60;
+        int second = millisOfDay / 1000 % 60;
+        int millis = millisOfDay % 1000;
+
+        char[] chars = buffer.get();
+        writeDigits(chars, 0, year, 4);
+        chars[4] = '-';
+        writeDigits(chars, 5, month, 2);
+        chars[7] = '-';
+        writeDigits(chars, 8, day, 2);
+        chars[10] = 'T';
+        writeDigits(chars, 11, hour, 2);
+        chars[13] = ':';
+        writeDigits(chars, 14, minute, 2);
+        chars[16] = ':';
+        writeDigits(chars, 17, second, 2);
+        chars[19] = '.';
+        writeDigits(chars, 20, millis, 3);
+        chars[23] = 'Z';
+        return new String(chars, 0, LENGTH);
+    }
+
+    /**
+     * Writes a zero-padded, non-negative number with a fixed amount of digits.
+     */
+    private static void writeDigits(char[] chars, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
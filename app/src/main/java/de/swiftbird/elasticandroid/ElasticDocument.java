@@ -2,12 +2,13 @@ package de.swiftbird.elasticandroid;
 
 import androidx.room.ColumnInfo;
 import androidx.room.TypeConverters;
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.TimeZone;
 
 /**
  * Abstract base class for all Elasticsearch documents generated by the agent.
@@ -21,6 +22,11 @@ public abstract class ElasticDocument {
     @SerializedName("@timestamp")
     protected String timestamp;
 
+    // Same point in time as the timestamp in epoch millis, for the age of the buffered documents (not sent to Elasticsearch)
+    @Expose(serialize = false, deserialize = false)
+    @ColumnInfo(name = "timestamp_millis", defaultValue = "0")
+    protected long timestampMillis;
+
     // Agent metadata
     @SerializedName("agent.ephemeral_id")
     protected String agentEphemeralId;
@@ -130,23 +136,89 @@ public abstract class ElasticDocument {
     protected String eventDataset;
 
 
+    // Buffer bookkeeping for the claim-then-acknowledge protocol (only stored locally, never sent to Elasticsearch)
+
+    // Batch that currently holds the document in-flight, null if the document is not claimed.
+    @Expose(serialize = false, deserialize = false)
+    @ColumnInfo(name = "batch_id")
+    protected String batchId;
+
+    // Time (epoch millis) when the document was claimed, used to release stale claims after a crash.
+    @Expose(serialize = false, deserialize = false)
+    @ColumnInfo(name = "claimed_at", defaultValue = "0")
+    protected long claimedAt;
+
+    /**
+     * Creates a Gson instance to serialize documents for Elasticsearch.
+     * Fields annotated with {@code @Expose(serialize = false)} are local bookkeeping and are skipped.
+     *
+     * @return The Gson instance.
+     */
+    public static Gson createGson() {
+        return new GsonBuilder()
+                .addSerializationExclusionStrategy(new ExclusionStrategy() {
+                    @Override
+                    public boolean shouldSkipField(FieldAttributes field) {
+                        Expose expose = field.getAnnotation(Expose.class);
+                        return expose != null && !expose.serialize();
+                    }
+
+                    @Override
+                    public boolean shouldSkipClass(Class<?> clazz) {
+                        return false;
+                    }
+                })
+                .create();
+    }
+
+
+    /**
+     * Sets the time of the event, both as ECS timestamp and in epoch millis.
+     *
+     * @param epochMillis The time of the event in milliseconds since the epoch.
+     */
+    protected void setTimestamp(long epochMillis) {
+        this.timestampMillis = epochMillis;
+        this.timestamp = EcsTimestamp.format(epochMillis);
+    }
+
+    /**
+     * Returns the id of the document in its component buffer, used to release single documents of a batch.
+     *
+     * @return The primary key of the document in the buffer table.
+     */
+    public abstract int getBufferId();
+
     /**
      * Default constructor initializing the document with a current timestamp.
      */
     public ElasticDocument() {
-        this.timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US).format(new Date());
+        setTimestamp(System.currentTimeMillis());
     }
 
     /**
      * Constructs an ElasticDocument using provided enrollment and policy data to populate fields.
-     * This constructor is typically called by subclasses to ensure the base fields are initialized
-     * with consistent agent and host metadata derived from the agent's current state.
+     * This collects the agent and host metadata for this single document; when creating documents for
+     * a batch of events, prefer {@link #ElasticDocument(IngestionContext)} with one shared context.
      *
      * @param enrollmentData Data related to the agent's enrollment.
      * @param policyData Policy configurations applied to the agent.
      */
     public ElasticDocument(FleetEnrollData enrollmentData, PolicyData policyData) {
-        AgentMetadata metadata = AgentMetadata.getMetadataFromDeviceAndDB(enrollmentData.agentId, enrollmentData.hostname);
+        this(IngestionContext.of(enrollmentData, policyData));
+    }
+
+    /**
+     * Constructs an ElasticDocument using the enrollment data, policy data and agent metadata of an ingestion context.
+     * This constructor is typically called by subclasses to ensure the base fields are initialized
+     * with consistent agent and host metadata derived from the agent's current state.
+     *
+     * @param ingestionContext The snapshot of enrollment data, policy data and metadata shared by a batch of documents.
+     */
+    public ElasticDocument(IngestionContext ingestionContext) {
+        FleetEnrollData enrollmentData = ingestionContext.getEnrollmentData();
+        PolicyData policyData = ingestionContext.getPolicyData();
+        AgentMetadata metadata = ingestionContext.getMetadata();
 
         // Parse agent metadata
         this.agentEphemeralId = "Unknown"; // TODO: Find out what this is
@@ -176,9 +248,7 @@ public abstract class ElasticDocument {
 
 
         // Set the rest of the fields
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.getDefault()); // Locale.US to Locale.getDefault()
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC")); // This line ensures the time is in UTC
-        this.timestamp = dateFormat.format(new Date());
+        setTimestamp(System.currentTimeMillis());
         this.componentId = "default";
         this.componentOldState = "Healthy"; // TODO: Check if this is correct first
         this.componentState = "Healthy"; // True because otherwise the data would not be sent (at least in the current implementation)
@@ -1,6 +1,7 @@
 package de.swiftbird.elasticandroid;
 
 import com.google.gson.annotations.SerializedName;
+import java.util.List;
 
 /**
  * Represents a response from Elasticsearch, encapsulating details about the outcome
@@ -13,6 +14,9 @@ public class ElasticResponse {
     private final String errors;
     private Error error;
 
+    @SerializedName("items")
+    private List<Item> items;
+
     /**
      * Inner class representing detailed error information from Elasticsearch,
      * including the type of error and a descriptive reason.
@@ -33,6 +37,58 @@ public class ElasticResponse {
         }
     }
 
+    /**
+     * Inner class representing the result of a single action of a bulk request. Items are returned
+     * in the same order as the actions were sent, so item i belongs to document i of the batch.
+     */
+    public static class Item {
+        @SerializedName(value = "create", alternate = {"index"})
+        private ItemResult result;
+
+        /**
+         * Returns the HTTP status of this item, or 0 if the item holds no result.
+         *
+         * @return The HTTP status code of the item.
+         */
+        public int getStatus() {
+            return result != null ? result.status : 0;
+        }
+
+        public Error getError() {
+            return result != null ? result.error : null;
+        }
+
+        /**
+         * Checks if the document of this item was indexed.
+         *
+         * @return True if the item has a 2xx status.
+         */
+        public boolean isSuccessful() {
+            return getStatus() >= 200 && getStatus() < 300;
+        }
+
+        /**
+         * Checks if the item failed for a temporary reason, so the same document may succeed later.
+         * This is the case for rejections under load (429) and server side errors (5xx).
+         *
+         * @return True if the document should be sent again.
+         */
+        public boolean isRetryable() {
+            return getStatus() == 429 || getStatus() >= 500;
+        }
+    }
+
+    /**
+     * Inner class holding the outcome of a single bulk action.
+     */
+    public static class ItemResult {
+        @SerializedName("status")
+        private int status;
+
+        @SerializedName("error")
+        private Error error;
+    }
+
     /**
      * Constructs an instance of ElasticResponse, primarily for testing purposes,
      * allowing manual creation of response objects.
@@ -47,4 +103,8 @@ public class ElasticResponse {
     public String getErrors() {
         return errors;
     }
+
+    public List<Item> getItems() {
+        return items;
+    }
 }
\ No newline at end of file
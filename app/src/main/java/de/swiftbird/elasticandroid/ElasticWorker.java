@@ -1,24 +1,28 @@
 package de.swiftbird.elasticandroid;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.concurrent.futures.CallbackToFutureAdapter;
 import androidx.work.ListenableWorker;
-import androidx.work.Worker;
 import androidx.work.WorkerParameters;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gson.Gson;
-import java.text.SimpleDateFormat;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
-import java.util.TimeZone;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import okhttp3.MediaType;
-import okhttp3.RequestBody;
+import java.util.concurrent.TimeoutException;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
@@ -29,25 +33,97 @@ import retrofit2.Retrofit;
  * to Elasticsearch using bulk operations. It fetches enrollment and policy data to configure
  * the request appropriately, also handling exponential backoff strategies based on policy configurations
  * and request outcomes.
+ *
+ * <p>The worker only completes once its bulk requests have been answered and their batches have been settled, so
+ * WorkManager keeps its wakelock and network constraint for the whole upload. If a backlog is left after the first
+ * batch, the same run keeps sending batches within the catch-up budget of the policy (see {@link DrainRun}). If the
+ * work is stopped, the requests in flight are cancelled and their documents are released. If a batch could not be
+ * sent at all, e.g. because the connection failed, the work completes with {@link Result#retry()} and WorkManager
+ * runs it again with exponential backoff once its constraints are met. Otherwise the worker schedules its next run
+ * itself, based on the intervals of the policy.</p>
  */
-public class ElasticWorker extends Worker {
+public class ElasticWorker extends ListenableWorker {
 
-    private static final String TAG = "ElasticWorker";
+    static final String TAG = "ElasticWorker"; // Also used for logs of the upload scheduling, so they are excluded from the self-log like the upload itself
+    private static final int DRAIN_TIMEOUT_SECONDS = 20; // Maximum time a single component buffer may take to be drained
+    private static final int MAX_IDS_PER_QUERY = 500; // Older SQLite versions allow at most 999 bound variables per statement
+    static final long DEAD_LETTER_RETENTION_MILLIS = 7L * 24 * 60 * 60 * 1000; // Permanently rejected documents are kept a week
+    static final int MAX_DEAD_LETTER_DOCUMENTS = 1000;
+    private static final long CLAIM_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10); // Claims older than this belong to a batch that never finished
+
+    private final AdaptiveBatchController batchController = AdaptiveBatchController.getInstance();
+    private final RequestSizeHistogram sizeHistogram = RequestSizeHistogram.getInstance();
+    private volatile CallbackToFutureAdapter.Completer<Result> completer;
+    private final Set<Call<ElasticResponse>> bulkCalls = ConcurrentHashMap.newKeySet(); // Requests in flight, cancelled if the work is stopped
+
+    /**
+     * Documents claimed from a single component for the current batch, together with the component
+     * so the claim can be acknowledged or released once the outcome of the request is known.
+     */
+    static class ClaimedDocuments {
+        final Component component;
+        final List<ElasticDocument> documents;
+
+        ClaimedDocuments(Component component, List<ElasticDocument> documents) {
+            this.component = component;
+            this.documents = documents;
+        }
+    }
 
     public ElasticWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
     }
 
     /**
-     * Executes the background task. This is where the worker iterates over available components,
-     * performs setup and triggers data collection from their buffer based on the current policy data.
+     * Starts the background task on WorkManager's background executor.
      *
-     * @return The result of the background work; {@link Result#success()} if the operation completes successfully.
+     * @return A future completed with the result of the upload once all batches have been settled.
      */
     @NonNull
     @Override
-    public Result doWork() {
-        AppLog.i("FleetCheckinWorker", "Performing elasticsearch PUT from background worker");
+    public ListenableFuture<Result> startWork() {
+        return CallbackToFutureAdapter.getFuture(completer -> {
+            this.completer = completer;
+            // WorkManager cancels the future if the work is stopped, e.g. because the network constraint is no longer met
+            completer.addCancellationListener(this::cancelRequests, AppExecutors.callbacks());
+            getBackgroundExecutor().execute(() -> {
+                try {
+                    doWork();
+                } catch (Exception e) {
+                    AppLog.e(TAG, "Unhandled app error while starting Elasticsearch PUT worker: " + e.getMessage());
+                    completer.set(Result.retry());
+                }
+            });
+            return "ElasticWorker upload";
+        });
+    }
+
+    @Override
+    public void onStopped() {
+        cancelRequests();
+    }
+
+    /**
+     * Cancels all bulk requests in flight. Their documents are released by the failure callback.
+     */
+    private void cancelRequests() {
+        for (Call<ElasticResponse> call : bulkCalls) {
+            if (!call.isCanceled()) {
+                AppLog.i(TAG, "Work stopped, cancelling the Elasticsearch PUT in flight");
+                call.cancel();
+            }
+        }
+    }
+
+    /**
+     * Executes the background task. This is where the worker disables the components that are not part of the policy
+     * and starts draining the buffers of the others, based on the current policy data.
+     * The result is reported through the completer once all batches have been settled.
+     */
+    private void doWork() {
+        AppLog.i(TAG, "Performing elasticsearch PUT from background worker");
+        AppLog.d(TAG, HostMetadataCache.getStatistics());
+        AppLog.d(TAG, AppExecutors.getStatistics());
 
         // Obtain an instance of the AppDatabase
         AppDatabase db = AppDatabase.getDatabase(this.getApplicationContext());
@@ -55,6 +131,15 @@ public class ElasticWorker extends Worker {
         // Synchronously fetch the enrollment data; adjust the method call as necessary based on the DAO
         FleetEnrollData enrollmentData = db.enrollmentDataDAO().getEnrollmentInfoSync(1);
         PolicyData policyData = db.policyDataDAO().getPolicyDataSync();
+        AppStatisticsData statistics = db.statisticsDataDAO().getStatisticsSync();
+        batchController.restore(statistics);
+        sizeHistogram.restore(statistics != null ? statistics.bulkSizeHistogram : null);
+        AppLog.d(TAG, batchController.getStatistics());
+        AppLog.d(TAG, sizeHistogram.toString());
+
+        // Let a check-in that is due soon share this wake-up
+        WorkScheduler.alignWakeups(getApplicationContext(), WakeupAligner.Job.ELASTICSEARCH_PUT, policyData);
+
         StatusCallback callback = new StatusCallback() {
 
             /**
@@ -65,8 +150,8 @@ public class ElasticWorker extends Worker {
              */
             @Override
             public void onCallback(boolean success) {
-                // Create new thread to handle the callback
-                Executors.newSingleThreadExecutor().execute(() -> {
+                // Handle the callback on the shared callback pool
+                AppExecutors.callbacks().execute(() -> {
                     if (!success) {
                         AppStatisticsDataDAO statisticsData = db.statisticsDataDAO();
                         statisticsData.increaseTotalFailures();
@@ -92,16 +177,57 @@ public class ElasticWorker extends Worker {
                         db.policyDataDAO().resetBackoffPutInterval();
                     }
 
+                    if (isStopped()) {
+                        // Cancelled or replaced, e.g. by a policy change that already scheduled the next run
+                        return;
+                    }
+
                     // Schedule the next Elasticsearch PUT
                     // Notice that we can't use a periodic worker, as the interval is dynamic and likely also under the minimum scheduling interval of 15 minutes.
                     AppLog.i("ElasticWorker", "Scheduling next Elasticsearch PUT in " + policyData.backoffPutInterval + " seconds");
-                    WorkScheduler.scheduleElasticsearchWorker(getApplicationContext(), policyData.backoffPutInterval, TimeUnit.SECONDS, policyData.disableIfBatteryLow);
+                    WorkScheduler.scheduleNextElasticsearchWorker(getApplicationContext(), policyData.backoffPutInterval, TimeUnit.SECONDS, policyData.disableIfBatteryLow);
+                    completer.set(Result.success());
                 });
             }
         };
 
+        // Set up or disable components only if the policy changed their state
+        List<ComponentPlan.Entry> components = ComponentLifecycleManager.getInstance()
+                .apply(getApplicationContext(), enrollmentData, policyData, ComponentPlan.get(policyData));
+        AppLog.d(TAG, ComponentLifecycleManager.getInstance().getStatistics());
+
         // Perform the Elasticsearch PUT operation
-        return getDocumentsFromComponents(db, enrollmentData, policyData, callback);
+        new DrainRun(db, enrollmentData, policyData, components, callback).fill();
+    }
+
+    /**
+     * Drains the buffers of the given components in a {@link DrainRun}, like {@link #startWork()} does once it read the
+     * enrollment, the policy and the enabled components. Lets the batches of a run be tested with any components.
+     *
+     * @param db The AppDatabase instance.
+     * @param enrollmentData The enrollment of the agent.
+     * @param policyData The current policy.
+     * @param components The enabled components of the policy.
+     * @param callback Called with the outcome of the run, unless it completes with {@link Result#retry()}.
+     * @return A future completed with {@link Result#retry()} if a batch could not be sent at all, or by the callback.
+     */
+    ListenableFuture<Result> drain(AppDatabase db, FleetEnrollData enrollmentData, PolicyData policyData, List<ComponentPlan.Entry> components, StatusCallback callback) {
+        return CallbackToFutureAdapter.getFuture(completer -> {
+            this.completer = completer;
+            getBackgroundExecutor().execute(() -> new DrainRun(db, enrollmentData, policyData, components, callback).fill());
+            return "ElasticWorker drain";
+        });
+    }
+
+    /**
+     * Completes the work with {@link Result#retry()}, so WorkManager runs it again with exponential backoff
+     * once its constraints are met. Used if a batch could not be sent, e.g. because the connection failed.
+     *
+     * @param db The AppDatabase instance.
+     */
+    private void retry(AppDatabase db) {
+        db.statisticsDataDAO().setAgentHealth("Unhealthy");
+        completer.set(Result.retry());
     }
 
     /**
@@ -123,57 +249,271 @@ public class ElasticWorker extends Worker {
     }
 
     /**
-     * The main logic of the worker. It iterates over all components specified in the policy data,
-     * initializes them, and collects documents from each component's buffer.
+     * The batches sent by a single run of the worker.
+     *
+     * <p>The first batch claims up to the current batch size of the {@link AdaptiveBatchController} from every component,
+     * which is capped by {@link PolicyData#maxDocumentsPerRequest}. Components that filled their share have a backlog left, e.g. after the device was offline for a while. For these,
+     * the run keeps claiming and sending batches (catch-up mode) with up to {@link PolicyData#catchupMaxInFlight} bulk
+     * requests in flight, until their backlog is drained, the time or byte budget of the run is used up, a batch fails or
+     * the work is stopped. The next batch is claimed while the previous ones are still in flight, continuing after the
+     * last document claimed from each component.</p>
+     *
+     * <p>The run completes the work once the last batch in flight has been settled: with {@link Result#retry()} if a
+     * batch could not be sent at all, otherwise through the {@link StatusCallback}, which schedules the next run.</p>
      */
-    private ListenableWorker.Result getDocumentsFromComponents(AppDatabase db, FleetEnrollData enrollmentData, PolicyData policyData, StatusCallback callback) {
-        try {
-            ArrayList<ElasticDocument> newDocuments = new ArrayList<>();
+    private class DrainRun {
+        private final AppDatabase db;
+        private final FleetEnrollData enrollmentData;
+        private final PolicyData policyData;
+        private final List<ComponentPlan.Entry> components; // The enabled components of the policy
+        private final StatusCallback callback;
+        private final Gson gson = ElasticDocument.createGson();
+        private final int maxInFlight;
+        private final long startNanos = System.nanoTime();
+        private final long deadlineNanos;
+
+        // Components with a backlog left and the buffer id of the last document claimed from each, only used by the filling thread
+        private final Map<Component, Integer> cursors = new LinkedHashMap<>();
+
+        // Guarded by this
+        private boolean filling;
+        private boolean finished;
+        private int batches;
+        private int inFlight;
+        private int sentDocuments;
+        private long sentBytes;
+        private boolean backlogRemaining = true;
+        private boolean failed; // A batch failed in a way handled by the policy backoff
+        private boolean retry; // A batch could not be sent at all
+        private boolean budgetUsedUp;
+        private int sentBatches;
+
+        DrainRun(AppDatabase db, FleetEnrollData enrollmentData, PolicyData policyData, List<ComponentPlan.Entry> components, StatusCallback callback) {
+            this.db = db;
+            this.enrollmentData = enrollmentData;
+            this.policyData = policyData;
+            this.components = components;
+            this.callback = callback;
+            this.maxInFlight = Math.max(1, policyData.catchupMaxInFlight);
+            this.deadlineNanos = startNanos + TimeUnit.SECONDS.toNanos(policyData.catchupMaxDuration);
+        }
 
-            for (String componentPath : policyData.paths.split(",")) {
-                try {
-                    // Remove everything behind the first "." to get the component name
-                    String componentName = componentPath.split("\\.")[0];
+        /**
+         * Claims and sends batches until the maximum number of requests is in flight or the run has to stop.
+         * Only one thread fills at a time; settled batches call this again to refill the freed slots.
+         * Completes the run once no batch is in flight anymore.
+         */
+        void fill() {
+            synchronized (this) {
+                if (filling || finished) {
+                    return;
+                }
+                filling = true;
+            }
 
-                    String subComponent = "";
-                    if (componentPath.split("\\.").length >= 2) {
-                        subComponent = componentPath.split("\\.")[1];
+            while (true) {
+                boolean first;
+                synchronized (this) {
+                    if (inFlight >= maxInFlight || !canStartBatch()) {
+                        filling = false;
+                        if (inFlight > 0 || finished) {
+                            return;
+                        }
+                        finished = true;
+                        break;
                     }
+                    first = batches == 0;
+                    batches++;
+                    inFlight++;
+                }
+                // Claim and send outside the lock, so settling the batches in flight isn't blocked meanwhile
+                startBatch(first);
+            }
+            finish();
+        }
 
-                    Component component = ComponentFactory.createInstance(componentName);
-                    if (!component.setup(getApplicationContext(), enrollmentData, policyData, subComponent)) {
-                        AppLog.w(TAG, "Component " + component.getPathName() + " setup failed");
-                        continue;
+        /**
+         * Returns whether another batch may be started. Must hold the lock.
+         */
+        private boolean canStartBatch() {
+            if (isStopped() || failed || retry || !backlogRemaining || budgetUsedUp) {
+                return false;
+            }
+            if (batches == 0) {
+                return true;
+            }
+            if (System.nanoTime() >= deadlineNanos) {
+                AppLog.i(TAG, "Catch-up time budget of " + policyData.catchupMaxDuration + " seconds used up, continuing with the next run");
+                budgetUsedUp = true;
+            } else if (sentBytes >= policyData.catchupMaxBytes) {
+                AppLog.i(TAG, "Catch-up byte budget of " + policyData.catchupMaxBytes + " bytes used up, continuing with the next run");
+                budgetUsedUp = true;
+            }
+            return !budgetUsedUp;
+        }
+
+        /**
+         * Claims the next batch from the component buffers and sends it to Elasticsearch.
+         *
+         * @param first True for the first batch of the run, which sets up all components of the policy.
+         */
+        private void startBatch(boolean first) {
+            String batchId = UUID.randomUUID().toString();
+            List<ClaimedDocuments> claimedBatches = new ArrayList<>();
+            try {
+                ArrayList<ElasticDocument> newDocuments = claimBatch(batchId, first, claimedBatches);
+                boolean full = !cursors.isEmpty();
+                if (limitToByteBudget(batchId, claimedBatches, cursors, policyData.maxBytesPerRequest, gson)) {
+                    full = false; // The byte budget is the limit, a larger batch size wouldn't help
+                    newDocuments.clear();
+                    for (ClaimedDocuments claimed : claimedBatches) {
+                        newDocuments.addAll(claimed.documents);
                     }
+                }
+                if (cursors.isEmpty()) {
+                    synchronized (this) {
+                        backlogRemaining = false;
+                    }
+                }
 
+                if (newDocuments.isEmpty()) {
+                    batchSettled(0, 0, BatchOutcome.EMPTY);
+                    return;
+                }
 
-                    List<ElasticDocument> bufferedDocuments = component.getDocumentsFromBuffer(policyData.maxDocumentsPerRequest);
+                if (isStopped()) {
+                    releaseBatch(batchId, claimedBatches);
+                    batchSettled(0, 0, BatchOutcome.CANCELLED);
+                    return;
+                }
 
-                    if (bufferedDocuments == null) {
-                        AppLog.w(TAG, "Component " + component.getPathName() + " returned null documents");
-                        continue;
-                    }
-                    newDocuments.addAll(bufferedDocuments);
+                // Send the documents to Elasticsearch, a component that filled its share means the batch size was the limit
+                sendBulkToElasticsearch(db, policyData, batchId, claimedBatches, newDocuments, full, this);
 
-                } catch (Exception e) {
-                    if (e instanceof IllegalArgumentException && Objects.requireNonNull(e.getMessage()).contains("not found")) {
-                        AppLog.w(TAG, "Component path " + componentPath + " defined in policy but app does not support it");
-                    } else {
-                        AppLog.e(TAG, "Unhandled app error while processing component: " + Arrays.toString(e.getStackTrace()));
+            } catch (Exception e) {
+                AppLog.e(TAG, "Unhandled app error while performing Elasticsearch PUT worker: " + e.getMessage());
+                releaseBatch(batchId, claimedBatches);
+                db.statisticsDataDAO().increaseTotalFailures();
+                batchSettled(0, 0, BatchOutcome.RETRY);
+            }
+        }
+
+        /**
+         * Drains the component buffers concurrently on a bounded executor and merges their documents in policy order.
+         * A component that does not return within {@link #DRAIN_TIMEOUT_SECONDS} is skipped for this batch, so one slow
+         * buffer can't hold up the whole flush.
+         *
+         * <p>Documents are only claimed for a batch, not removed from the buffers. They are deleted once
+         * Elasticsearch accepted the batch and released again if the request fails.</p>
+         *
+         * @param batchId The id of the batch the documents are claimed for.
+         * @param first True to set up and drain all components of the policy, false to continue with those that have a backlog left.
+         * @param claimedBatches Filled with the claimed documents, grouped by component.
+         * @return All claimed documents in policy order.
+         */
+        private ArrayList<ElasticDocument> claimBatch(String batchId, boolean first, List<ClaimedDocuments> claimedBatches) throws InterruptedException {
+            int batchSize = batchController.getBatchSize(policyData.maxDocumentsPerRequest);
+
+            // Drain all component buffers concurrently, but keep the futures in policy order so the merged result is deterministic
+            List<String> componentPaths = new ArrayList<>();
+            List<Future<ClaimedDocuments>> drains = new ArrayList<>();
+            if (first) {
+                for (ComponentPlan.Entry entry : components) {
+                    componentPaths.add(entry.getPath());
+                    drains.add(AppExecutors.networkIO().submit(() -> drainComponent(entry.getComponent(), batchId, batchSize)));
+                }
+            } else {
+                for (Map.Entry<Component, Integer> cursor : cursors.entrySet()) {
+                    Component component = cursor.getKey();
+                    int afterId = cursor.getValue();
+                    componentPaths.add(component.getPathName());
+                    drains.add(AppExecutors.networkIO().submit(() ->
+                            new ClaimedDocuments(component, component.claimDocumentsFromBuffer(batchId, afterId, batchSize))));
+                }
+            }
+            cursors.clear();
+
+            // All drains run in parallel, so each one gets the same deadline measured from now
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_TIMEOUT_SECONDS);
+            ArrayList<ElasticDocument> newDocuments = new ArrayList<>();
+            for (int i = 0; i < drains.size(); i++) {
+                Future<ClaimedDocuments> drain = drains.get(i);
+                try {
+                    ClaimedDocuments claimed = drain.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (claimed != null && claimed.documents != null) {
+                        claimedBatches.add(claimed);
+                        newDocuments.addAll(claimed.documents);
+
+                        // Only a component that filled its share of the batch has a backlog left for the next one
+                        if (!claimed.documents.isEmpty() && claimed.documents.size() >= batchSize) {
+                            cursors.put(claimed.component, claimed.documents.get(claimed.documents.size() - 1).getBufferId());
+                        }
                     }
+                } catch (TimeoutException e) {
+                    // Anything the component claimed in the meantime is picked up again by the stale claim recovery
+                    drain.cancel(true);
+                    AppLog.w(TAG, "Component path " + componentPaths.get(i) + " did not return its documents within " + DRAIN_TIMEOUT_SECONDS + " seconds, skipping it for this run");
+                } catch (ExecutionException e) {
+                    AppLog.e(TAG, "Unhandled app error while processing component: " + Arrays.toString(Objects.requireNonNull(e.getCause()).getStackTrace()));
                 }
             }
+            return newDocuments;
+        }
 
-            // Now disable any components that were _not_ in the paths list
-            for (Component component : ComponentFactory.getAllInstances()) {
-                if (!policyData.paths.contains(component.getPathName())) {
-                    AppLog.i(TAG, "Disabling component: " + component.getPathName());
-                    component.disable(getApplicationContext(), enrollmentData, policyData);
+        /**
+         * Records the outcome of a batch and refills the freed slot on WorkManager's background executor.
+         *
+         * @param documents The number of documents Elasticsearch accepted.
+         * @param bytes The uncompressed size of the request.
+         * @param outcome The outcome of the batch.
+         */
+        void batchSettled(int documents, long bytes, BatchOutcome outcome) {
+            synchronized (this) {
+                inFlight--;
+                sentDocuments += documents;
+                sentBytes += bytes;
+                if (documents > 0) {
+                    sentBatches++;
+                }
+                switch (outcome) {
+                    case FAILED:
+                        failed = true;
+                        break;
+                    case RETRY:
+                        retry = true;
+                        break;
+                    case EMPTY:
+                        backlogRemaining = false;
+                        break;
+                    default:
+                        break;
                 }
             }
+            getBackgroundExecutor().execute(this::fill);
+        }
+
+        /**
+         * Completes the work after the last batch has been settled.
+         */
+        private void finish() {
+            if (isStopped()) {
+                return; // The work was stopped, WorkManager runs it again
+            }
 
-            // Check if newDocuments is empty
-            if (newDocuments.isEmpty()) {
+            if (sentBatches > 1) {
+                long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                int documentsPerSecond = (int) (sentDocuments * 1000L / elapsedMillis);
+                AppLog.i(TAG, String.format(Locale.US, "Catch-up sent %d documents (%d KB) in %d batches within %.1f seconds, %d documents/s",
+                        sentDocuments, sentBytes / 1024, sentBatches, elapsedMillis / 1000.0, documentsPerSecond));
+                db.statisticsDataDAO().setCatchupDocumentsPerSecond(documentsPerSecond);
+            }
+            if (budgetUsedUp) {
+                logBacklogAge();
+            }
+
+            if (retry) {
+                retry(db);
+            } else if (sentDocuments == 0 && !failed) {
                 AppLog.i(TAG, "No documents to send to Elasticsearch");
                 if (policyData.backoffOnEmptyBuffer) {
                     AppLog.d(TAG, "Backoff on empty buffer enabled, will increase next backoff interval if possible");
@@ -182,35 +522,333 @@ public class ElasticWorker extends Worker {
                     AppLog.d(TAG, "Backoff on empty buffer disabled, will not increase next backoff interval");
                     callback.onCallback(true);
                 }
-                return Result.success();
+            } else {
+                callback.onCallback(!failed);
+            }
+        }
+
+        /**
+         * Logs how far the backlog left for the next run reaches back, i.e. the age of the oldest unclaimed document.
+         */
+        private void logBacklogAge() {
+            long oldest = Long.MAX_VALUE;
+            for (ComponentPlan.Entry entry : components) {
+                long millis = entry.getComponent().getOldestDocumentInBufferMillis();
+                if (millis > 0) {
+                    oldest = Math.min(oldest, millis);
+                }
+            }
+            if (oldest != Long.MAX_VALUE) {
+                AppLog.i(TAG, "Backlog left for the next run reaches back " + TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - oldest) + " minutes");
+            }
+        }
+    }
+
+    /**
+     * Keeps the payload of a batch within the byte budget of a request. If even the largest document seen so far
+     * times the number of documents fits into the budget, the batch is left as it is; the {@link BulkRequestBody}
+     * enforces the budget while writing in case a document is larger than any before. Otherwise the size of every
+     * document is measured by serializing it into a counter (see {@link BulkRequestBody#measure}), so no payload is
+     * held in memory. If the batch is too large, the budget is shared fairly: components with small documents keep all
+     * of theirs and the rest is split evenly among the others. The documents that don't fit are released again and the
+     * component continues with them in the next batch, so a large batch is split into several requests.
+     *
+     * @param batchId The id of the batch.
+     * @param claimedBatches The documents of the batch, grouped by component. Trimmed in place.
+     * @param cursors The buffer id to continue after with the next batch, per component. Rewound to the first released document.
+     * @param maxBytes The byte budget of the request, see {@link PolicyData#maxBytesPerRequest}.
+     * @param gson The Gson instance used to serialize the documents of the body.
+     * @return True if documents were released, false if the batch fits into the budget.
+     */
+    static boolean limitToByteBudget(String batchId, List<ClaimedDocuments> claimedBatches, Map<Component, Integer> cursors, long maxBytes, Gson gson) {
+        long count = 0;
+        for (ClaimedDocuments claimed : claimedBatches) {
+            count += claimed.documents.size();
+        }
+        long largest = BulkRequestBody.getLargestDocumentBytes();
+        if (largest > 0 && count * largest <= maxBytes) {
+            return false;
+        }
+
+        long[][] sizes = new long[claimedBatches.size()][];
+        long[] totals = new long[claimedBatches.size()];
+        long total = 0;
+        for (int i = 0; i < claimedBatches.size(); i++) {
+            List<ElasticDocument> documents = claimedBatches.get(i).documents;
+            sizes[i] = new long[documents.size()];
+            for (int j = 0; j < documents.size(); j++) {
+                sizes[i][j] = BulkRequestBody.measure(documents.get(j), gson);
+                totals[i] += sizes[i][j];
+            }
+            total += totals[i];
+        }
+        if (total <= maxBytes) {
+            return false;
+        }
+
+        // Hand out the budget from the smallest to the largest share, unused budget carries over to the larger ones
+        Integer[] order = new Integer[claimedBatches.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(totals[a], totals[b]));
+        int[] keep = new int[claimedBatches.size()];
+        long remaining = maxBytes;
+        for (int rank = 0; rank < order.length; rank++) {
+            int i = order[rank];
+            long allotment = remaining / (order.length - rank);
+            long used = 0;
+            while (keep[i] < sizes[i].length && used + sizes[i][keep[i]] <= allotment) {
+                used += sizes[i][keep[i]];
+                keep[i]++;
+            }
+            remaining -= used;
+        }
+
+        int kept = 0;
+        for (int k : keep) {
+            kept += k;
+        }
+        if (kept == 0) {
+            // A single document is larger than the whole budget, send it alone so the buffer doesn't get stuck
+            int largestShare = order[order.length - 1];
+            keep[largestShare] = 1;
+            AppLog.w(TAG, "Document of component " + claimedBatches.get(largestShare).component.getPathName() + " with " + sizes[largestShare][0]
+                    + " bytes exceeds the request budget of " + maxBytes + " bytes, sending it alone");
+        }
+
+        int released = 0;
+        for (int i = claimedBatches.size() - 1; i >= 0; i--) {
+            ClaimedDocuments claimed = claimedBatches.get(i);
+            if (keep[i] < claimed.documents.size()) {
+                released += releaseTail(batchId, claimedBatches, i, keep[i], cursors);
+            }
+        }
+        AppLog.d(TAG, "Batch of " + total + " bytes exceeds the request budget of " + maxBytes + " bytes, released " + released + " documents for the next batch");
+        return true;
+    }
+
+    /**
+     * Releases the documents of a component from the given index on, so they are claimed again by the next batch.
+     *
+     * @param batchId The id of the batch.
+     * @param claimedBatches The documents of the batch, grouped by component. The component is trimmed in place, or removed if none are kept.
+     * @param index The index of the component in the batch.
+     * @param keep The number of documents the component keeps.
+     * @param cursors If not null, the cursor of the component is rewound to right before the first released document.
+     * @return The number of released documents.
+     */
+    private static int releaseTail(String batchId, List<ClaimedDocuments> claimedBatches, int index, int keep, Map<Component, Integer> cursors) {
+        ClaimedDocuments claimed = claimedBatches.get(index);
+        List<Integer> releaseIds = new ArrayList<>();
+        for (ElasticDocument document : claimed.documents.subList(keep, claimed.documents.size())) {
+            releaseIds.add(document.getBufferId());
+        }
+        int released = 0;
+        for (int j = 0; j < releaseIds.size(); j += MAX_IDS_PER_QUERY) {
+            released += claimed.component.releaseDocuments(batchId, releaseIds.subList(j, Math.min(j + MAX_IDS_PER_QUERY, releaseIds.size())));
+        }
+
+        if (cursors != null) {
+            cursors.put(claimed.component, releaseIds.get(0) - 1);
+        }
+        if (keep == 0) {
+            claimedBatches.remove(index);
+        } else {
+            claimedBatches.set(index, new ClaimedDocuments(claimed.component, new ArrayList<>(claimed.documents.subList(0, keep))));
+        }
+        return released;
+    }
+
+    /**
+     * Releases the documents the {@link BulkRequestBody} did not write because its byte budget ran out. They weren't
+     * sent, so they are not part of the bulk response either.
+     *
+     * @param batchId The id of the batch.
+     * @param claimedBatches The documents of the batch, grouped by component.
+     * @param written The number of documents the body wrote.
+     * @return The documents that were sent, grouped by component.
+     */
+    private static List<ClaimedDocuments> releaseUnwritten(String batchId, List<ClaimedDocuments> claimedBatches, int written) {
+        List<ClaimedDocuments> sent = new ArrayList<>(claimedBatches);
+        int released = 0;
+        int remaining = written;
+        for (int i = 0; i < sent.size(); ) {
+            int size = sent.get(i).documents.size();
+            if (remaining >= size) {
+                remaining -= size;
+                i++;
+                continue;
+            }
+            released += releaseTail(batchId, sent, i, remaining, null);
+            if (remaining > 0) {
+                i++;
+            }
+            remaining = 0;
+        }
+        AppLog.w(TAG, "Request budget ran out while writing batch " + batchId + ", released " + released + " documents larger than expected for the next run");
+        return sent;
+    }
+
+    /**
+     * The outcome of a single batch of a {@link DrainRun}.
+     */
+    private enum BatchOutcome {
+        SENT, // Elasticsearch accepted all documents
+        FAILED, // The request or some of its documents failed, handled by the policy backoff
+        RETRY, // The request could not be sent at all
+        EMPTY, // There was nothing left to claim
+        CANCELLED // The work was stopped
+    }
+
+    /**
+     * Claims the documents from the buffer of a single component for the given batch. The component has already been
+     * set up by the {@link ComponentLifecycleManager}. Claims left behind by batches that never finished are released
+     * first, so their documents are sent again.
+     * This runs on the drain executor, concurrently with the other components of the policy.
+     *
+     * @param component The enabled component.
+     * @param batchId The id of the batch the documents are claimed for.
+     * @param batchSize The maximum number of documents to claim.
+     * @return The component and the documents claimed from its buffer, or null if the component could not be used.
+     */
+    private ClaimedDocuments drainComponent(Component component, String batchId, int batchSize) {
+        try {
+            int released = component.releaseStaleClaims(System.currentTimeMillis() - CLAIM_TIMEOUT_MILLIS);
+            if (released > 0) {
+                AppLog.w(TAG, "Released " + released + " stale claimed documents of component " + component.getPathName());
             }
 
-            // Send the documents to Elasticsearch
-            return sendBulkToElasticsearch(db, policyData, newDocuments, callback);
+            List<ElasticDocument> bufferedDocuments = component.claimDocumentsFromBuffer(batchId, 0, batchSize);
 
+            if (bufferedDocuments == null) {
+                AppLog.w(TAG, "Component " + component.getPathName() + " returned null documents");
+                return null;
+            }
+            return new ClaimedDocuments(component, bufferedDocuments);
 
         } catch (Exception e) {
-            AppLog.e(TAG, "Unhandled app error while performing Elasticsearch PUT worker: " + e.getMessage());
-            callback.onCallback(false);
-            return Result.failure();
+            AppLog.e(TAG, "Unhandled app error while processing component " + component.getPathName() + ": " + Arrays.toString(e.getStackTrace()));
+            return null;
         }
     }
 
     /**
      * Sends a bulk request to Elasticsearch with the provided documents.
      *
+     * The claimed documents are removed from the component buffers once Elasticsearch answered the request.
+     * Documents rejected with a temporary error (see {@link #acknowledgeBatch}) and whole failed requests are
+     * released instead, so the next run sends them again.
+     *
      * @param db           The AppDatabase instance.
      * @param policyData   The policy data for the current agent.
+     * @param batchId      The id of the batch the documents were claimed for.
+     * @param claimedBatches The documents of this batch, grouped by the component holding their claim.
      * @param newDocuments The list of documents to send to Elasticsearch.
-     * @param callback     The callback to handle the result of the operation.
-     * @return The result of the operation.
+     * @param full         True if a component filled its share of the batch, see {@link AdaptiveBatchController#onAccepted}.
+     * @param run          The run the batch belongs to, notified once the batch has been settled.
      */
-    private ListenableWorker.Result sendBulkToElasticsearch(AppDatabase db, PolicyData policyData, List<ElasticDocument> newDocuments, StatusCallback callback) {
+    private void sendBulkToElasticsearch(AppDatabase db, PolicyData policyData, String batchId, List<ClaimedDocuments> claimedBatches, List<ElasticDocument> newDocuments, boolean full, DrainRun run) {
         AppStatisticsDataDAO statisticsDataDAO = db.statisticsDataDAO();
-        statisticsDataDAO.decreaseCombinedBufferSize(newDocuments.size());
+        Gson gson = ElasticDocument.createGson();
+        BulkRequestBody requestBody = createBulkRequestBody(newDocuments, gson, policyData.maxBytesPerRequest);
+        Call<ElasticResponse> bulkCall = createBulkCall(policyData, requestBody);
+        bulkCalls.add(bulkCall);
+        long sentAtNanos = System.nanoTime();
+        bulkCall.enqueue(new Callback<ElasticResponse>() {
+            @Override
+            public void onResponse(@NonNull Call<ElasticResponse> call, @NonNull Response<ElasticResponse> response) {
+                ElasticResponse body = response.body();
+                AppLog.d(TAG, "Got Response from Elasticsearch Server: errors=" + (body != null ? body.getErrors() : null)
+                        + ", items=" + (body != null && body.getItems() != null ? body.getItems().size() : 0));
+
+                long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAtNanos);
+
+                AppExecutors.callbacks().execute(() -> {
+                    bulkCalls.remove(call);
+                    if (requestBody.getBytesWritten() > 0) {
+                        sizeHistogram.record(requestBody.getBytesWritten());
+                        statisticsDataDAO.setBulkSizeHistogram(sizeHistogram.format());
+                    }
+                    int maxBatchSize = policyData.maxDocumentsPerRequest;
+                    int previousBatchSize = batchController.getBatchSize(maxBatchSize);
+                    if (response.isSuccessful()) {
+                        // Documents larger than expected may have exhausted the byte budget of the body before all were written
+                        int sent = requestBody.getDocumentsWritten();
+                        List<ClaimedDocuments> sentBatches = sent < newDocuments.size() ? releaseUnwritten(batchId, claimedBatches, sent) : claimedBatches;
+                        int retryable = body != null ? acknowledgeBatch(db, gson, batchId, sentBatches, body, statisticsDataDAO) : -1;
+                        if (retryable == 0) {
+                            updateBatchSize(previousBatchSize, batchController.onAccepted(sent, requestBody.getBytesWritten(), latencyMillis, full && sent == newDocuments.size(), maxBatchSize), statisticsDataDAO);
+                        } else if (retryable > 0) {
+                            updateBatchSize(previousBatchSize, batchController.onBackpressure(maxBatchSize), statisticsDataDAO);
+                        }
+
+                        if (retryable < 0) {
+                            AppLog.w(TAG, "Elasticsearch PUT failed: " + response.message());
+                            releaseBatch(batchId, sentBatches);
+                            statisticsDataDAO.increaseTotalFailures();
+                            run.batchSettled(0, 0, BatchOutcome.FAILED);
+                            return;
+                        }
+
+                        // Set statistics data
+                        statisticsDataDAO.setLastDocumentsSentAt(EcsTimestamp.now());
+                        statisticsDataDAO.setLastDocumentsSentCount(sent - retryable);
+
+                        // Only temporary rejections mean Elasticsearch is struggling, permanently rejected documents don't cause a backoff
+                        if (retryable > 0) {
+                            AppLog.w(TAG, "Elasticsearch rejected " + retryable + " documents temporarily, they will be sent again with the next run");
+                            statisticsDataDAO.increaseTotalFailures();
+                            run.batchSettled(sent - retryable, requestBody.getBytesWritten(), BatchOutcome.FAILED);
+                        } else {
+                            run.batchSettled(sent, requestBody.getBytesWritten(), BatchOutcome.SENT);
+                        }
+                    } else {
+                        AppLog.w(TAG, "Elasticsearch PUT failed: " + response.message());
+                        if (isBackpressure(response.code())) {
+                            updateBatchSize(previousBatchSize, batchController.onBackpressure(maxBatchSize), statisticsDataDAO);
+                        }
+                        releaseBatch(batchId, claimedBatches);
+                        statisticsDataDAO.increaseTotalFailures();
+                        run.batchSettled(0, 0, BatchOutcome.FAILED);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<ElasticResponse> call, @NonNull Throwable t) {
+                AppExecutors.callbacks().execute(() -> {
+                    bulkCalls.remove(call);
+                    releaseBatch(batchId, claimedBatches);
+                    if (call.isCanceled()) {
+                        run.batchSettled(0, 0, BatchOutcome.CANCELLED); // The work was stopped, WorkManager runs it again
+                        return;
+                    }
+                    AppLog.w(TAG, "Elasticsearch PUT failed: " + t.getMessage());
+                    if (t instanceof InterruptedIOException) {
+                        // A timeout, the request was too large for the link or the cluster
+                        int maxBatchSize = policyData.maxDocumentsPerRequest;
+                        int previousBatchSize = batchController.getBatchSize(maxBatchSize);
+                        updateBatchSize(previousBatchSize, batchController.onBackpressure(maxBatchSize), statisticsDataDAO);
+                    }
+                    statisticsDataDAO.increaseTotalFailures();
+                    run.batchSettled(0, 0, BatchOutcome.RETRY);
+                });
+            }
 
+        });
+    }
+
+    /**
+     * Creates the bulk request to the Elasticsearch hosts of the policy, authenticated with the API key received
+     * during enrollment.
+     *
+     * @param policyData The policy data for the current agent.
+     * @param requestBody The documents of the batch.
+     * @return The request, not yet enqueued.
+     */
+    Call<ElasticResponse> createBulkCall(PolicyData policyData, BulkRequestBody requestBody) {
         // Make a PUT request to Elasticsearch using Retrofit
-        String sslFingerprint = policyData.sslCaTrustedFingerprint;
         String sslFullCert = policyData.sslCaTrustedFull;
         String esUrl = policyData.hosts;
         boolean verifyCert = true; // we use the full cert provided by fleet anyway
@@ -230,86 +868,144 @@ public class ElasticWorker extends Worker {
             AppLog.w(TAG, "Probably wrong index name: " + indexName);
         }
 
-        Gson gson = new Gson();
-        RequestBody requestBody = createBulkRequestBody(newDocuments, gson);
-
-        Retrofit retrofit = NetworkBuilder.getClientElasticsearch(esUrl, verifyCert, sslFullCert, timeoutSeconds);
+        Retrofit retrofit = NetworkBuilder.getClientElasticsearch(esUrl, verifyCert, sslFullCert, timeoutSeconds, policyData.compressRequests);
         ElasticApi elasticApi = retrofit.create(ElasticApi.class);
-        elasticApi.putBulk("ApiKey " + elasticAccessApiKeyEncoded, indexName, requestBody).enqueue(new Callback<ElasticResponse>() {
-            @Override
-            public void onResponse(@NonNull Call<ElasticResponse> call, @NonNull Response<ElasticResponse> response) {
-                AppLog.d(TAG, "Got Response from Elasticsearch Server: " + new Gson().toJson(response.body()));
+        return elasticApi.putBulk("ApiKey " + elasticAccessApiKeyEncoded, indexName, requestBody);
+    }
 
-                Executors.newSingleThreadExecutor().execute(() -> {
-                    if (response.isSuccessful()) {
-                        if (response.body() == null || response.body().getErrors().equals("true")) {
-                            AppLog.w(TAG, "Elasticsearch PUT failed: " + response.message());
-                            statisticsDataDAO.increaseTotalFailures();
-                            callback.onCallback(false);
-                            return;
-                        }
+    /**
+     * Returns whether an HTTP status means that Elasticsearch can't keep up or the request was too large.
+     *
+     * @param code The HTTP status code of the bulk response.
+     * @return True for 413 Payload Too Large, 429 Too Many Requests and server errors.
+     */
+    private static boolean isBackpressure(int code) {
+        return code == 413 || code == 429 || code >= 500;
+    }
 
-                        // Set statistics data
-                        @SuppressLint("SimpleDateFormat") SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-                        sdf.setTimeZone(TimeZone.getTimeZone("UTC")); // Ensure the time is in UTC
-                        statisticsDataDAO.setLastDocumentsSentAt(sdf.format(Calendar.getInstance().getTime()));
-                        statisticsDataDAO.setLastDocumentsSentCount(newDocuments.size());
+    /**
+     * Logs a change of the adaptive batch size and persists the state of the controller to the statistics.
+     *
+     * @param previousBatchSize The batch size before the request was answered.
+     * @param batchSize The batch size for the next batch.
+     * @param statisticsDataDAO The DAO to update the statistics.
+     */
+    private void updateBatchSize(int previousBatchSize, int batchSize, AppStatisticsDataDAO statisticsDataDAO) {
+        if (batchSize != previousBatchSize) {
+            AppLog.d(TAG, "Batch size changed from " + previousBatchSize + ": " + batchController.getStatistics());
+        }
+        batchController.persist(statisticsDataDAO);
+    }
 
-                        callback.onCallback(true);
-                    } else {
-                        AppLog.w(TAG, "Elasticsearch PUT failed: " + response.message());
-                        statisticsDataDAO.increaseTotalFailures();
-                        callback.onCallback(false);
+    /**
+     * Settles a batch that Elasticsearch answered, based on the result of every single item of the bulk response.
+     * Item i of the response belongs to document i of the batch:
+     * <ul>
+     *     <li>Indexed documents are removed from the buffers.</li>
+     *     <li>Documents rejected temporarily (429/5xx) are released, so they are sent again with the next run.</li>
+     *     <li>Documents rejected permanently (e.g. mapping errors) would fail again on every retry, so they are
+     *     logged, counted as dropped and moved to the {@link DeadLetterDocument}s together with the error, where
+     *     they are kept for {@link #DEAD_LETTER_RETENTION_MILLIS} to be inspected or replayed.</li>
+     * </ul>
+     *
+     * @param db The database holding the dead-letter table.
+     * @param gson The Gson instance used to serialize the documents of the body.
+     * @param batchId The id of the batch.
+     * @param claimedBatches The documents of this batch, grouped by the component holding their claim.
+     * @param body The bulk response returned by Elasticsearch.
+     * @param statisticsDataDAO The DAO to update the statistics.
+     * @return The number of documents released for a retry, or -1 if the response can't be matched to the documents.
+     */
+    private int acknowledgeBatch(AppDatabase db, Gson gson, String batchId, List<ClaimedDocuments> claimedBatches, ElasticResponse body, AppStatisticsDataDAO statisticsDataDAO) {
+        boolean hasErrors = "true".equals(body.getErrors());
+        List<ElasticResponse.Item> items = body.getItems();
+        int documentCount = 0;
+        for (ClaimedDocuments claimed : claimedBatches) {
+            documentCount += claimed.documents.size();
+        }
+        if (hasErrors && (items == null || items.size() != documentCount)) {
+            AppLog.w(TAG, "Bulk response reports errors but its items don't match the " + documentCount + " sent documents");
+            return -1;
+        }
+
+        int index = 0;
+        int retryable = 0;
+        int dropped = 0;
+        int acknowledged = 0;
+        long now = System.currentTimeMillis();
+        List<DeadLetterDocument> deadLetters = new ArrayList<>();
+        for (ClaimedDocuments claimed : claimedBatches) {
+            List<Integer> retryIds = new ArrayList<>();
+            for (ElasticDocument document : claimed.documents) {
+                ElasticResponse.Item item = hasErrors ? items.get(index) : null;
+                index++;
+                if (item == null || item.isSuccessful()) {
+                    continue;
+                }
+
+                if (item.isRetryable()) {
+                    retryIds.add(document.getBufferId());
+                } else {
+                    ElasticResponse.Error error = item.getError();
+                    if (dropped == 0) {
+                        // Only log the first one, a broken mapping usually rejects every document of the same kind
+                        AppLog.w(TAG, "Dead-lettering document of component " + claimed.component.getPathName() + " rejected with status " + item.getStatus()
+                                + (error != null ? ": " + error.getType() + " - " + error.getReason() : ""));
                     }
-                });
+                    deadLetters.add(new DeadLetterDocument(claimed.component.getPathName(), gson.toJson(document), item.getStatus(),
+                            error != null ? error.getType() : null, error != null ? error.getReason() : null, now));
+                    dropped++;
+                }
             }
 
-            @Override
-            public void onFailure(@NonNull Call<ElasticResponse> call, @NonNull Throwable t) {
-                Executors.newSingleThreadExecutor().execute(() -> {
-                    AppLog.w(TAG, "Elasticsearch PUT failed: " + t.getMessage());
-                    statisticsDataDAO.increaseTotalFailures();
-                    callback.onCallback(false);
-                });
+            // Keep the rejected documents before they are removed from the buffer with the rest of the batch
+            if (!deadLetters.isEmpty()) {
+                db.deadLetterDocumentDAO().insertAndTrim(deadLetters, now - DEAD_LETTER_RETENTION_MILLIS, MAX_DEAD_LETTER_DOCUMENTS);
+                deadLetters.clear();
             }
 
-        });
+            // Release in chunks to stay below the SQLite limit of bound variables per statement
+            for (int i = 0; i < retryIds.size(); i += MAX_IDS_PER_QUERY) {
+                retryable += claimed.component.releaseDocuments(batchId, retryIds.subList(i, Math.min(i + MAX_IDS_PER_QUERY, retryIds.size())));
+            }
+            acknowledged += claimed.component.acknowledgeDocuments(batchId);
+        }
 
-        return Result.success();
+        AppLog.d(TAG, "Acknowledged " + acknowledged + " documents");
+        statisticsDataDAO.setCombinedBufferSize(BufferCounter.getCombinedSize());
+        if (dropped > 0) {
+            AppLog.w(TAG, "Moved " + dropped + " documents that were permanently rejected by Elasticsearch to the dead-letter table");
+            statisticsDataDAO.increaseDroppedDocuments(dropped);
+        }
+        return retryable;
     }
 
     /**
-     * Creates the body for a bulk request to Elasticsearch. Each document is preprocessed
-     * with necessary action metadata before serialization.
+     * Releases the documents claimed for a batch back to the component buffers, so they are sent with the next run.
      *
-     * @param documents The list of documents to be sent in the bulk operation.
-     * @param gson The Gson instance for serialization.
-     * @return The RequestBody suitable for the bulk API request.
+     * @param batchId The id of the batch to release.
+     * @param claimedBatches The documents of this batch, grouped by the component holding their claim.
      */
-    private RequestBody createBulkRequestBody(List<ElasticDocument> documents, Gson gson) {
-        StringBuilder bulkPayload = new StringBuilder();
-
-        for (ElasticDocument document : documents) {
-            String actionMetadata = createActionMetadata(document);
-            String documentJson = gson.toJson(document);
-
-            bulkPayload.append(actionMetadata).append("\n");
-            bulkPayload.append(documentJson).append("\n");
+    private void releaseBatch(String batchId, List<ClaimedDocuments> claimedBatches) {
+        int released = 0;
+        for (ClaimedDocuments claimed : claimedBatches) {
+            released += claimed.component.releaseDocuments(batchId);
         }
-        Log.d(TAG, "Bulk payload: " + bulkPayload.toString());
-        return RequestBody.create(MediaType.parse("application/x-ndjson"), bulkPayload.toString());
+        AppLog.i(TAG, "Released " + released + " documents of failed batch " + batchId + " back to the buffers");
     }
 
     /**
-     * Generates action metadata for a document to be included in a bulk operation.
-     * This metadata instructs Elasticsearch on how to process each document.
+     * Creates the body for a bulk request to Elasticsearch. The documents are streamed into the request
+     * one at a time while it is written, so the full payload never has to be held in memory.
      *
-     * @param document The document for which to create action metadata.
-     * @return A JSON string representing the action metadata for the document.
+     * @param documents The list of documents to be sent in the bulk operation.
+     * @param gson The Gson instance for serialization.
+     * @param maxBytes The byte budget of the request, enforced while the documents are written.
+     * @return The RequestBody suitable for the bulk API request.
      */
-    private String createActionMetadata(ElasticDocument document) {
-        return "{\"create\": {}}";
+    private BulkRequestBody createBulkRequestBody(List<ElasticDocument> documents, Gson gson, long maxBytes) {
+        Log.d(TAG, "Bulk payload: " + documents.size() + " documents");
+        return new BulkRequestBody(documents, gson, maxBytes);
     }
 
-
 }
@@ -14,13 +14,10 @@ import retrofit2.Callback;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 import java.net.SocketTimeoutException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -31,8 +28,15 @@ import java.util.concurrent.TimeUnit;
  */
 public class FleetCheckinRepository {
     private static final String TAG = "FleetCheckinRepository";
+    private static final int DEFAULT_MAX_BYTES_PER_REQUEST = 5 * 1024 * 1024;
+    private static final int DEFAULT_CATCHUP_MAX_IN_FLIGHT = 2;
+    private static final int DEFAULT_CATCHUP_MAX_DURATION_SECONDS = 120;
+    private static final int DEFAULT_CATCHUP_MAX_BYTES = 50 * 1024 * 1024;
+    static final int CHECKIN_TIMEOUT_SECONDS = 5;
+    static final int MAX_POLL_TIMEOUT_SECONDS = 300; // WorkManager stops a worker after 10 minutes
     private FleetApi fleetApi;
     private FleetEnrollData enrollmentData;
+    private volatile Call<FleetCheckinResponse> checkinCall; // The check-in in flight
     private final AlertDialog dialog;
     private final TextView tStatus;
 
@@ -59,14 +63,33 @@ public class FleetCheckinRepository {
      * @param context Application context.
      */
     public void checkinAgent(Context context, FleetEnrollData data, AgentMetadata metadata, StatusCallback callbackActivity) {
+        checkinAgent(context, data, metadata, 0, callbackActivity);
+    }
+
+    /**
+     * Performs a check-in operation with the Fleet server like {@link #checkinAgent(Context, FleetEnrollData, AgentMetadata, StatusCallback)},
+     * optionally as long-poll: the Fleet Server then holds the check-in open for up to {@code pollTimeoutSeconds}
+     * and answers as soon as an action, e.g. a policy change, is available. A long-poll that expires without
+     * an action is answered with no actions and handled like a short check-in without updates.
+     *
+     * @param context Application context.
+     * @param data The current enrollment data of the agent.
+     * @param metadata Metadata about the agent to be included in the check-in request.
+     * @param pollTimeoutSeconds The time in seconds the Fleet Server may hold the check-in open, 0 for a short check-in.
+     * @param callbackActivity Callback to handle UI updates based on the check-in result.
+     */
+    public void checkinAgent(Context context, FleetEnrollData data, AgentMetadata metadata, int pollTimeoutSeconds, StatusCallback callbackActivity) {
         this.enrollmentData = data;
         String accessApiKey = AppSecurePreferences.getInstance(context).getFleetApiKey();
+        boolean longPoll = pollTimeoutSeconds > 0;
 
-        AppLog.i(TAG, "Starting checkin");
+        AppLog.i(TAG, longPoll ? "Starting long-poll checkin (poll timeout " + pollTimeoutSeconds + " seconds)" : "Starting checkin");
         writeDialog("Starting checkin...", true);
 
         // Initialize Retrofit instance
-        Retrofit retrofit = NetworkBuilder.getClientFleet(data.fleetUrl, data.verifyCert, data.fleetCertificate, 5);
+        Retrofit retrofit = longPoll
+                ? NetworkBuilder.getClientFleetLongPoll(data.fleetUrl, data.verifyCert, data.fleetCertificate, pollTimeoutSeconds)
+                : NetworkBuilder.getClientFleet(data.fleetUrl, data.verifyCert, data.fleetCertificate, CHECKIN_TIMEOUT_SECONDS);
 
         this.fleetApi = retrofit.create(FleetApi.class);
 
@@ -74,7 +97,11 @@ public class FleetCheckinRepository {
 
         // Create checkin request
         FleetCheckinRequest checkinRequest = new FleetCheckinRequest("online", ackToken, metadata, "Elastic Agent (Android) checkin.");
-        fleetApi.postCheckin("ApiKey " + accessApiKey, data.agentId, checkinRequest).enqueue(new Callback<>() {
+        if (longPoll) {
+            checkinRequest.setPollTimeout(pollTimeoutSeconds);
+        }
+        checkinCall = fleetApi.postCheckin("ApiKey " + accessApiKey, data.agentId, checkinRequest);
+        checkinCall.enqueue(new Callback<>() {
             @Override
             public void onResponse(@NonNull Call<FleetCheckinResponse> call, @NonNull Response<FleetCheckinResponse> response) {
                 AppLog.d(TAG, "Got Response from Fleet Server: " + new Gson().toJson(response.body()));
@@ -90,6 +117,13 @@ public class FleetCheckinRepository {
                         return;
                     }
 
+                    if (checkinResponse.getActions() == null || checkinResponse.getActions().isEmpty()) {
+                        // A long-poll that expired without an action
+                        AppLog.i(TAG, "Checkin successful but no new actions were available.");
+                        handleNoUpdates(callbackActivity, context);
+                        return;
+                    }
+
                     // Handle action based on the response
                     String actionName = checkinResponse.getActions().get(0).getType();
 
@@ -143,22 +177,13 @@ public class FleetCheckinRepository {
 
             @Override
             public void onFailure(@NonNull Call<FleetCheckinResponse> call, @NonNull Throwable t) {
+                if (call.isCanceled()) {
+                    AppLog.i(TAG, "Checkin cancelled.");
+                    return;
+                }
                 if (t instanceof SocketTimeoutException) {
                     AppLog.i(TAG, "Checkin successful but no new actions were available (timeout).");
-                    writeDialog("Checkin successful. No updates.", true);
-                    // Update lastUpdated to current time format 2024-03-19T21:25:27.937Z API 24
-                    @SuppressLint("SimpleDateFormat") SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-                    sdf.setTimeZone(TimeZone.getTimeZone("UTC")); // Ensure the time is in UTC
-
-                    AppDatabase.databaseWriteExecutor.execute(() -> {
-                        AppDatabase db = AppDatabase.getDatabase(context);
-                        // Update lastUpdated to current time format 2024-03-19T21:25:27.937Z API 24
-                        @SuppressLint("SimpleDateFormat") SimpleDateFormat sdf_2 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-                        sdf_2.setTimeZone(TimeZone.getTimeZone("UTC")); // Ensure the time is in UTC
-                        db.policyDataDAO().refreshPolicyData(sdf.format(Calendar.getInstance().getTime()), null);
-                    });
-
-                    callbackActivity.onCallback(true);
+                    handleNoUpdates(callbackActivity, context);
                 } else {
                     // Handle failure
                     writeDialog("Unhandled exception in checkin: " + t.getMessage(), false);
@@ -170,6 +195,34 @@ public class FleetCheckinRepository {
         });
     }
 
+    /**
+     * Cancels the check-in in flight, e.g. because the worker performing it was stopped.
+     * The callback of a cancelled check-in is not called.
+     */
+    public void cancelCheckin() {
+        Call<FleetCheckinResponse> call = checkinCall;
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    /**
+     * Handles a check-in that was answered without an action, i.e. the current policy is still valid.
+     *
+     * @param callbackActivity Callback to handle UI updates based on the check-in result.
+     * @param context Application context.
+     */
+    private void handleNoUpdates(StatusCallback callbackActivity, Context context) {
+        writeDialog("Checkin successful. No updates.", true);
+        AppDatabase.databaseWriteExecutor.execute(() -> {
+            AppDatabase db = AppDatabase.getDatabase(context);
+            // Update lastUpdated to current time format 2024-03-19T21:25:27.937Z
+            db.policyDataDAO().refreshPolicyData(EcsTimestamp.now(), null);
+        });
+
+        callbackActivity.onCallback(true);
+    }
+
     /**
      * Handles a policy change action received from the Fleet server.
      * This method parses the policy data, acknowledges the policy change, and updates the local policy data.
@@ -223,10 +276,8 @@ public class FleetCheckinRepository {
             if (currentPolicyData != null && currentPolicyData.revision >= policyData.revision) {
                 AppLog.i(TAG, "Policy data is up to date. No need to update.");
 
-                // Update lastUpdated to current time format 2024-03-19T21:25:27.937Z API 24
-                @SuppressLint("SimpleDateFormat") SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-                sdf.setTimeZone(TimeZone.getTimeZone("UTC")); // Ensure the time is in UTC
-                policyData.lastUpdated = sdf.format(Calendar.getInstance().getTime());
+                // Update lastUpdated to current time format 2024-03-19T21:25:27.937Z
+                policyData.lastUpdated = EcsTimestamp.now();
                 db.policyDataDAO().refreshPolicyData(policyData.lastUpdated, policyData.actionId);
                 callbackActivity.onCallback(true);
 
@@ -234,15 +285,19 @@ public class FleetCheckinRepository {
                 AppLog.i(TAG, "Policy data is outdated. Updating...");
                 db.policyDataDAO().delete(); // Synchronously delete old policy data
                 db.policyDataDAO().insertPolicyData(policyData); // Synchronously insert new policy data
+                ComponentPlan plan = ComponentPlan.apply(policyData); // Compiled once, shared by all workers until the next policy change
                 AppLog.i(TAG, "Policy data updated successfully.");
 
                 // Perform permission check
-                performPermissionCheck(policyData, callbackActivity, context);
+                performPermissionCheck(plan, callbackActivity, context);
 
                 // Register background service
                 int intervalCheckin = policyData.checkinInterval;
                 WorkScheduler.scheduleFleetCheckinWorker(context, intervalCheckin, TimeUnit.SECONDS, policyData.disableIfBatteryLow);
                 WorkScheduler.scheduleElasticsearchWorker(context, 1, TimeUnit.SECONDS, false); // Run the first elastic worker immediately
+                if (CollectionScheduler.hasScheduledComponents(plan)) {
+                    WorkScheduler.scheduleComponentWorker(context, 1, TimeUnit.SECONDS);
+                }
                 callbackActivity.onCallback(true);
             }
 
@@ -267,6 +322,7 @@ public class FleetCheckinRepository {
         AppDatabase.databaseWriteExecutor.execute(() -> {
             db.enrollmentDataDAO().delete();
             db.policyDataDAO().delete();
+            ComponentPlan.apply(null);
             db.statisticsDataDAO().delete();
             AppLog.i(TAG, "Enrollment data deleted successfully. Unenrollment complete.");
             writeDialog("Enrollment data deleted successfully. Unenrollment complete. Please restart the app to re-enroll.", true);
@@ -281,39 +337,31 @@ public class FleetCheckinRepository {
      * If the app is in the foreground, a dialog is shown to request permissions. Otherwise, a
      * notification is displayed to prompt the user to grant the required permissions.
      *
-     * @param policyData The policy data received from the Fleet server.
+     * @param plan The compiled component plan of the policy received from the Fleet server.
      * @param callbackActivity Callback to handle UI updates based on the permission check result.
      * @param context Application context.
      */
-    private void performPermissionCheck(PolicyData policyData, StatusCallback callbackActivity, Context context) {
+    private void performPermissionCheck(ComponentPlan plan, StatusCallback callbackActivity, Context context) {
         List<String> permissions = new ArrayList<>();
         List<String> compPermissions;
 
         // Permission handling. Gather all required permissions from enabled components first
-        for (String componentPath : policyData.paths.split(",")) {
-            try{
-                // Remove everything behind the first "." to get the component name
-                String componentName = componentPath.split("\\.")[0];
-
-                // Create an instance of the component to get the required permissions
-                Component component = ComponentFactory.createInstance(componentName);
+        for (ComponentPlan.Entry entry : plan.getEntries()) {
+            try {
+                Component component = entry.getComponent();
                 compPermissions = component.getRequiredPermissions();
                 if (compPermissions == null) {
-                    AppLog.d(TAG, "Component " + componentName + " requires no permissions.");
+                    AppLog.d(TAG, "Component " + component.getPathName() + " requires no permissions.");
                     continue;
                 }
-                AppLog.d(TAG, "Component " + componentName + " requires permissions: " + compPermissions);
+                AppLog.d(TAG, "Component " + component.getPathName() + " requires permissions: " + compPermissions);
                 permissions.addAll(compPermissions);
 
-            } catch (Exception e){
-                if (e instanceof IllegalArgumentException && Objects.requireNonNull(e.getMessage()).contains("not found")) {
-                    AppLog.w(TAG, "Component path " + componentPath + " defined in policy but app does not support it");
-                } else {
-                    AppLog.e(TAG, "Error while processing required permissions: " + e.getMessage());
-                    writeDialog("Checkin failed. Error while processing required permissions: " + e.getMessage(), false);
-                    callbackActivity.onCallback(false);
-                    return;
-                }
+            } catch (Exception e) {
+                AppLog.e(TAG, "Error while processing required permissions: " + e.getMessage());
+                writeDialog("Checkin failed. Error while processing required permissions: " + e.getMessage(), false);
+                callbackActivity.onCallback(false);
+                return;
             }
         }
 
@@ -484,11 +532,20 @@ public class FleetCheckinRepository {
 
         policyData.checkinInterval = checkinIntervalSeconds;
         policyData.backoffCheckinInterval = checkinIntervalSeconds;
+        policyData.checkinPollTimeout = parsePollTimeout(stream.getCheckinPollTimeout());
 
         policyData.putInterval = putIntervalSeconds;
         policyData.backoffPutInterval = putIntervalSeconds;
+        policyData.wakeupAlignmentWindow = parseOptionalInterval(stream.getWakeupAlignmentWindow());
         policyData.maxDocumentsPerRequest = stream.getMaxDocumentsPerRequest();
+        policyData.maxBytesPerRequest = stream.getMaxBytesPerRequest() > 0 ? stream.getMaxBytesPerRequest() : DEFAULT_MAX_BYTES_PER_REQUEST;
         policyData.disableIfBatteryLow = stream.getDisableIfBatteryLow();
+        policyData.compressRequests = stream.getCompressRequests();
+
+        // Catch-up budget, the defaults apply if the policy doesn't set it
+        policyData.catchupMaxInFlight = stream.getCatchupMaxInFlight() > 0 ? stream.getCatchupMaxInFlight() : DEFAULT_CATCHUP_MAX_IN_FLIGHT;
+        policyData.catchupMaxDuration = stream.getCatchupMaxDuration() != null ? timeIntervalToSeconds(stream.getCatchupMaxDuration()) : DEFAULT_CATCHUP_MAX_DURATION_SECONDS;
+        policyData.catchupMaxBytes = stream.getCatchupMaxBytes() > 0 ? stream.getCatchupMaxBytes() : DEFAULT_CATCHUP_MAX_BYTES;
 
         if(stream.getPaths() == null || stream.getPaths().isEmpty()){
             AppLog.e(TAG_PARSE, "Path data is missing.");
@@ -530,10 +587,8 @@ public class FleetCheckinRepository {
         }
         policyData.actionId = action.getId();
 
-        // Update lastUpdated to current time format 2024-03-19T21:25:27.937Z API 24
-        @SuppressLint("SimpleDateFormat") SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-        sdf.setTimeZone(TimeZone.getTimeZone("UTC")); // Ensure the time is in UTC
-        policyData.lastUpdated = sdf.format(Calendar.getInstance().getTime());
+        // Update lastUpdated to current time format 2024-03-19T21:25:27.937Z
+        policyData.lastUpdated = EcsTimestamp.now();
 
         return policyData;
     }
@@ -575,6 +630,31 @@ public class FleetCheckinRepository {
         return seconds;
     }
 
+    /**
+     * Parses the long-poll timeout of the check-in. Long-polling is disabled if it is not set or set to zero,
+     * and the timeout is capped at {@link #MAX_POLL_TIMEOUT_SECONDS}.
+     *
+     * @param pollTimeout The timeout from the policy, e.g. "5m".
+     * @return The timeout in seconds or 0 if long-polling is disabled.
+     */
+    static int parsePollTimeout(String pollTimeout) {
+        return Math.min(parseOptionalInterval(pollTimeout), MAX_POLL_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Parses a time interval of the policy that is disabled if it is not set or set to zero,
+     * e.g. the {@link PolicyData#wakeupAlignmentWindow}.
+     *
+     * @param interval The interval from the policy, e.g. "30s".
+     * @return The interval in seconds or 0 if it is disabled.
+     */
+    static int parseOptionalInterval(String interval) {
+        if (interval == null || interval.replaceAll("[^1-9]", "").isEmpty()) {
+            return 0;
+        }
+        return timeIntervalToSeconds(interval);
+    }
+
     /**
      * Converts seconds to a human-readable time interval string (e.g., "5m", "1h").
      * Opposite of {@link #timeIntervalToSeconds(String)}.
@@ -29,6 +29,9 @@ public class FleetCheckinRequest {
     @SerializedName("upgrade_details")
     private String upgradeDetails;
 
+    @SerializedName("poll_timeout")
+    private String pollTimeout; // Omitted for a short check-in, as Gson skips null fields
+
     /**
      * Constructs a FleetCheckinRequest object with the specified status, acknowledgment token,
      * agent metadata, and message. This constructor is used to create a check-in request
@@ -46,4 +49,13 @@ public class FleetCheckinRequest {
         this.message = message;
     }
 
+    /**
+     * Turns the request into a long-poll check-in: the Fleet Server holds it open until an action is
+     * available or the timeout expires, and then answers with the actions (possibly none).
+     *
+     * @param pollTimeoutSeconds The time in seconds the Fleet Server may hold the request open.
+     */
+    public void setPollTimeout(int pollTimeoutSeconds) {
+        this.pollTimeout = pollTimeoutSeconds + "s";
+    }
 }
@@ -310,6 +310,9 @@ public class FleetCheckinResponse {
                 @SerializedName("max_documents_per_request")
                 private int maxDocumentsPerRequest;
 
+                @SerializedName("max_bytes_per_request")
+                private int maxBytesPerRequest;
+
 
                 @SerializedName("checkin_interval")
                 private String checkin_interval;
@@ -332,6 +335,24 @@ public class FleetCheckinResponse {
                @SerializedName("disable_on_low_battery")
                 private boolean disableIfBatteryLow;
 
+               @SerializedName("compress_requests")
+                private boolean compressRequests;
+
+               @SerializedName("catchup_max_in_flight")
+                private int catchupMaxInFlight;
+
+               @SerializedName("catchup_max_duration")
+                private String catchupMaxDuration;
+
+               @SerializedName("catchup_max_bytes")
+                private int catchupMaxBytes;
+
+               @SerializedName("checkin_poll_timeout")
+                private String checkinPollTimeout;
+
+               @SerializedName("wakeup_alignment_window")
+                private String wakeupAlignmentWindow;
+
                 protected DataStream getDataStream() {
                     return dataStream;
                 }
@@ -360,6 +381,10 @@ public class FleetCheckinResponse {
                     return maxDocumentsPerRequest;
                 }
 
+                protected int getMaxBytesPerRequest() {
+                    return maxBytesPerRequest;
+                }
+
                 public boolean getUseBackoff() { return useBackoff; }
 
                 public String getMaxBackoffInterval() { return maxBackoffInterval; }
@@ -367,6 +392,18 @@ public class FleetCheckinResponse {
                 public boolean getBackoffOnEmptyBuffer() { return backoffOnEmptyBuffer; }
 
                 public boolean getDisableIfBatteryLow() { return disableIfBatteryLow; }
+
+                public boolean getCompressRequests() { return compressRequests; }
+
+                public int getCatchupMaxInFlight() { return catchupMaxInFlight; }
+
+                public String getCatchupMaxDuration() { return catchupMaxDuration; }
+
+                public int getCatchupMaxBytes() { return catchupMaxBytes; }
+
+                public String getCheckinPollTimeout() { return checkinPollTimeout; }
+
+                public String getWakeupAlignmentWindow() { return wakeupAlignmentWindow; }
             }
 
 
@@ -1,24 +1,36 @@
 package de.swiftbird.elasticandroid;
 
 import android.content.Context;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
-import androidx.work.Worker;
+import androidx.concurrent.futures.CallbackToFutureAdapter;
+import androidx.work.ListenableWorker;
 import androidx.work.WorkerParameters;
+import com.google.common.util.concurrent.ListenableFuture;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A background worker that handles periodic check-in with the Fleet server.
  * It fetches the current enrollment and policy data, then uses the FleetCheckinRepository
  * to perform the check-in operation. Depending on the check-in result and policy settings,
  * it might adjust the check-in frequency or mark the agent as unhealthy.
+ *
+ * <p>The worker only completes once the check-in has been answered and handled, so WorkManager keeps its
+ * wakelock and network constraint until then. If the work is stopped, the check-in in flight is cancelled.</p>
+ *
+ * <p>If the policy sets a {@link PolicyData#checkinPollTimeout} and the device is awake or charging, the check-in
+ * is a long-poll: the Fleet Server holds it open until an action is available, so policy changes arrive right
+ * away instead of at the next check-in interval, and the next long-poll is started right after the previous one
+ * was answered. Otherwise, e.g. on an idle device on battery, the worker falls back to a short check-in every
+ * {@link PolicyData#checkinInterval}, as holding a request open would keep the device awake.</p>
  */
-public class FleetCheckinWorker extends Worker {
-    private static final ExecutorService executor = Executors.newFixedThreadPool(4);
+public class FleetCheckinWorker extends ListenableWorker {
+    private static final int LONG_POLL_RESTART_SECONDS = 1;
+    // A long-poll answered faster than this wasn't held by the Fleet Server, so don't restart it right away to avoid a tight loop
+    private static final long MIN_HELD_LONG_POLL_MILLIS = 5000;
 
+    private volatile FleetCheckinRepository repository;
     /**
      * Initializes a new instance of the FleetCheckinWorker.
      *
@@ -30,17 +42,51 @@ public class FleetCheckinWorker extends Worker {
     }
 
     /**
-     * Performs the check-in operation asynchronously.
+     * Starts the check-in operation on WorkManager's background executor.
      *
-     * @return The result of the work, indicating success or retry requirements.
+     * @return A future completed with the result of the work once the check-in has been handled.
      */
     @NonNull
     @Override
-    public Result doWork() {
+    public ListenableFuture<Result> startWork() {
+        return CallbackToFutureAdapter.getFuture(completer -> {
+            // WorkManager cancels the future if the work is stopped, e.g. because the network constraint is no longer met
+            completer.addCancellationListener(this::cancelCheckin, AppExecutors.callbacks());
+            getBackgroundExecutor().execute(() -> {
+                try {
+                    doWork(completer);
+                } catch (Exception e) {
+                    AppLog.e("FleetCheckinWorker", "Unhandled app error during check-in worker: " + e.getMessage());
+                    completer.set(Result.retry());
+                }
+            });
+            return "FleetCheckinWorker check-in";
+        });
+    }
+
+    @Override
+    public void onStopped() {
+        cancelCheckin();
+    }
+
+    private void cancelCheckin() {
+        FleetCheckinRepository checkinRepository = repository;
+        if (checkinRepository != null) {
+            checkinRepository.cancelCheckin();
+        }
+    }
+
+    /**
+     * Performs the check-in operation asynchronously.
+     *
+     * @param completer Completed with the result of the work once the check-in has been handled.
+     */
+    private void doWork(CallbackToFutureAdapter.Completer<Result> completer) {
         AppLog.i("FleetCheckinWorker", "Performing check-in from background worker");
 
         // Using FleetCheckinRepository for periodic check-in
         FleetCheckinRepository repository = new FleetCheckinRepository(null, null);
+        this.repository = repository;
 
         // Obtain an instance of the AppDatabase
         AppDatabase db = AppDatabase.getDatabase(this.getApplicationContext());
@@ -49,11 +95,18 @@ public class FleetCheckinWorker extends Worker {
         FleetEnrollData enrollmentData = db.enrollmentDataDAO().getEnrollmentInfoSync(1);
         AgentMetadata agentMetadata = AgentMetadata.getMetadataFromDeviceAndDB(enrollmentData.agentId, enrollmentData.hostname);
         PolicyData policyData = db.policyDataDAO().getPolicyDataSync();
-        AtomicBoolean finished = new AtomicBoolean(false);
+
+        // Let an upload that is due soon share this wake-up
+        WorkScheduler.alignWakeups(getApplicationContext(), WakeupAligner.Job.FLEET_CHECKIN, policyData);
+
+        // Only hold the check-in open if keeping the device awake costs little battery
+        int pollTimeoutSeconds = policyData.checkinPollTimeout > 0 && DeviceState.isAwakeOrCharging(getApplicationContext())
+                ? policyData.checkinPollTimeout : 0;
+        long startMillis = SystemClock.elapsedRealtime();
 
         StatusCallback callback = success -> {
-            // Create new thread to handle the callback
-            executor.execute(() -> {
+            // Handle the callback on the shared callback pool
+            AppExecutors.callbacks().execute(() -> {
                 try {
                     if (!success) {
 
@@ -84,22 +137,29 @@ public class FleetCheckinWorker extends Worker {
                     AppLog.e("FleetCheckinWorker", "Unhandled app error during check-in worker: " + e.getMessage());
                 }
 
+                if (isStopped()) {
+                    // Cancelled or replaced, e.g. by a policy change that already scheduled the next check-in
+                    return;
+                }
+
                 // Schedule the next check-in.
                 // Notice that we can't use a periodic worker, as the interval is dynamic and likely also under the minimum scheduling interval of 15 minutes.
-                AppLog.i("FleetCheckinWorker", "Scheduling next Fleet checkin in " + policyData.backoffCheckinInterval + " seconds");
-                WorkScheduler.scheduleFleetCheckinWorker(getApplicationContext(), policyData.backoffCheckinInterval, TimeUnit.SECONDS, policyData.disableIfBatteryLow);
-                finished.set(true);
+                int nextCheckinSeconds = policyData.backoffCheckinInterval;
+                if (success && pollTimeoutSeconds > 0 && SystemClock.elapsedRealtime() - startMillis >= MIN_HELD_LONG_POLL_MILLIS) {
+                    nextCheckinSeconds = LONG_POLL_RESTART_SECONDS; // Wait for the next action right away
+                }
+                AppLog.i("FleetCheckinWorker", "Scheduling next Fleet checkin in " + nextCheckinSeconds + " seconds");
+                WorkScheduler.scheduleNextFleetCheckinWorker(getApplicationContext(), nextCheckinSeconds, TimeUnit.SECONDS, policyData.disableIfBatteryLow);
+                completer.set(Result.success()); // A failure is handled by the backoff of the next check-in
             });
         };
 
         try {
-            repository.checkinAgent(getApplicationContext(), enrollmentData, agentMetadata, callback);
+            repository.checkinAgent(getApplicationContext(), enrollmentData, agentMetadata, pollTimeoutSeconds, callback);
         } catch (Exception e) {
             AppLog.e("FleetCheckinWorker", "Unhandled app error during check-in worker: " + e.getMessage());
             callback.onCallback(false);
         }
-
-        return Result.success();
     }
 
     /**
@@ -230,7 +230,8 @@ public class FleetEnrollActivity extends AppCompatActivity implements StatusCall
             AppDatabase db = AppDatabase.getDatabase(this.getApplicationContext());
             AppDatabase.databaseWriteExecutor.execute(() -> db.enrollmentDataDAO().delete());
             AppDatabase.databaseWriteExecutor.execute(() -> db.policyDataDAO().delete());
-            AppDatabase.databaseWriteExecutor.execute(() -> db.selfLogCompBuffer().deleteAllDocuments());
+            ComponentPlan.apply(null);
+            AppDatabase.databaseWriteExecutor.execute(() -> db.selfLogCompBuffer().deleteAllDocumentsAndCount(BufferCounter.SELF_LOG));
             AppDatabase.databaseWriteExecutor.execute(() -> db.statisticsDataDAO().delete());
 
             // Remove all registered workers
@@ -225,13 +225,13 @@ public class FleetEnrollRepository {
         enrollmentData.verifyCert = verifyCert;
         enrollmentData.fleetCertificate = request.getCertificate();
 
-        new Thread(() -> {
+        AppDatabase.databaseWriteExecutor.execute(() -> {
             AppDatabase db = AppDatabase.getDatabase(context);
             db.enrollmentDataDAO().insertEnrollmentInfo(enrollmentData);
             AppLog.i(TAG, "Saving Enrollment data to db successful.");
             // Saving initial statistics data
             db.statisticsDataDAO().insert(new AppStatisticsData());
-        }).start();
+        });
 
         return enrollmentData;
     }
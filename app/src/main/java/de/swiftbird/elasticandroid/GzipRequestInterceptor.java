@@ -0,0 +1,77 @@
+package de.swiftbird.elasticandroid;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * OkHttp interceptor that compresses request bodies with gzip and sets the {@code Content-Encoding} header.
+ *
+ * <p>The ECS documents sent to Elasticsearch repeat the same agent and host fields in every document,
+ * so bulk payloads compress very well. Compression is streamed: the body is gzipped while it is written
+ * to the connection, so a {@link BulkRequestBody} still never has to be held in memory as a whole.</p>
+ *
+ * <p>Requests without a body or with a body that already declares a content encoding are passed through unchanged.</p>
+ */
+public class GzipRequestInterceptor implements Interceptor {
+
+    @NonNull
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        Request originalRequest = chain.request();
+        if (originalRequest.body() == null || originalRequest.header("Content-Encoding") != null) {
+            return chain.proceed(originalRequest);
+        }
+
+        Request compressedRequest = originalRequest.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(originalRequest.method(), gzip(originalRequest.body()))
+                .build();
+        return chain.proceed(compressedRequest);
+    }
+
+    /**
+     * Wraps a request body so it is gzipped while being written.
+     *
+     * @param body The uncompressed request body.
+     * @return A request body with the same content type, writing the compressed content.
+     */
+    static RequestBody gzip(RequestBody body) {
+        return new RequestBody() {
+            @Nullable
+            @Override
+            public MediaType contentType() {
+                return body.contentType();
+            }
+
+            @Override
+            public long contentLength() {
+                return -1; // We don't know the compressed length in advance
+            }
+
+            @Override
+            public void writeTo(@NonNull BufferedSink sink) throws IOException {
+                // Closing the gzip sink writes the trailer, but the connection's sink is owned (and closed) by OkHttp
+                Sink unclosable = new ForwardingSink(sink) {
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                };
+                BufferedSink gzipSink = Okio.buffer(new GzipSink(unclosable));
+                body.writeTo(gzipSink);
+                gzipSink.close();
+            }
+        };
+    }
+}
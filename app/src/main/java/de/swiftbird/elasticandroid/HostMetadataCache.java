@@ -0,0 +1,126 @@
+package de.swiftbird.elasticandroid;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import androidx.annotation.NonNull;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache for the host metadata that is expensive to collect, i.e. the IP addresses of the device.
+ *
+ * <p>{@link AgentMetadata#getDeviceIPs()} enumerates all network interfaces and their addresses. Documents and
+ * check-ins read the cached snapshot instead, which is only collected again after {@link ConnectivityManager}
+ * reported a change of the default network (connected, lost or new link properties).</p>
+ *
+ * <p>Until {@link #init(Context)} registered the network callback, nothing is cached, as there would be no way
+ * to notice that the addresses became stale.</p>
+ *
+ * <p>Every invalidation increments a generation. A collected snapshot is only published if no invalidation
+ * happened while it was collected, otherwise it may hold the addresses from before the network change.</p>
+ */
+public class HostMetadataCache {
+    private static final String TAG = "HostMetadataCache";
+
+    private static volatile List<String> deviceIPs = null; // null if the snapshot has to be collected again
+    private static final AtomicLong generation = new AtomicLong(); // Incremented by every invalidation
+    private static volatile boolean registered = false;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Registers the network callback that invalidates the cache. Called once when the application starts.
+     *
+     * @param context The application context.
+     */
+    public static synchronized void init(Context context) {
+        if (registered) {
+            return;
+        }
+
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            AppLog.w(TAG, "ConnectivityManager not available, host metadata will not be cached");
+            return;
+        }
+
+        try {
+            connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(@NonNull Network network) {
+                    invalidate();
+                }
+
+                @Override
+                public void onLost(@NonNull Network network) {
+                    invalidate();
+                }
+
+                @Override
+                public void onLinkPropertiesChanged(@NonNull Network network, @NonNull LinkProperties linkProperties) {
+                    invalidate();
+                }
+            });
+            registered = true;
+        } catch (Exception e) {
+            AppLog.w(TAG, "Could not register network callback, host metadata will not be cached: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the non-loopback IPv4 addresses of the device, collecting them only if the network changed since the last call.
+     *
+     * @return An unmodifiable list of the device's IP addresses.
+     */
+    public static List<String> getDeviceIPs() {
+        List<String> snapshot = deviceIPs;
+        if (snapshot != null) {
+            hits.incrementAndGet();
+            return snapshot;
+        }
+
+        misses.incrementAndGet();
+        long collectedGeneration = generation.get();
+        snapshot = Collections.unmodifiableList(AgentMetadata.getDeviceIPs());
+        synchronized (generation) {
+            // Don't cache addresses collected while the network changed, they may be stale
+            if (registered && generation.get() == collectedGeneration) {
+                deviceIPs = snapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Drops the cached snapshot, so it is collected again on the next access.
+     */
+    public static void invalidate() {
+        synchronized (generation) {
+            generation.incrementAndGet();
+            deviceIPs = null;
+        }
+    }
+
+    /**
+     * Returns the share of lookups that were answered from the cache.
+     *
+     * @return The hit rate between 0 and 1, or 0 if there were no lookups yet.
+     */
+    public static double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    /**
+     * Returns a short summary of the cache statistics for logging.
+     *
+     * @return The hits, misses and hit rate of the cache.
+     */
+    public static String getStatistics() {
+        return String.format(Locale.US, "Host metadata cache: %d hits, %d misses (hit rate %.1f%%)", hits.get(), misses.get(), getHitRate() * 100);
+    }
+}
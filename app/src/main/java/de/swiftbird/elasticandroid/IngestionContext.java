@@ -0,0 +1,70 @@
+package de.swiftbird.elasticandroid;
+
+/**
+ * Snapshot of everything a document needs besides its own event data: the enrollment data, the current policy
+ * and the agent/host metadata. It is built once per batch of events and then shared by all documents created
+ * from that batch, so the database lookups and the enumeration of network interfaces done by
+ * {@link AgentMetadata#getMetadataFromDeviceAndDB(String, String)} don't have to be repeated for every event.
+ *
+ * <p>The snapshot is immutable; build a new one for the next batch to pick up policy or network changes.</p>
+ */
+public class IngestionContext {
+
+    private final FleetEnrollData enrollmentData;
+    private final PolicyData policyData;
+    private final AgentMetadata metadata;
+
+    /**
+     * Creates a new ingestion context from already known values.
+     *
+     * @param enrollmentData Data related to the agent's enrollment.
+     * @param policyData Policy configurations applied to the agent.
+     * @param metadata The agent and host metadata.
+     */
+    public IngestionContext(FleetEnrollData enrollmentData, PolicyData policyData, AgentMetadata metadata) {
+        this.enrollmentData = enrollmentData;
+        this.policyData = policyData;
+        this.metadata = metadata;
+    }
+
+    /**
+     * Creates a new ingestion context for the given enrollment and policy data, collecting the current host metadata.
+     *
+     * @param enrollmentData Data related to the agent's enrollment.
+     * @param policyData Policy configurations applied to the agent.
+     * @return The ingestion context.
+     */
+    public static IngestionContext of(FleetEnrollData enrollmentData, PolicyData policyData) {
+        AgentMetadata metadata = AgentMetadata.getMetadataFromDeviceAndDB(enrollmentData.agentId, enrollmentData.hostname);
+        return new IngestionContext(enrollmentData, policyData, metadata);
+    }
+
+    /**
+     * Creates a new ingestion context from the enrollment and policy data currently stored in the database.
+     * Must not be called on the main thread.
+     *
+     * @param db The database to read the enrollment and policy data from.
+     * @return The ingestion context.
+     * @throws IllegalStateException If the agent is not enrolled or has no policy yet.
+     */
+    public static IngestionContext fromDatabase(AppDatabase db) {
+        FleetEnrollData enrollmentData = db.enrollmentDataDAO().getEnrollmentInfoSync(1);
+        PolicyData policyData = db.policyDataDAO().getPolicyDataSync();
+        if (enrollmentData == null || policyData == null) {
+            throw new IllegalStateException("Agent is not enrolled or has no policy yet");
+        }
+        return of(enrollmentData, policyData);
+    }
+
+    public FleetEnrollData getEnrollmentData() {
+        return enrollmentData;
+    }
+
+    public PolicyData getPolicyData() {
+        return policyData;
+    }
+
+    public AgentMetadata getMetadata() {
+        return metadata;
+    }
+}
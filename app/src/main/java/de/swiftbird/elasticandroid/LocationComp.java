@@ -11,6 +11,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -26,7 +27,6 @@ public class LocationComp implements Component {
 
     private static final String TAG = "LocationComp";
     private LocationCompBuffer buffer;
-    private AppStatisticsDataDAO statistic;
     private static LocationComp locationComp;
     private LocationManager locationManager;
     private LocationListener locationListener;
@@ -65,7 +65,6 @@ public class LocationComp implements Component {
         AppLog.d(TAG, "Setting up location component");
         AppDatabase db = AppDatabase.getDatabase(context);
         this.buffer = db.locationCompBuffer();
-        this.statistic = db.statisticsDataDAO();
 
         locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
         locationHandlerThread = new HandlerThread("LocationHandlerThread");
@@ -164,7 +163,6 @@ public class LocationComp implements Component {
     public void setup_light(Context context) {
         AppDatabase db = AppDatabase.getDatabase(context);
         this.buffer = db.locationCompBuffer();
-        this.statistic = db.statisticsDataDAO();
     }
 
     /**
@@ -183,30 +181,76 @@ public class LocationComp implements Component {
     @Override
     public void addDocumentToBuffer(ElasticDocument document) {
         if (document instanceof LocationCompDocument && buffer != null) {
-            buffer.insertDocument((LocationCompDocument) document);
-            statistic.increaseCombinedBufferSize(1);
+            buffer.insertDocumentAndCount((LocationCompDocument) document, BufferCounter.LOCATION);
         } else {
             Log.w(TAG, "Invalid document type or buffer not initialized");
         }
     }
 
+    @Override
+    public void addDocumentsToBuffer(List<? extends ElasticDocument> documents) {
+        if (buffer == null) {
+            Log.w(TAG, "Buffer not initialized");
+            return;
+        }
+
+        List<LocationCompDocument> batch = new ArrayList<>(documents.size());
+        for (ElasticDocument document : documents) {
+            if (document instanceof LocationCompDocument) {
+                batch.add((LocationCompDocument) document);
+            } else {
+                Log.w(TAG, "Invalid document type");
+            }
+        }
+        if (!batch.isEmpty()) {
+            buffer.insertDocumentsAndCount(batch, BufferCounter.LOCATION);
+        }
+    }
+
 
     @Override
-    public <T extends ElasticDocument> List<T> getDocumentsFromBuffer(int maxDocuments) {
-        int toIndex = Math.min(maxDocuments, buffer.getDocumentCount());
-        List<LocationCompDocument> logBuffer = buffer.getOldestDocuments(toIndex);
-        buffer.deleteOldestDocuments(toIndex);
+    public <T extends ElasticDocument> List<T> claimDocumentsFromBuffer(String batchId, int afterId, int maxDocuments) {
+        if (buffer == null) {
+            return null;
+        }
+        List<LocationCompDocument> logBuffer = buffer.claimOldestDocuments(batchId, System.currentTimeMillis(), afterId, maxDocuments);
 
         @SuppressWarnings("unchecked") // Safe cast
         List<T> result = (List<T>) logBuffer;
         return result;
     }
 
+    @Override
+    public int acknowledgeDocuments(String batchId) {
+        return buffer != null ? buffer.deleteClaimedDocumentsAndCount(batchId, BufferCounter.LOCATION) : 0;
+    }
+
+    @Override
+    public int releaseDocuments(String batchId) {
+        return buffer != null ? buffer.releaseClaimedDocuments(batchId) : 0;
+    }
+
+    @Override
+    public int releaseDocuments(String batchId, List<Integer> documentIds) {
+        return buffer != null ? buffer.releaseClaimedDocuments(batchId, documentIds) : 0;
+    }
+
+    @Override
+    public int releaseStaleClaims(long claimedBefore) {
+        return buffer != null ? buffer.releaseStaleClaims(claimedBefore) : 0;
+    }
+
     @Override
     public int getDocumentsInBufferCount() {
         return buffer.getDocumentCount();
     }
 
+    @Override
+    public long getOldestDocumentInBufferMillis() {
+        Long oldest = buffer != null ? buffer.getOldestTimestampMillis() : null;
+        return oldest != null ? oldest : 0;
+    }
+
     @Override
     public List<String> getRequiredPermissions() {
         // Precise and/or coarse location as well as background location are required
@@ -222,11 +266,25 @@ public class LocationComp implements Component {
         return "location";
     }
 
+    /**
+     * Stops the location updates and the foreground service requesting them. The component may never have been
+     * set up in this process, e.g. if the policy removed it while the app was not running.
+     *
+     * @param context The application context.
+     * @param enrollmentData Data related to the enrollment of the device.
+     * @param policyData The current policy data.
+     */
     @Override
     public void disable(Context context, FleetEnrollData enrollmentData, PolicyData policyData) {
         AppLog.d(TAG, "Disabling location updates");
-        locationManager.removeUpdates(locationListener);
-        locationHandlerThread.quitSafely();
+        context.stopService(new Intent(context, LocationForegroundService.class));
+        if (locationManager != null && locationListener != null) {
+            locationManager.removeUpdates(locationListener);
+        }
+        if (locationHandlerThread != null) {
+            locationHandlerThread.quitSafely();
+            locationHandlerThread = null;
+        }
     }
 
 }
@@ -3,6 +3,7 @@ package de.swiftbird.elasticandroid;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.Transaction;
 
 import java.util.List;
 
@@ -22,11 +23,43 @@ public interface LocationCompBuffer {
     void insertDocument(LocationCompDocument document);
 
     /**
-     * Retrieves all location documents from the database, ordered by their timestamp in ascending order.
+     * Inserts a batch of location documents into the database.
+     *
+     * @param documents The location documents to insert.
+     */
+    @Insert
+    void insertDocuments(List<LocationCompDocument> documents);
+
+    /**
+     * Inserts a single location document and counts it in the same transaction.
+     *
+     * @param document The location document to insert.
+     * @param counter The in-memory counter of the location buffer.
+     */
+    @Transaction
+    default void insertDocumentAndCount(LocationCompDocument document, BufferCounter counter) {
+        insertDocument(document);
+        counter.add(1);
+    }
+
+    /**
+     * Inserts a batch of location documents and counts them in the same transaction.
+     *
+     * @param documents The location documents to insert.
+     * @param counter The in-memory counter of the location buffer.
+     */
+    @Transaction
+    default void insertDocumentsAndCount(List<LocationCompDocument> documents, BufferCounter counter) {
+        insertDocuments(documents);
+        counter.add(documents.size());
+    }
+
+    /**
+     * Retrieves all location documents from the database in the order they were inserted.
      *
      * @return A list of all location documents.
      */
-    @Query("SELECT * FROM LocationCompDocument ORDER BY timestamp ASC")
+    @Query("SELECT * FROM LocationCompDocument ORDER BY id ASC")
     List<LocationCompDocument> getAllDocuments();
 
     /**
@@ -36,13 +69,43 @@ public interface LocationCompBuffer {
     void deleteAllDocuments();
 
     /**
-     * Retrieves the oldest location documents up to a specified limit.
+     * Marks the oldest unclaimed location documents as in-flight for the given batch.
+     * The auto-generated id is the insertion sequence, so the claim is a keyset walk over the {@code batch_id}
+     * index starting after {@code afterId}, and its cost doesn't grow with the size of the table.
+     *
+     * @param batchId The batch claiming the documents.
+     * @param claimedAt The time of the claim in epoch milliseconds.
+     * @param afterId Only documents with a higher id are claimed; 0 to start at the oldest document.
+     * @param maxDocuments The maximum number of documents to claim.
+     * @return The number of claimed documents.
+     */
+    @Query("UPDATE LocationCompDocument SET batch_id = :batchId, claimed_at = :claimedAt WHERE id IN (SELECT id FROM LocationCompDocument WHERE batch_id IS NULL AND id > :afterId ORDER BY id ASC LIMIT :maxDocuments)")
+    int markOldestDocumentsClaimed(String batchId, long claimedAt, int afterId, int maxDocuments);
+
+    /**
+     * Retrieves all location documents claimed by the given batch.
      *
-     * @param maxDocuments The maximum number of documents to retrieve.
-     * @return A list of the oldest location documents, limited by maxDocuments.
+     * @param batchId The batch holding the documents.
+     * @return A list of the claimed location documents.
      */
-    @Query("SELECT * FROM LocationCompDocument ORDER BY timestamp ASC LIMIT :maxDocuments")
-    List<LocationCompDocument> getOldestDocuments(int maxDocuments);
+    @Query("SELECT * FROM LocationCompDocument WHERE batch_id = :batchId ORDER BY id ASC")
+    List<LocationCompDocument> getClaimedDocuments(String batchId);
+
+    /**
+     * Claims and retrieves the oldest unclaimed location documents in a single transaction.
+     * The documents stay in the database until the batch is acknowledged or released.
+     *
+     * @param batchId The batch claiming the documents.
+     * @param claimedAt The time of the claim in epoch milliseconds.
+     * @param afterId Only documents with a higher id are claimed; 0 to start at the oldest document.
+     * @param maxDocuments The maximum number of documents to claim.
+     * @return A list of the claimed location documents.
+     */
+    @Transaction
+    default List<LocationCompDocument> claimOldestDocuments(String batchId, long claimedAt, int afterId, int maxDocuments) {
+        markOldestDocumentsClaimed(batchId, claimedAt, afterId, maxDocuments);
+        return getClaimedDocuments(batchId);
+    }
 
     /**
      * Counts the total number of location documents in the database.
@@ -53,12 +116,76 @@ public interface LocationCompBuffer {
     int getDocumentCount();
 
     /**
-     * Deletes the oldest location documents from the database, up to a specified number.
+     * Gets the time of the oldest unclaimed location document. It is found by the id sequence, so the
+     * timestamps need no index.
      *
-     * @param maxDocuments The maximum number of oldest documents to delete.
+     * @return The timestamp in epoch milliseconds, or null if no document is waiting to be sent.
      */
-    @Query("DELETE FROM LocationCompDocument WHERE id IN (SELECT id FROM LocationCompDocument ORDER BY timestamp ASC LIMIT :maxDocuments)")
-    void deleteOldestDocuments(int maxDocuments);
+    @Query("SELECT timestamp_millis FROM LocationCompDocument WHERE batch_id IS NULL ORDER BY id ASC LIMIT 1")
+    Long getOldestTimestampMillis();
+
+    /**
+     * Sets the in-memory counter to the actual number of location documents. Running in a transaction,
+     * no insert or delete can happen between counting and seeding.
+     *
+     * @param counter The in-memory counter of the location buffer.
+     */
+    @Transaction
+    default void seedCounter(BufferCounter counter) {
+        counter.seed(getDocumentCount());
+    }
+
+    /**
+     * Deletes the location documents of a batch, after Elasticsearch accepted them.
+     *
+     * @param batchId The batch holding the documents.
+     * @return The number of deleted documents.
+     */
+    @Query("DELETE FROM LocationCompDocument WHERE batch_id = :batchId")
+    int deleteClaimedDocuments(String batchId);
+
+    /**
+     * Deletes the location documents of a batch and uncounts them in the same transaction.
+     *
+     * @param batchId The batch holding the documents.
+     * @param counter The in-memory counter of the location buffer.
+     * @return The number of deleted documents.
+     */
+    @Transaction
+    default int deleteClaimedDocumentsAndCount(String batchId, BufferCounter counter) {
+        int deleted = deleteClaimedDocuments(batchId);
+        counter.add(-deleted);
+        return deleted;
+    }
+
+    /**
+     * Releases the location documents of a batch back to the buffer, so they will be sent again.
+     *
+     * @param batchId The batch holding the documents.
+     * @return The number of released documents.
+     */
+    @Query("UPDATE LocationCompDocument SET batch_id = NULL, claimed_at = 0 WHERE batch_id = :batchId")
+    int releaseClaimedDocuments(String batchId);
+
+    /**
+     * Releases single location documents of a batch back to the buffer, e.g. after Elasticsearch rejected them temporarily.
+     *
+     * @param batchId The batch holding the documents.
+     * @param ids The ids of the documents to release.
+     * @return The number of released documents.
+     */
+    @Query("UPDATE LocationCompDocument SET batch_id = NULL, claimed_at = 0 WHERE batch_id = :batchId AND id IN (:ids)")
+    int releaseClaimedDocuments(String batchId, List<Integer> ids);
+
+    /**
+     * Releases claims of batches that never finished, e.g. because the app was killed during the request.
+     *
+     * @param claimedBefore Claims older than this time (epoch milliseconds) are released.
+     * @return The number of released documents.
+     */
+    @Query("UPDATE LocationCompDocument SET batch_id = NULL, claimed_at = 0 WHERE batch_id IS NOT NULL AND claimed_at < :claimedBefore")
+    int releaseStaleClaims(long claimedBefore);
+
 
 
 }
@@ -5,6 +5,7 @@ import android.location.Geocoder;
 import android.location.Location;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 import com.google.gson.annotations.SerializedName;
 import java.io.IOException;
@@ -25,7 +26,7 @@ import java.util.Locale;
 *  and longitude.
 *  </p>
  */
-@Entity
+@Entity(indices = {@Index("batch_id")})
 public class LocationCompDocument extends ElasticDocument {
     // Event action and category for location updates
     private static final String EVENT_ACTION = "location-update";
@@ -186,4 +187,8 @@ public class LocationCompDocument extends ElasticDocument {
 
     }
 
+    @Override
+    public int getBufferId() {
+        return id;
+    }
 }
@@ -27,6 +27,7 @@ public class LocationForegroundService extends Service {
     private static final float MIN_DISTANCE_METERS = 10; // 10 meters
 
     private LocationManager locationManager;
+    private LocationReceiver locationReceiver; // The listener registered by the last start, removed before registering a new one
 
     @Override
     public void onCreate() {
@@ -68,7 +69,9 @@ public class LocationForegroundService extends Service {
 
         AppLog.d("LocationForegroundService", "Requesting location updates with minTimeMs=" + minTimeMs + ", minDistanceMeters=" + minDistanceMeters + ", provider=" + provider);
         try {
-            locationManager.requestLocationUpdates(provider, minTimeMs, minDistanceMeters, new LocationReceiver(this.getApplicationContext()));
+            removeLocationUpdates(); // Started again, e.g. with new parameters: don't register a second listener
+            locationReceiver = new LocationReceiver(this.getApplicationContext());
+            locationManager.requestLocationUpdates(provider, minTimeMs, minDistanceMeters, locationReceiver);
         } catch (SecurityException e) {
             AppLog.w("LocationForegroundService", "Failed to request location updates: " + e.getMessage());
         }
@@ -76,6 +79,19 @@ public class LocationForegroundService extends Service {
         return START_STICKY;
     }
 
+    @Override
+    public void onDestroy() {
+        removeLocationUpdates();
+        super.onDestroy();
+    }
+
+    private void removeLocationUpdates() {
+        if (locationReceiver != null) {
+            locationManager.removeUpdates(locationReceiver);
+            locationReceiver = null;
+        }
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return null; // Not used for this service
@@ -0,0 +1,129 @@
+package de.swiftbird.elasticandroid;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+import androidx.work.Data;
+import androidx.work.ForegroundInfo;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+/**
+ * Retrieves a batch of security or network logs announced by {@link AppDeviceAdminReceiver}, converts the events
+ * and stores them in the buffer of their component with a single bulk insert.
+ *
+ * <p>The receiver runs on the main thread and its process may be killed as soon as {@code onReceive} returns, so it
+ * only records the batch and enqueues this worker as expedited work. WorkManager runs it right away, also while the
+ * app is in the background, and falls back to regular work if the expedited quota is used up. Network log batches
+ * expire once the next batch is available, so they must not wait for the next upload.</p>
+ *
+ * <p>The ingest latency of every batch, from the broadcast until the events are stored, is logged and kept in the
+ * {@link AppStatisticsData}.</p>
+ */
+public class LogIngestionWorker extends Worker {
+    private static final String TAG = "LogIngestionWorker";
+    static final String TYPE_SECURITY = "security";
+    static final String TYPE_NETWORK = "network";
+    static final String KEY_TYPE = "type";
+    static final String KEY_BATCH_TOKEN = "batch_token";
+    static final String KEY_COUNT = "count";
+    static final String KEY_RECEIVED_AT = "received_at";
+
+    private static final String CHANNEL_ID = "log_ingestion";
+    private static final int NOTIFICATION_ID = 2; // 1 is used by the LocationForegroundService
+
+    /**
+     * Constructor initializing the worker with application context and worker parameters.
+     *
+     * @param context The application context.
+     * @param workerParams Parameters for configuring the worker, including the batch to ingest.
+     */
+    public LogIngestionWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Builds the input data of the worker for a batch announced by the {@link AppDeviceAdminReceiver}.
+     *
+     * @param type {@link #TYPE_SECURITY} or {@link #TYPE_NETWORK}.
+     * @param batchToken The token of the network log batch, 0 for security logs.
+     * @param count The number of events announced, -1 if unknown.
+     * @return The input data, including the time the batch was received.
+     */
+    static Data buildInputData(String type, long batchToken, int count) {
+        return new Data.Builder()
+                .putString(KEY_TYPE, type)
+                .putLong(KEY_BATCH_TOKEN, batchToken)
+                .putInt(KEY_COUNT, count)
+                .putLong(KEY_RECEIVED_AT, System.currentTimeMillis())
+                .build();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        Data input = getInputData();
+        String type = input.getString(KEY_TYPE);
+        long batchToken = input.getLong(KEY_BATCH_TOKEN, 0);
+        long receivedAt = input.getLong(KEY_RECEIVED_AT, System.currentTimeMillis());
+
+        long start = SystemClock.elapsedRealtime();
+        int stored;
+        try {
+            if (TYPE_SECURITY.equals(type)) {
+                stored = SecurityLogsComp.getInstance().handleSecurityLogs(context);
+            } else if (TYPE_NETWORK.equals(type)) {
+                stored = NetworkLogsComp.getInstance().handleNetworkLogs(context, batchToken);
+            } else {
+                AppLog.e(TAG, "Unknown log type: " + type);
+                return Result.failure();
+            }
+        } catch (Exception e) {
+            AppLog.e(TAG, "Error handling " + type + " logs: " + e.getMessage());
+            return Result.failure();
+        }
+        long processingMillis = SystemClock.elapsedRealtime() - start;
+        long latencyMillis = Math.max(0, System.currentTimeMillis() - receivedAt);
+
+        AppLog.i(TAG, "Ingested " + stored + " of " + input.getInt(KEY_COUNT, -1) + " " + type + " log events"
+                + (batchToken != 0 ? " from batch " + batchToken : "") + " in " + processingMillis
+                + " ms, " + latencyMillis + " ms after the broadcast");
+        AppDatabase.getDatabase(context).statisticsDataDAO().setIngestLatencyMillis((int) Math.min(latencyMillis, Integer.MAX_VALUE));
+        return Result.success();
+    }
+
+    /**
+     * Needed to run as expedited work before Android 12, where WorkManager runs it in a foreground service.
+     *
+     * @return A silent notification shown while the batch is ingested.
+     */
+    @NonNull
+    @Override
+    public ForegroundInfo getForegroundInfo() {
+        return new ForegroundInfo(NOTIFICATION_ID, buildNotification(getApplicationContext()));
+    }
+
+    private static Notification buildNotification(Context context) {
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Log Ingestion", NotificationManager.IMPORTANCE_LOW);
+            channel.setDescription("No sound");
+            channel.setSound(null, null); // No sound for this channel
+            NotificationManager manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            if (manager != null) {
+                manager.createNotificationChannel(channel);
+            }
+        }
+
+        return new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setContentTitle("Elastic Agent Android")
+                .setContentText("Storing device logs")
+                .setSmallIcon(R.drawable.icon)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+    }
+}
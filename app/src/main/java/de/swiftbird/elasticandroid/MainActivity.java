@@ -189,6 +189,9 @@ public class MainActivity extends AppCompatActivity implements StatusCallback {
             WorkScheduler.scheduleFleetCheckinWorker(getApplicationContext(), intervalCheckin, TimeUnit.SECONDS, policyData.disableIfBatteryLow);
             int intervalPut = policyData.putInterval;
             WorkScheduler.scheduleElasticsearchWorker(getApplicationContext(), intervalPut, TimeUnit.SECONDS, policyData.disableIfBatteryLow);
+            if (CollectionScheduler.hasScheduledComponents(ComponentPlan.get(policyData))) {
+                WorkScheduler.scheduleComponentWorker(getApplicationContext(), 1, TimeUnit.SECONDS);
+            }
         });
     }
 
@@ -322,7 +325,8 @@ public class MainActivity extends AppCompatActivity implements StatusCallback {
         AppDatabase db = AppDatabase.getDatabase(this.getApplicationContext());
         AppDatabase.databaseWriteExecutor.execute(() -> db.enrollmentDataDAO().delete());
         AppDatabase.databaseWriteExecutor.execute(() -> db.policyDataDAO().delete());
-        AppDatabase.databaseWriteExecutor.execute(() -> db.selfLogCompBuffer().deleteAllDocuments());
+        ComponentPlan.apply(null);
+        AppDatabase.databaseWriteExecutor.execute(() -> db.selfLogCompBuffer().deleteAllDocumentsAndCount(BufferCounter.SELF_LOG));
         AppDatabase.databaseWriteExecutor.execute(() -> db.statisticsDataDAO().delete());
 
         // Refresh the UI
@@ -4,11 +4,20 @@ import android.annotation.SuppressLint;
 import androidx.annotation.Nullable;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateFactory;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
@@ -21,15 +30,94 @@ import retrofit2.converter.gson.GsonConverterFactory;
 /**
  * Provides utility methods for creating instances of {@link OkHttpClient} with specific
  * configurations, including optional SSL certificate pinning and custom headers.
+ *
+ * <p>All clients are derived from one shared base client, so they share its connection pool and dispatcher.
+ * One Retrofit instance is cached per endpoint (Elasticsearch, Fleet and Fleet long-poll) together with its
+ * configuration (URL, CA check, certificate fingerprint and timeout), and is only rebuilt if that configuration
+ * changes. This allows TLS sessions and connections to be reused across worker runs instead of doing a full
+ * handshake for every request. A rebuilt client replaces the stale one, whose idle connections and pinned
+ * certificate are released, so enrollments and policy changes don't pile up clients.</p>
  */
 public class NetworkBuilder {
-    private static Retrofit retrofit_es = null;
-    private static Retrofit retrofit_fleet = null;
+    private static final String TAG = "NetworkBuilder";
+    static final int LONG_POLL_CONNECT_TIMEOUT_SECONDS = 10;
+    static final int LONG_POLL_GRACE_SECONDS = 30; // Time the Fleet Server may take to answer after the poll timeout expired
+
+    // The Retrofit instance of every endpoint, together with the configuration it was built for
+    private static final Map<Endpoint, CachedClient> retrofitClients = new ConcurrentHashMap<>();
+
+    // SSL configurations by SHA-256 fingerprint of the pinned certificate, so the KeyStore and SSLContext are only built once per certificate
+    private static final Map<String, SslConfig> sslConfigs = new ConcurrentHashMap<>();
+
+    private static volatile OkHttpClient baseClient = null;
+    private static volatile SslConfig trustAllSslConfig = null;
+
+    private enum Endpoint {
+        ELASTICSEARCH,
+        FLEET,
+        FLEET_LONG_POLL
+    }
+
+    /**
+     * A cached Retrofit instance and the key of the endpoint configuration it was built for, see getClientKey().
+     */
+    private static class CachedClient {
+        final String key;
+        final String fingerprint;
+        final Retrofit retrofit;
+
+        CachedClient(String key, String fingerprint, Retrofit retrofit) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.retrofit = retrofit;
+        }
+    }
+
+    /**
+     * SSL socket factory together with the trust manager it was created from.
+     * The same factory instance has to be reused, as OkHttp only shares pooled connections between clients with equal factories.
+     */
+    private static class SslConfig {
+        final SSLSocketFactory sslSocketFactory;
+        final X509TrustManager trustManager;
+
+        SslConfig(SSLContext sslContext, X509TrustManager trustManager) {
+            this.sslSocketFactory = sslContext.getSocketFactory();
+            this.trustManager = trustManager;
+        }
+    }
+
+    /**
+     * Returns the shared base client. Every client handed out by this class is derived from it with
+     * {@link OkHttpClient#newBuilder()}, which keeps the connection pool and dispatcher shared.
+     *
+     * @return The shared base {@link OkHttpClient}.
+     */
+    private static OkHttpClient getBaseClient() {
+        if (baseClient == null) {
+            synchronized (NetworkBuilder.class) {
+                if (baseClient == null) {
+                    Interceptor authInterceptor = chain -> {
+                        Request originalRequest = chain.request();
+                        Request newRequest = originalRequest.newBuilder()
+                                .header("User-Agent", "elastic agent " + BuildConfig.AGENT_VERSION)
+                                .build();
+                        return chain.proceed(newRequest);
+                    };
+                    baseClient = new OkHttpClient.Builder()
+                            .addInterceptor(authInterceptor)
+                            .build();
+                }
+            }
+        }
+        return baseClient;
+    }
 
     /**
      * Creates and configures an {@link OkHttpClient} instance with optional SSL certificate pinning and
      * a custom User-Agent header. This method allows for configuring the client to either trust all certificates,
      * trust certificates specified via a full certificate string or use the default system trust manager.
+     * The returned client shares its connection pool and dispatcher with all other clients of this class.
      *
      * @param checkCA        Indicates whether the CA (Certificate Authority) should be checked. If {@code true},
      *                       the method uses the provided {@code sslCertFull} string to pin the certificate
@@ -43,51 +131,90 @@ public class NetworkBuilder {
      *                          this exception is thrown, encapsulating the original exception.
      */
     public static OkHttpClient getOkHttpClient(boolean checkCA, @Nullable String sslCertFull, int timeoutSeconds) {
-        AppLog.d("NetworkBuilder", "Creating OkHttpClient with checkCA: " + checkCA + " and sslCertFull: " + sslCertFull);
+        return getOkHttpClient(checkCA, sslCertFull, timeoutSeconds, false);
+    }
 
-        Interceptor authInterceptor = chain -> {
-            Request originalRequest = chain.request();
-            Request newRequest = originalRequest.newBuilder()
-                    .header("User-Agent", "elastic agent " + BuildConfig.AGENT_VERSION)
-                    .build();
-            return chain.proceed(newRequest);
-        };
+    /**
+     * Creates and configures an {@link OkHttpClient} instance like {@link #getOkHttpClient(boolean, String, int)},
+     * optionally compressing all request bodies with gzip (see {@link GzipRequestInterceptor}).
+     *
+     * @param checkCA          Indicates whether the CA (Certificate Authority) should be checked.
+     * @param sslCertFull      The full SSL certificate string for pinning.
+     * @param timeoutSeconds   The timeout in seconds for both read and connect operations.
+     * @param compressRequests If {@code true}, request bodies are sent with {@code Content-Encoding: gzip}.
+     * @return An {@link OkHttpClient} instance configured according to the specified parameters.
+     */
+    public static OkHttpClient getOkHttpClient(boolean checkCA, @Nullable String sslCertFull, int timeoutSeconds, boolean compressRequests) {
+        AppLog.d(TAG, "Creating OkHttpClient with checkCA: " + checkCA + ", compressRequests: " + compressRequests + " and sslCertFull: " + sslCertFull);
 
-        OkHttpClient.Builder builder = new OkHttpClient.Builder();
-        builder.addInterceptor(authInterceptor);
+        OkHttpClient.Builder builder = getBaseClient().newBuilder();
+        if (compressRequests) {
+            builder.addInterceptor(new GzipRequestInterceptor());
+        }
 
         if (checkCA && sslCertFull != null && !sslCertFull.isEmpty()) {
             // Trust the provided certificate
-            try {
-                CertificateFactory cf = CertificateFactory.getInstance("X.509");
-
-                // Create a KeyStore containing our trusted certificate
-                KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-                keyStore.load(null, null); // Initialize the keyStore
+            SslConfig sslConfig = sslConfigs.computeIfAbsent(getFingerprint(sslCertFull), fingerprint -> createPinnedSslConfig(sslCertFull));
+            builder.sslSocketFactory(sslConfig.sslSocketFactory, sslConfig.trustManager);
 
-                try (InputStream caInput = new ByteArrayInputStream(sslCertFull.getBytes())) {
-                    Certificate ca = cf.generateCertificate(caInput);
-                    keyStore.setCertificateEntry("ca", ca);
-                }
+        } else if (!checkCA) {
+            // Trust all certificates
+            SslConfig sslConfig = getTrustAllSslConfig();
+            builder.sslSocketFactory(sslConfig.sslSocketFactory, sslConfig.trustManager);
+            builder.hostnameVerifier((hostname, session) -> true);
+        } else {
+            // Use the default system trust manager if checkCA is true and sslCertFull is null or empty
+            builder.hostnameVerifier((hostname, session) -> true);
+        }
 
-                // Create a TrustManager that trusts the certificate in our KeyStore
-                TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-                tmf.init(keyStore);
+        return builder.readTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .connectTimeout(timeoutSeconds, TimeUnit.SECONDS).build();
+    }
 
-                // Create an SSLContext that uses our TrustManager
-                SSLContext sslContext = SSLContext.getInstance("TLS");
-                sslContext.init(null, tmf.getTrustManagers(), null);
+    /**
+     * Builds the SSL configuration trusting only the given certificate.
+     *
+     * @param sslCertFull The full SSL certificate string to trust.
+     * @return The SSL configuration pinned to the certificate.
+     * @throws RuntimeException If the certificate can't be loaded.
+     */
+    private static SslConfig createPinnedSslConfig(String sslCertFull) {
+        try {
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
 
-                X509TrustManager trustManager = (X509TrustManager) tmf.getTrustManagers()[0];
-                builder.sslSocketFactory(sslContext.getSocketFactory(), trustManager);
+            // Create a KeyStore containing our trusted certificate
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null, null); // Initialize the keyStore
 
-            } catch (Exception e) {
-                AppLog.e("NetworkBuilder", "Failed to set SSL certificate", e);
-                throw new RuntimeException("Failed to set SSL certificate", e);
+            try (InputStream caInput = new ByteArrayInputStream(sslCertFull.getBytes())) {
+                Certificate ca = cf.generateCertificate(caInput);
+                keyStore.setCertificateEntry("ca", ca);
             }
 
-        } else if (!checkCA) {
-            // Trust all certificates
+            // Create a TrustManager that trusts the certificate in our KeyStore
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(keyStore);
+
+            // Create an SSLContext that uses our TrustManager
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, tmf.getTrustManagers(), null);
+
+            X509TrustManager trustManager = (X509TrustManager) tmf.getTrustManagers()[0];
+            return new SslConfig(sslContext, trustManager);
+
+        } catch (Exception e) {
+            AppLog.e(TAG, "Failed to set SSL certificate", e);
+            throw new RuntimeException("Failed to set SSL certificate", e);
+        }
+    }
+
+    /**
+     * Returns the SSL configuration that trusts all certificates, creating it on first use.
+     *
+     * @return The trust-all SSL configuration.
+     */
+    private static SslConfig getTrustAllSslConfig() {
+        if (trustAllSslConfig == null) {
             try {
                 @SuppressLint("CustomX509TrustManager")
                 final TrustManager[] trustAllCerts = new TrustManager[]{
@@ -108,21 +235,86 @@ public class NetworkBuilder {
                             }
                         }
                 };
-                    final SSLContext sslContext = SSLContext.getInstance("SSL");
-                    sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-                    builder.sslSocketFactory(sslContext.getSocketFactory(), (X509TrustManager) trustAllCerts[0]);
-                    builder.hostnameVerifier((hostname, session) -> true);
+                final SSLContext sslContext = SSLContext.getInstance("SSL");
+                sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
+                trustAllSslConfig = new SslConfig(sslContext, (X509TrustManager) trustAllCerts[0]);
 
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            } else {
-                // Use the default system trust manager if checkCA is true and sslCertFull is null or empty
-                builder.hostnameVerifier((hostname, session) -> true);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
             }
+        }
+        return trustAllSslConfig;
+    }
 
-        return builder.readTimeout(timeoutSeconds, TimeUnit.SECONDS)
-                .connectTimeout(timeoutSeconds, TimeUnit.SECONDS).build();
+    /**
+     * Calculates the SHA-256 fingerprint of a certificate string, used to identify the certificate in caches.
+     *
+     * @param sslCertFull The full SSL certificate string.
+     * @return The hex encoded fingerprint, or an empty string if no certificate is given.
+     */
+    private static String getFingerprint(@Nullable String sslCertFull) {
+        if (sslCertFull == null || sslCertFull.isEmpty()) {
+            return "";
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sslCertFull.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Builds the key of an endpoint configuration. Two requests with the same key can share a Retrofit instance.
+     */
+    private static String getClientKey(String baseUrl, boolean checkCA, @Nullable String sslCertFull, int timeoutSeconds, boolean compressRequests) {
+        return baseUrl + "|" + checkCA + "|" + getFingerprint(sslCertFull) + "|" + timeoutSeconds + "|" + compressRequests;
+    }
+
+    /**
+     * Returns the cached {@link Retrofit} instance of the endpoint if it was built for the same configuration,
+     * otherwise builds a new one and replaces the stale instance.
+     */
+    private static Retrofit getClient(Endpoint endpoint, String baseUrl, String key, @Nullable String sslCertFull, Supplier<OkHttpClient> clientFactory) {
+        if (baseUrl == null || baseUrl.isEmpty()) {
+            throw new IllegalArgumentException("Base URL cannot be null or empty");
+        }
+
+        boolean[] replaced = new boolean[1];
+        CachedClient client = retrofitClients.compute(endpoint, (e, cached) -> {
+            if (cached != null && cached.key.equals(key)) {
+                return cached;
+            }
+            AppLog.d(TAG, (cached != null ? "Configuration changed, replacing " : "Creating ") + endpoint + " Retrofit client for " + baseUrl);
+            replaced[0] = cached != null;
+            Retrofit retrofit = new Retrofit.Builder()
+                    .baseUrl(baseUrl)
+                    .client(clientFactory.get())
+                    .addConverterFactory(GsonConverterFactory.create())
+                    .build();
+            return new CachedClient(key, getFingerprint(sslCertFull), retrofit);
+        });
+        if (replaced[0]) {
+            releaseStaleResources();
+        }
+        return client.retrofit;
+    }
+
+    /**
+     * Releases what only replaced clients used: the pinned certificates no cached client needs anymore, and the idle
+     * connections of the shared pool, which may still lead to a host that is no longer used.
+     */
+    private static void releaseStaleResources() {
+        Set<String> fingerprints = new HashSet<>();
+        for (CachedClient cached : retrofitClients.values()) {
+            fingerprints.add(cached.fingerprint);
+        }
+        sslConfigs.keySet().retainAll(fingerprints);
+        getBaseClient().connectionPool().evictAll();
     }
 
     /**
@@ -138,21 +330,13 @@ public class NetworkBuilder {
      *                    the client trusts all certificates.
      * @param sslCertFull The full SSL certificate string for pinning. This is used only if {@code checkCA} is true
      *                    and the string is not null or empty.
-     * @return A {@link Retrofit} instance configured with the specified base URL and SSL certificate pinning.
+     * @param timeoutSeconds The timeout in seconds for both read and connect operations.
+     * @param compressRequests If {@code true}, request bodies are gzipped (opt-in via the policy, see {@link PolicyData#compressRequests}).
+     * @return A cached {@link Retrofit} instance configured with the specified base URL and SSL certificate pinning.
      */
-    public static Retrofit getClientElasticsearch(String baseUrl, boolean checkCA, @Nullable String sslCertFull, int timeoutSeconds) {
-        if (retrofit_es == null) {
-            if(baseUrl == null || baseUrl.isEmpty()) {
-                throw new IllegalArgumentException("Base URL cannot be null or empty");
-            }
-
-            retrofit_es = new Retrofit.Builder()
-                    .baseUrl(baseUrl)
-                    .client(NetworkBuilder.getOkHttpClient(checkCA, sslCertFull, timeoutSeconds))
-                    .addConverterFactory(GsonConverterFactory.create())
-                    .build();
-        }
-        return retrofit_es;
+    public static Retrofit getClientElasticsearch(String baseUrl, boolean checkCA, @Nullable String sslCertFull, int timeoutSeconds, boolean compressRequests) {
+        return getClient(Endpoint.ELASTICSEARCH, baseUrl, getClientKey(baseUrl, checkCA, sslCertFull, timeoutSeconds, compressRequests), sslCertFull,
+                () -> getOkHttpClient(checkCA, sslCertFull, timeoutSeconds, compressRequests));
     }
 
     /**
@@ -168,29 +352,55 @@ public class NetworkBuilder {
      *                    the client trusts all certificates.
      * @param sslCertFull The full SSL certificate string for pinning. This is used only if {@code checkCA} is true
      *                    and the string is not null or empty.
-     * @return A {@link Retrofit} instance configured with the specified base URL and SSL certificate pinning.
+     * @param timeoutSeconds The timeout in seconds for both read and connect operations.
+     * @return A cached {@link Retrofit} instance configured with the specified base URL and SSL certificate pinning.
      */
     public static Retrofit getClientFleet(String baseUrl, boolean checkCA, @Nullable String sslCertFull, int timeoutSeconds) {
-        if (retrofit_fleet == null) {
-            if (baseUrl == null || baseUrl.isEmpty()) {
-                throw new IllegalArgumentException("Base URL cannot be null or empty");
-            }
+        return getClient(Endpoint.FLEET, baseUrl, getClientKey(baseUrl, checkCA, sslCertFull, timeoutSeconds, false), sslCertFull,
+                () -> getOkHttpClient(checkCA, sslCertFull, timeoutSeconds, false));
+    }
 
-            retrofit_fleet = new Retrofit.Builder()
-                    .baseUrl(baseUrl)
-                    .client(NetworkBuilder.getOkHttpClient(checkCA, sslCertFull, timeoutSeconds))
-                    .addConverterFactory(GsonConverterFactory.create())
-                    .build();
-        }
-        return retrofit_fleet;
+    /**
+     * Creates a {@link Retrofit} instance for long-poll check-ins with the Fleet Server. The Fleet Server holds
+     * such a check-in open for up to {@code pollTimeoutSeconds}, so the client waits that long plus a grace period
+     * for the response, instead of the few seconds of {@link #getClientFleet(String, boolean, String, int)}.
+     * It is cached separately, but shares the connection pool and dispatcher of all other clients.
+     *
+     * @param baseUrl     The base URL for the Retrofit instance.
+     * @param checkCA     Indicates whether the CA (Certificate Authority) should be checked.
+     * @param sslCertFull The full SSL certificate string for pinning.
+     * @param pollTimeoutSeconds The time in seconds the Fleet Server may hold the check-in open.
+     * @return A cached {@link Retrofit} instance for long-poll check-ins.
+     */
+    public static Retrofit getClientFleetLongPoll(String baseUrl, boolean checkCA, @Nullable String sslCertFull, int pollTimeoutSeconds) {
+        return getClient(Endpoint.FLEET_LONG_POLL, baseUrl, getClientKey(baseUrl, checkCA, sslCertFull, pollTimeoutSeconds, false), sslCertFull,
+                () -> configureLongPoll(getOkHttpClient(checkCA, sslCertFull, LONG_POLL_CONNECT_TIMEOUT_SECONDS, false).newBuilder(), pollTimeoutSeconds).build());
     }
 
     /**
-     * Resets the Retrofit clients to null. This method is used to clear the Retrofit clients
-     * when a new configuration is needed, such as when the SSL certificate changes.
+     * Sets the timeouts of a long-poll client: the response may take up to the poll timeout plus a grace period,
+     * and the whole call, including connecting and sending, is bounded as well so a stalled poll can't hang forever.
+     *
+     * @param builder The builder of the client.
+     * @param pollTimeoutSeconds The time in seconds the server may hold the request open.
+     * @return The builder.
+     */
+    static OkHttpClient.Builder configureLongPoll(OkHttpClient.Builder builder, int pollTimeoutSeconds) {
+        int readTimeoutSeconds = pollTimeoutSeconds + LONG_POLL_GRACE_SECONDS;
+        return builder.readTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+                .callTimeout(readTimeoutSeconds + 2 * LONG_POLL_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Clears all cached Retrofit clients and pinned certificates and closes idle connections. This method is used
+     * when a new configuration is needed, e.g. when the agent is enrolled again.
+     * Clients are replaced automatically on a configuration change, so this is not needed for policy updates.
      */
     public static void resetClients() {
-        retrofit_es = null;
-        retrofit_fleet = null;
+        retrofitClients.clear();
+        sslConfigs.clear();
+        if (baseClient != null) {
+            baseClient.connectionPool().evictAll();
+        }
     }
 }
@@ -8,6 +8,7 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.os.Build;
 import android.util.Log; // We don't use AppLog for non-warnings/errors because this would double-log the messages that are sent anyway
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -34,7 +35,6 @@ public class NetworkLogsComp implements Component {
 
     private NetworkLogsCompBuffer buffer;
 
-    private AppStatisticsDataDAO statistic;
     private static NetworkLogsComp NetworkLogsComp;
 
     public static synchronized NetworkLogsComp getInstance() {
@@ -51,12 +51,12 @@ public class NetworkLogsComp implements Component {
      *
      * @param context The application context.
      * @param batchToken A token indicating the batch of network logs to be retrieved.
+     * @return The number of network log events stored in the buffer.
      */
-    public void handleNetworkLogs(Context context, long batchToken) {
+    public int handleNetworkLogs(Context context, long batchToken) {
         // First setup the component
         AppDatabase db = AppDatabase.getDatabase(context);
         this.buffer = db.networkLogsCompBuffer();
-        this.statistic = db.statisticsDataDAO();
 
         AppLog.d("NetworkLogsComp", "Received callback for network logs available.");
         ComponentName adminComponent = new ComponentName(context, AppDeviceAdminReceiver.class);
@@ -66,28 +66,33 @@ public class NetworkLogsComp implements Component {
                 if (dpm.isNetworkLoggingEnabled(adminComponent)) {
                     if(batchToken == 0) {
                         AppLog.w(TAG, "Batch token is 0, this should not happen.");
-                        return;
+                        return 0;
                     }
                     List<NetworkEvent> logs = dpm.retrieveNetworkLogs(adminComponent, batchToken);
                     if (logs != null) {
+                        // Enrollment, policy and host metadata are the same for the whole batch
+                        IngestionContext ingestionContext = IngestionContext.fromDatabase(db);
+                        List<NetworkLogsCompDocument> documents = new ArrayList<>(logs.size());
                         for (NetworkEvent event : logs) {
                             // Process each network log event
                             Log.d(TAG, "Network log event: " + event.toString());
-                            FleetEnrollData enrollmentData = db.enrollmentDataDAO().getEnrollmentInfoSync(1);
-                            PolicyData policyData = db.policyDataDAO().getPolicyDataSync();
 
                             if (event instanceof DnsEvent) {
                                 Log.d(TAG, "Creating DNS event: " + event);
                                 DnsEvent dnsEvent = (DnsEvent) event;
-                                addDocumentToBuffer(new NetworkLogsCompDocument(enrollmentData, policyData, "DNS", dnsEvent.getPackageName(), dnsEvent.getHostname(), dnsEvent.getInetAddresses(), dnsEvent.toString()));
+                                documents.add(new NetworkLogsCompDocument(ingestionContext, "DNS", dnsEvent.getPackageName(), dnsEvent.getHostname(), dnsEvent.getInetAddresses(), dnsEvent.toString()));
                             } else if (event instanceof ConnectEvent) {
                                 Log.d(TAG, "Creating CONNECT event: " + event);
                                 ConnectEvent connectEvent = (ConnectEvent) event;
-                                addDocumentToBuffer(new NetworkLogsCompDocument(enrollmentData, policyData, "CONNECT", connectEvent.getPackageName(), connectEvent.getInetAddress(), connectEvent.getPort(), connectEvent.toString()));
+                                documents.add(new NetworkLogsCompDocument(ingestionContext, "CONNECT", connectEvent.getPackageName(), connectEvent.getInetAddress(), connectEvent.getPort(), connectEvent.toString()));
                             } else {
                                 AppLog.w(TAG, "Unknown network log event type: " + event.getClass().getName());
                             }
                         }
+
+                        // Store the whole batch in a single transaction
+                        addDocumentsToBuffer(documents);
+                        return documents.size();
                     } else {
                         AppLog.w(TAG, "No network logs were available, even though the callback was received.");
                     }
@@ -100,7 +105,7 @@ public class NetworkLogsComp implements Component {
         } catch (Exception e) {
             AppLog.e(TAG, "Failed to retrieve network logs: " + Arrays.toString(e.getStackTrace()));
         }
-
+        return 0;
     }
 
     /**
@@ -118,7 +123,6 @@ public class NetworkLogsComp implements Component {
         // Initialize Room database and get the DAO
         AppDatabase db = AppDatabase.getDatabase(context);
         buffer = db.networkLogsCompBuffer();
-        statistic = db.statisticsDataDAO();
 
         // Enable network logging
         AppLog.d(TAG, "Setting up network logs component");
@@ -156,8 +160,7 @@ public class NetworkLogsComp implements Component {
     public void addDocumentToBuffer(ElasticDocument document) {
         if (document instanceof NetworkLogsCompDocument) {
             if (buffer != null) {
-                buffer.insertDocument((NetworkLogsCompDocument) document);
-                statistic.increaseCombinedBufferSize(1);
+                buffer.insertDocumentAndCount((NetworkLogsCompDocument) document, BufferCounter.NETWORK_LOGS);
             } else {
                 Log.e("NetworkLogsComp", "Buffer not initialized");
                 throw new IllegalStateException("NetworkLogsComp buffer has not been initialized.");
@@ -168,21 +171,68 @@ public class NetworkLogsComp implements Component {
         }
     }
 
+    @Override
+    public void addDocumentsToBuffer(List<? extends ElasticDocument> documents) {
+        if (buffer == null) {
+            Log.e("NetworkLogsComp", "Buffer not initialized");
+            throw new IllegalStateException("NetworkLogsComp buffer has not been initialized.");
+        }
+
+        List<NetworkLogsCompDocument> batch = new ArrayList<>(documents.size());
+        for (ElasticDocument document : documents) {
+            if (!(document instanceof NetworkLogsCompDocument)) {
+                Log.e("NetworkLogsComp", "Invalid document type provided");
+                throw new IllegalArgumentException("Only NetworkLogsCompDocument instances can be added to the buffer.");
+            }
+            batch.add((NetworkLogsCompDocument) document);
+        }
+        if (!batch.isEmpty()) {
+            buffer.insertDocumentsAndCount(batch, BufferCounter.NETWORK_LOGS);
+        }
+    }
+
 
     @Override
-    public <T extends ElasticDocument> List<T> getDocumentsFromBuffer(int maxDocuments) {
-        int toIndex = Math.min(maxDocuments, buffer.getDocumentCount());
-        List<NetworkLogsCompDocument> logBuffer = buffer.getOldestDocuments(toIndex);
-        buffer.deleteOldestDocuments(toIndex);
+    public <T extends ElasticDocument> List<T> claimDocumentsFromBuffer(String batchId, int afterId, int maxDocuments) {
+        if (buffer == null) {
+            return null;
+        }
+        List<NetworkLogsCompDocument> logBuffer = buffer.claimOldestDocuments(batchId, System.currentTimeMillis(), afterId, maxDocuments);
 
         @SuppressWarnings("unchecked") // Safe cast
         List<T> result = (List<T>) logBuffer;
         return result;
     }
 
+    @Override
+    public int acknowledgeDocuments(String batchId) {
+        return buffer != null ? buffer.deleteClaimedDocumentsAndCount(batchId, BufferCounter.NETWORK_LOGS) : 0;
+    }
+
+    @Override
+    public int releaseDocuments(String batchId) {
+        return buffer != null ? buffer.releaseClaimedDocuments(batchId) : 0;
+    }
+
+    @Override
+    public int releaseDocuments(String batchId, List<Integer> documentIds) {
+        return buffer != null ? buffer.releaseClaimedDocuments(batchId, documentIds) : 0;
+    }
+
+    @Override
+    public int releaseStaleClaims(long claimedBefore) {
+        return buffer != null ? buffer.releaseStaleClaims(claimedBefore) : 0;
+    }
+
     @Override
     public int getDocumentsInBufferCount() {return buffer.getDocumentCount();}
 
+    @Override
+    public long getOldestDocumentInBufferMillis() {
+        Long oldest = buffer != null ? buffer.getOldestTimestampMillis() : null;
+        return oldest != null ? oldest : 0;
+    }
+
     @Override
     public List<String> getRequiredPermissions() {
         // This component does require Device Owner permissions, but these permissions can not be granted by the user anyway
@@ -213,7 +263,6 @@ public class NetworkLogsComp implements Component {
                 dpm.setNetworkLoggingEnabled(adminComponentName, false);
             }
             this.buffer = null;
-            this.statistic = null;
         } catch (Exception e) {
             AppLog.e(TAG, "Unhandled exception when disabling network logs: " + e.getMessage());
         }
@@ -3,6 +3,7 @@ package de.swiftbird.elasticandroid;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.Transaction;
 
 import java.util.List;
 
@@ -17,19 +18,80 @@ public interface NetworkLogsCompBuffer {
     @Insert
     void insertDocument(NetworkLogsCompDocument document);
 
-    @Query("SELECT * FROM NetworkLogsCompDocument ORDER BY timestamp ASC")
+    @Insert
+    void insertDocuments(List<NetworkLogsCompDocument> documents);
+
+    // Insert a document and count it in the same transaction
+    @Transaction
+    default void insertDocumentAndCount(NetworkLogsCompDocument document, BufferCounter counter) {
+        insertDocument(document);
+        counter.add(1);
+    }
+
+    // Insert a batch of documents and count them in the same transaction
+    @Transaction
+    default void insertDocumentsAndCount(List<NetworkLogsCompDocument> documents, BufferCounter counter) {
+        insertDocuments(documents);
+        counter.add(documents.size());
+    }
+
+    @Query("SELECT * FROM NetworkLogsCompDocument ORDER BY id ASC")
     List<NetworkLogsCompDocument> getAllDocuments();
 
     @Query("DELETE FROM NetworkLogsCompDocument")
     void deleteAllDocuments();
 
-    @Query("SELECT * FROM NetworkLogsCompDocument ORDER BY timestamp ASC LIMIT :maxDocuments")
-    List<NetworkLogsCompDocument> getOldestDocuments(int maxDocuments);
+    // Claim the X oldest unclaimed documents with an id above the cursor (0 for all) for a batch by marking them in-flight.
+    // The id is the insertion sequence, so this is a keyset walk over the batch_id index instead of a sort of the table.
+    @Query("UPDATE NetworkLogsCompDocument SET batch_id = :batchId, claimed_at = :claimedAt WHERE id IN (SELECT id FROM NetworkLogsCompDocument WHERE batch_id IS NULL AND id > :afterId ORDER BY id ASC LIMIT :maxDocuments)")
+    int markOldestDocumentsClaimed(String batchId, long claimedAt, int afterId, int maxDocuments);
+
+    // Get all documents claimed by a batch
+    @Query("SELECT * FROM NetworkLogsCompDocument WHERE batch_id = :batchId ORDER BY id ASC")
+    List<NetworkLogsCompDocument> getClaimedDocuments(String batchId);
+
+    // Claim and read the X oldest unclaimed documents above the cursor in one transaction
+    @Transaction
+    default List<NetworkLogsCompDocument> claimOldestDocuments(String batchId, long claimedAt, int afterId, int maxDocuments) {
+        markOldestDocumentsClaimed(batchId, claimedAt, afterId, maxDocuments);
+        return getClaimedDocuments(batchId);
+    }
+
+    // Delete the documents of a batch once Elasticsearch accepted them
+    @Query("DELETE FROM NetworkLogsCompDocument WHERE batch_id = :batchId")
+    int deleteClaimedDocuments(String batchId);
+
+    // Delete the documents of a batch and uncount them in the same transaction
+    @Transaction
+    default int deleteClaimedDocumentsAndCount(String batchId, BufferCounter counter) {
+        int deleted = deleteClaimedDocuments(batchId);
+        counter.add(-deleted);
+        return deleted;
+    }
+
+    // Give the documents of a batch back to the buffer so they are sent again
+    @Query("UPDATE NetworkLogsCompDocument SET batch_id = NULL, claimed_at = 0 WHERE batch_id = :batchId")
+    int releaseClaimedDocuments(String batchId);
+
+    // Give single documents of a batch back to the buffer, e.g. after Elasticsearch rejected them temporarily
+    @Query("UPDATE NetworkLogsCompDocument SET batch_id = NULL, claimed_at = 0 WHERE batch_id = :batchId AND id IN (:ids)")
+    int releaseClaimedDocuments(String batchId, List<Integer> ids);
+
+    // Release claims of batches that never finished (e.g. because the app was killed mid-request)
+    @Query("UPDATE NetworkLogsCompDocument SET batch_id = NULL, claimed_at = 0 WHERE batch_id IS NOT NULL AND claimed_at < :claimedBefore")
+    int releaseStaleClaims(long claimedBefore);
 
     @Query("SELECT COUNT(*) FROM NetworkLogsCompDocument")
     int getDocumentCount();
 
-    @Query("DELETE FROM NetworkLogsCompDocument WHERE id IN (SELECT id FROM NetworkLogsCompDocument ORDER BY timestamp ASC LIMIT :maxDocuments)")
-    void deleteOldestDocuments(int maxDocuments);
+    @Query("SELECT timestamp_millis FROM NetworkLogsCompDocument WHERE batch_id IS NULL ORDER BY id ASC LIMIT 1")
+    Long getOldestTimestampMillis();
+
+    // Set the in-memory counter to the actual number of documents, without inserts or deletes in between
+    @Transaction
+    default void seedCounter(BufferCounter counter) {
+        counter.seed(getDocumentCount());
+    }
+
 }
 
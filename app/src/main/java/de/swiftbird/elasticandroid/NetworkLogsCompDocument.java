@@ -2,6 +2,7 @@ package de.swiftbird.elasticandroid;
 
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 import androidx.room.TypeConverters;
 import com.google.gson.annotations.SerializedName;
@@ -20,7 +21,7 @@ import java.util.Objects;
  * <p>Fields are annotated for serialization into JSON using {@link com.google.gson.annotations.SerializedName}
  * and for storage in the SQLite database using Room annotations.</p>
  */
-@Entity
+@Entity(indices = {@Index("batch_id")})
 public class NetworkLogsCompDocument extends ElasticDocument {
     @PrimaryKey(autoGenerate = true)
     @ColumnInfo(name = "id")
@@ -117,7 +118,22 @@ public class NetworkLogsCompDocument extends ElasticDocument {
      * @throws IllegalArgumentException if the event type is not "DNS".
      */
     public NetworkLogsCompDocument(FleetEnrollData enrollmentData, PolicyData policyData, String type, String packageName, String hostname, List<InetAddress> inetAddresses, String message){
-        super(enrollmentData, policyData);
+        this(IngestionContext.of(enrollmentData, policyData), type, packageName, hostname, inetAddresses, message);
+    }
+
+    /**
+     * Constructs a new {@code NetworkLogsCompDocument} for a DNS query event, using a shared ingestion context.
+     *
+     * @param ingestionContext The snapshot of enrollment data, policy data and metadata of the current batch.
+     * @param type The type of the network event, expected to be "DNS" for this constructor.
+     * @param packageName The package name of the app initiating the DNS query.
+     * @param hostname The hostname being queried.
+     * @param inetAddresses The list of {@link InetAddress} objects representing resolved IP addresses for the hostname.
+     * @param message Additional message or context about the DNS event.
+     * @throws IllegalArgumentException if the event type is not "DNS".
+     */
+    public NetworkLogsCompDocument(IngestionContext ingestionContext, String type, String packageName, String hostname, List<InetAddress> inetAddresses, String message){
+        super(ingestionContext);
 
         // Type: QUERY
         if (type == null || !type.equals("DNS")) {
@@ -161,7 +177,22 @@ public class NetworkLogsCompDocument extends ElasticDocument {
      * @throws IllegalArgumentException if the event type is not "CONNECT".
      */
     public NetworkLogsCompDocument(FleetEnrollData enrollmentData, PolicyData policyData, String type, String packageName, InetAddress inetAddress, int port, String message){
-        super(enrollmentData, policyData);
+        this(IngestionContext.of(enrollmentData, policyData), type, packageName, inetAddress, port, message);
+    }
+
+    /**
+     * Constructs a new {@code NetworkLogsCompDocument} for a TCP connection event, using a shared ingestion context.
+     *
+     * @param ingestionContext The snapshot of enrollment data, policy data and metadata of the current batch.
+     * @param type The type of the network event, expected to be "CONNECT" for this constructor.
+     * @param packageName The package name of the app initiating the connection.
+     * @param inetAddress The {@link InetAddress} of the destination IP address.
+     * @param port The destination port of the connection.
+     * @param message Additional message or context about the TCP connection event.
+     * @throws IllegalArgumentException if the event type is not "CONNECT".
+     */
+    public NetworkLogsCompDocument(IngestionContext ingestionContext, String type, String packageName, InetAddress inetAddress, int port, String message){
+        super(ingestionContext);
 
         // Type: CONNECT
         if (type == null || !type.equals("CONNECT")) {
@@ -183,5 +214,9 @@ public class NetworkLogsCompDocument extends ElasticDocument {
         this.eventAction = "network_flow";
         this.eventCategory = "network";
     }
-}
 
+    @Override
+    public int getBufferId() {
+        return id;
+    }
+}
@@ -66,6 +66,14 @@ public class PolicyData {
     @ColumnInfo(name = "checkin_interval")
     public int checkinInterval;
 
+    // Time in seconds the Fleet Server may hold a long-poll check-in open, 0 disables long-polling.
+    @ColumnInfo(name = "checkin_poll_timeout", defaultValue = "0")
+    public int checkinPollTimeout;
+
+    // Time in seconds a check-in or upload may run early to share the wake-up of the other, 0 disables the alignment.
+    @ColumnInfo(name = "wakeup_alignment_window", defaultValue = "0")
+    public int wakeupAlignmentWindow;
+
     // Backoff interval for check-in attempts after failures.
     @ColumnInfo(name = "backoff_checkin_interval")
     public int backoffCheckinInterval;
@@ -82,10 +90,30 @@ public class PolicyData {
     @ColumnInfo(name = "max_documents_per_request")
     public int maxDocumentsPerRequest;
 
+    // Maximum uncompressed size of a single bulk request in bytes, larger batches are split into several requests.
+    @ColumnInfo(name = "max_bytes_per_request", defaultValue = "5242880")
+    public int maxBytesPerRequest;
+
     // Disable data submission when the device has low battery.
     @ColumnInfo(name = "disable_if_battery_low")
     public boolean disableIfBatteryLow;
 
+    // Compress requests to Elasticsearch with gzip (Content-Encoding: gzip).
+    @ColumnInfo(name = "compress_requests", defaultValue = "0")
+    public boolean compressRequests;
+
+    // Maximum number of bulk requests in flight while catching up on a backlog.
+    @ColumnInfo(name = "catchup_max_in_flight", defaultValue = "2")
+    public int catchupMaxInFlight;
+
+    // Maximum time in seconds a single upload run keeps sending batches to catch up on a backlog.
+    @ColumnInfo(name = "catchup_max_duration", defaultValue = "120")
+    public int catchupMaxDuration;
+
+    // Maximum number of uncompressed bytes a single upload run sends to catch up on a backlog.
+    @ColumnInfo(name = "catchup_max_bytes", defaultValue = "52428800")
+    public int catchupMaxBytes;
+
     // Concatenated list of component paths included in the policy.
     @ColumnInfo(name = "paths")
     public String paths;
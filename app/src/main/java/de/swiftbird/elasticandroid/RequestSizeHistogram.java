@@ -0,0 +1,91 @@
+package de.swiftbird.elasticandroid;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of the uncompressed sizes of the bulk requests sent to Elasticsearch, to see how close the requests
+ * get to {@link PolicyData#maxBytesPerRequest} and to {@code http.max_content_length} of the cluster.
+ *
+ * <p>The buckets grow by a factor of four, from up to 16 KB to more than 4 MB. The counts live in memory and are
+ * persisted to {@link AppStatisticsData} as a comma separated list after every request.</p>
+ */
+public class RequestSizeHistogram {
+    private static final long[] UPPER_BOUNDS = {16 << 10, 64 << 10, 256 << 10, 1 << 20, 4 << 20, Long.MAX_VALUE};
+    private static final String[] LABELS = {"<=16 KB", "<=64 KB", "<=256 KB", "<=1 MB", "<=4 MB", ">4 MB"};
+
+    private static final RequestSizeHistogram instance = new RequestSizeHistogram();
+
+    private final AtomicLongArray counts = new AtomicLongArray(UPPER_BOUNDS.length);
+    private volatile boolean restored = false;
+
+    RequestSizeHistogram() {}
+
+    public static RequestSizeHistogram getInstance() {
+        return instance;
+    }
+
+    /**
+     * Counts a request.
+     *
+     * @param bytes The uncompressed size of the request.
+     */
+    public void record(long bytes) {
+        int bucket = 0;
+        while (bytes > UPPER_BOUNDS[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+    }
+
+    /**
+     * Adds the counts persisted by a previous process, once.
+     *
+     * @param persisted The counts as written by {@link #format()}, may be null.
+     */
+    public synchronized void restore(String persisted) {
+        if (restored) {
+            return;
+        }
+        restored = true;
+        if (persisted == null) {
+            return;
+        }
+        String[] values = persisted.split(",");
+        for (int i = 0; i < Math.min(values.length, UPPER_BOUNDS.length); i++) {
+            try {
+                counts.addAndGet(i, Long.parseLong(values[i].trim()));
+            } catch (NumberFormatException e) {
+                // Ignore a corrupted bucket, it only affects the statistics
+            }
+        }
+    }
+
+    /**
+     * Formats the counts for persistence.
+     *
+     * @return The counts of all buckets as comma separated list.
+     */
+    public String format() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < counts.length(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(counts.get(i));
+        }
+        return builder.toString();
+    }
+
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Bulk request sizes:");
+        for (int i = 0; i < counts.length(); i++) {
+            builder.append(i > 0 ? ", " : " ").append(LABELS[i]).append(": ").append(counts.get(i));
+        }
+        return builder.toString();
+    }
+}
@@ -6,6 +6,7 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.os.Build;
 import android.util.Log; // We don't use AppLog for non-warnings/errors because this would double-log the messages that are sent anyway
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -31,7 +32,6 @@ import java.util.Set;
 public class SecurityLogsComp implements Component {
     private static final String TAG = "SecurityLogsComp";
     private SecurityLogsCompBuffer buffer;
-    private AppStatisticsDataDAO statistic;
     private static SecurityLogsComp securityLogsComp;
 
     public static synchronized SecurityLogsComp getInstance() {
@@ -47,12 +47,12 @@ public class SecurityLogsComp implements Component {
      * {@link AppDeviceAdminReceiver}, converting them into a format suitable for storage and/or transmission.
      *
      * @param context The application context.
+     * @return The number of security log events stored in the buffer.
      */
-    public void handleSecurityLogs(Context context) {
+    public int handleSecurityLogs(Context context) {
         // First setup the component
         AppDatabase db = AppDatabase.getDatabase(context);
         this.buffer = db.securityLogCompBuffer();
-        this.statistic = db.statisticsDataDAO();
 
         AppLog.i(TAG, "Received callback for security logs available.");
         ComponentName adminComponent = new ComponentName(context, AppDeviceAdminReceiver.class);
@@ -61,12 +61,13 @@ public class SecurityLogsComp implements Component {
             if (dpm.isSecurityLoggingEnabled(adminComponent)) {
                 List<SecurityLog.SecurityEvent> logs = dpm.retrieveSecurityLogs(adminComponent);
                 if (logs != null) {
+                    // Enrollment, policy and host metadata are the same for the whole batch
+                    IngestionContext ingestionContext = IngestionContext.fromDatabase(db);
+                    List<SecurityLogsCompDocument> documents = new ArrayList<>(logs.size());
                     for (SecurityLog.SecurityEvent event : logs) {
                         // Process each security log event
                         Log.d(TAG, "Security log event: " + event.toString());
 
-                        FleetEnrollData enrollmentData = db.enrollmentDataDAO().getEnrollmentInfoSync(1);
-                        PolicyData policyData = db.policyDataDAO().getPolicyDataSync();
                         int logLevel;
 
                         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.P) {
@@ -87,8 +88,12 @@ public class SecurityLogsComp implements Component {
                         String tagName = getSecurityEventTagName(tag);
                         String message = event.toString();
 
-                        addDocumentToBuffer(new SecurityLogsCompDocument(enrollmentData, policyData, logLevelName, tagName, message));
+                        documents.add(new SecurityLogsCompDocument(ingestionContext, logLevelName, tagName, message));
                     }
+
+                    // Store the whole batch in a single transaction
+                    addDocumentsToBuffer(documents);
+                    return documents.size();
                 } else {
                     AppLog.w(TAG, "No security logs were available, even though the callback was received.");
                 }
@@ -98,6 +103,7 @@ public class SecurityLogsComp implements Component {
         } catch (Exception e) {
             AppLog.e(TAG, "Failed to retrieve security logs: " + Arrays.toString(e.getStackTrace()));
         }
+        return 0;
     }
 
     /**
@@ -115,7 +121,6 @@ public class SecurityLogsComp implements Component {
         // Initialize Room database and get the DAO
         AppDatabase db = AppDatabase.getDatabase(context);
         buffer = db.securityLogCompBuffer();
-        statistic = db.statisticsDataDAO();
 
         // Enable security logging
         AppLog.d(TAG, "Setting up security logs component");
@@ -150,8 +155,7 @@ public class SecurityLogsComp implements Component {
     public void addDocumentToBuffer(ElasticDocument document) {
         if (document instanceof SecurityLogsCompDocument) {
             if (buffer != null) {
-                buffer.insertDocument((SecurityLogsCompDocument) document);
-                statistic.increaseCombinedBufferSize(1);
+                buffer.insertDocumentAndCount((SecurityLogsCompDocument) document, BufferCounter.SECURITY_LOGS);
             } else {
                 Log.e("SecurityLogsComp", "Buffer not initialized");
                 throw new IllegalStateException("SecurityLogComp buffer has not been initialized.");
@@ -162,21 +166,68 @@ public class SecurityLogsComp implements Component {
         }
     }
 
+    @Override
+    public void addDocumentsToBuffer(List<? extends ElasticDocument> documents) {
+        if (buffer == null) {
+            Log.e("SecurityLogsComp", "Buffer not initialized");
+            throw new IllegalStateException("SecurityLogsComp buffer has not been initialized.");
+        }
+
+        List<SecurityLogsCompDocument> batch = new ArrayList<>(documents.size());
+        for (ElasticDocument document : documents) {
+            if (!(document instanceof SecurityLogsCompDocument)) {
+                Log.e("SecurityLogsComp", "Invalid document type provided");
+                throw new IllegalArgumentException("Only SecurityLogsCompDocument instances can be added to the buffer.");
+            }
+            batch.add((SecurityLogsCompDocument) document);
+        }
+        if (!batch.isEmpty()) {
+            buffer.insertDocumentsAndCount(batch, BufferCounter.SECURITY_LOGS);
+        }
+    }
+
 
     @Override
-    public <T extends ElasticDocument> List<T> getDocumentsFromBuffer(int maxDocuments) {
-        int toIndex = Math.min(maxDocuments, buffer.getDocumentCount());
-        List<SecurityLogsCompDocument> logBuffer = buffer.getOldestDocuments(toIndex);
-        buffer.deleteOldestDocuments(toIndex);
+    public <T extends ElasticDocument> List<T> claimDocumentsFromBuffer(String batchId, int afterId, int maxDocuments) {
+        if (buffer == null) {
+            return null;
+        }
+        List<SecurityLogsCompDocument> logBuffer = buffer.claimOldestDocuments(batchId, System.currentTimeMillis(), afterId, maxDocuments);
 
         @SuppressWarnings("unchecked") // Safe cast
         List<T> result = (List<T>) logBuffer;
         return result;
     }
 
+    @Override
+    public int acknowledgeDocuments(String batchId) {
+        return buffer != null ? buffer.deleteClaimedDocumentsAndCount(batchId, BufferCounter.SECURITY_LOGS) : 0;
+    }
+
+    @Override
+    public int releaseDocuments(String batchId) {
+        return buffer != null ? buffer.releaseClaimedDocuments(batchId) : 0;
+    }
+
+    @Override
+    public int releaseDocuments(String batchId, List<Integer> documentIds) {
+        return buffer != null ? buffer.releaseClaimedDocuments(batchId, documentIds) : 0;
+    }
+
+    @Override
+    public int releaseStaleClaims(long claimedBefore) {
+        return buffer != null ? buffer.releaseStaleClaims(claimedBefore) : 0;
+    }
+
     @Override
     public int getDocumentsInBufferCount() {return buffer.getDocumentCount();}
 
+    @Override
+    public long getOldestDocumentInBufferMillis() {
+        Long oldest = buffer != null ? buffer.getOldestTimestampMillis() : null;
+        return oldest != null ? oldest : 0;
+    }
+
     @Override
     public List<String> getRequiredPermissions() {
         // This component does require Device Owner permissions, but these permissions can not be granted by the user anyway
@@ -204,7 +255,6 @@ public class SecurityLogsComp implements Component {
             DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
             ComponentName adminComponentName = new ComponentName(context, AppDeviceAdminReceiver.class);
             dpm.setSecurityLoggingEnabled(adminComponentName, false);
-            this.statistic = null;
             this.buffer = null;
         } catch (Exception e) {
             AppLog.e(TAG, "Failed to disable security logging: " + e.getMessage());
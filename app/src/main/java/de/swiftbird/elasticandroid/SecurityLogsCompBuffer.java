@@ -3,6 +3,7 @@ package de.swiftbird.elasticandroid;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.Transaction;
 
 import java.util.List;
 
@@ -17,24 +18,83 @@ public interface SecurityLogsCompBuffer {
     @Insert
     void insertDocument(SecurityLogsCompDocument document);
 
-    @Query("SELECT * FROM SecurityLogsCompDocument ORDER BY timestamp ASC")
+    @Insert
+    void insertDocuments(List<SecurityLogsCompDocument> documents);
+
+    // Insert a document and count it in the same transaction
+    @Transaction
+    default void insertDocumentAndCount(SecurityLogsCompDocument document, BufferCounter counter) {
+        insertDocument(document);
+        counter.add(1);
+    }
+
+    // Insert a batch of documents and count them in the same transaction
+    @Transaction
+    default void insertDocumentsAndCount(List<SecurityLogsCompDocument> documents, BufferCounter counter) {
+        insertDocuments(documents);
+        counter.add(documents.size());
+    }
+
+    @Query("SELECT * FROM SecurityLogsCompDocument ORDER BY id ASC")
     List<SecurityLogsCompDocument> getAllDocuments();
 
     @Query("DELETE FROM SecurityLogsCompDocument")
     void deleteAllDocuments();
 
-    // Get X oldest documents
-    @Query("SELECT * FROM SecurityLogsCompDocument ORDER BY timestamp ASC LIMIT :maxDocuments")
-    List<SecurityLogsCompDocument> getOldestDocuments(int maxDocuments);
+    // Claim the X oldest unclaimed documents with an id above the cursor (0 for all) for a batch by marking them in-flight.
+    // The id is the insertion sequence, so this is a keyset walk over the batch_id index instead of a sort of the table.
+    @Query("UPDATE SecurityLogsCompDocument SET batch_id = :batchId, claimed_at = :claimedAt WHERE id IN (SELECT id FROM SecurityLogsCompDocument WHERE batch_id IS NULL AND id > :afterId ORDER BY id ASC LIMIT :maxDocuments)")
+    int markOldestDocumentsClaimed(String batchId, long claimedAt, int afterId, int maxDocuments);
+
+    // Get all documents claimed by a batch
+    @Query("SELECT * FROM SecurityLogsCompDocument WHERE batch_id = :batchId ORDER BY id ASC")
+    List<SecurityLogsCompDocument> getClaimedDocuments(String batchId);
+
+    // Claim and read the X oldest unclaimed documents above the cursor in one transaction
+    @Transaction
+    default List<SecurityLogsCompDocument> claimOldestDocuments(String batchId, long claimedAt, int afterId, int maxDocuments) {
+        markOldestDocumentsClaimed(batchId, claimedAt, afterId, maxDocuments);
+        return getClaimedDocuments(batchId);
+    }
+
+    // Delete the documents of a batch once Elasticsearch accepted them
+    @Query("DELETE FROM SecurityLogsCompDocument WHERE batch_id = :batchId")
+    int deleteClaimedDocuments(String batchId);
+
+    // Delete the documents of a batch and uncount them in the same transaction
+    @Transaction
+    default int deleteClaimedDocumentsAndCount(String batchId, BufferCounter counter) {
+        int deleted = deleteClaimedDocuments(batchId);
+        counter.add(-deleted);
+        return deleted;
+    }
+
+    // Give the documents of a batch back to the buffer so they are sent again
+    @Query("UPDATE SecurityLogsCompDocument SET batch_id = NULL, claimed_at = 0 WHERE batch_id = :batchId")
+    int releaseClaimedDocuments(String batchId);
+
+    // Give single documents of a batch back to the buffer, e.g. after Elasticsearch rejected them temporarily
+    @Query("UPDATE SecurityLogsCompDocument SET batch_id = NULL, claimed_at = 0 WHERE batch_id = :batchId AND id IN (:ids)")
+    int releaseClaimedDocuments(String batchId, List<Integer> ids);
+
+    // Release claims of batches that never finished (e.g. because the app was killed mid-request)
+    @Query("UPDATE SecurityLogsCompDocument SET batch_id = NULL, claimed_at = 0 WHERE batch_id IS NOT NULL AND claimed_at < :claimedBefore")
+    int releaseStaleClaims(long claimedBefore);
 
     // Count the number of documents in the buffer, return 0 if no documents
     @Query("SELECT COUNT(*) FROM SecurityLogsCompDocument")
     int getDocumentCount();
 
-    // Delete the oldest X documents
+    // Get the epoch millis of the oldest unclaimed document, null if none. Found by the id sequence, so the timestamps need no index
+    @Query("SELECT timestamp_millis FROM SecurityLogsCompDocument WHERE batch_id IS NULL ORDER BY id ASC LIMIT 1")
+    Long getOldestTimestampMillis();
+
+    // Set the in-memory counter to the actual number of documents, without inserts or deletes in between
+    @Transaction
+    default void seedCounter(BufferCounter counter) {
+        counter.seed(getDocumentCount());
+    }
 
-    @Query("DELETE FROM SecurityLogsCompDocument WHERE id IN (SELECT id FROM SecurityLogsCompDocument ORDER BY timestamp ASC LIMIT :maxDocuments)")
-    void deleteOldestDocuments(int maxDocuments);
 
 
 }
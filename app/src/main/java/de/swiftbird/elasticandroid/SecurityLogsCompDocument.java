@@ -2,6 +2,7 @@ package de.swiftbird.elasticandroid;
 
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 import com.google.gson.annotations.SerializedName;
@@ -13,7 +14,7 @@ import com.google.gson.annotations.SerializedName;
  * and processing.
  */
 
-@Entity
+@Entity(indices = {@Index("batch_id")})
 public class SecurityLogsCompDocument extends ElasticDocument {
     @PrimaryKey(autoGenerate = true)
     @ColumnInfo(name = "id")
@@ -42,11 +43,17 @@ public class SecurityLogsCompDocument extends ElasticDocument {
     // Constructor using superclass constructor and setting own fields
     public SecurityLogsCompDocument() {}
     public SecurityLogsCompDocument(FleetEnrollData fleetEnrollData, PolicyData policyData, String logLevel, String tag, String message) {
-        super(fleetEnrollData, policyData);
+        this(IngestionContext.of(fleetEnrollData, policyData), logLevel, tag, message);
+    }
+    public SecurityLogsCompDocument(IngestionContext ingestionContext, String logLevel, String tag, String message) {
+        super(ingestionContext);
         this.logLevel = logLevel;
         this.tag = tag;
         this.message = message;
     }
 
+    @Override
+    public int getBufferId() {
+        return id;
+    }
 }
-
@@ -2,6 +2,7 @@ package de.swiftbird.elasticandroid;
 
 import android.content.Context;
 import android.util.Log;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -21,7 +22,6 @@ public class SelfLogComp implements Component {
 
     private static SelfLogComp selfLogComp;
     private SelfLogCompBuffer buffer;
-    private AppStatisticsDataDAO statistic;
 
     public static synchronized SelfLogComp getInstance() {
         // Singleton pattern
@@ -36,7 +36,6 @@ public class SelfLogComp implements Component {
         // Initialize Room database and get the DAO
         AppDatabase db = AppDatabase.getDatabase(context);
         buffer = db.selfLogCompBuffer();
-        statistic = db.statisticsDataDAO();
         return true;
     }
 
@@ -44,8 +43,7 @@ public class SelfLogComp implements Component {
     public void addDocumentToBuffer(ElasticDocument document) {
         if (document instanceof SelfLogCompDocument) {
             if (buffer != null) {
-                buffer.insertDocument((SelfLogCompDocument) document);
-                statistic.increaseCombinedBufferSize(1);
+                buffer.insertDocumentAndCount((SelfLogCompDocument) document, BufferCounter.SELF_LOG);
             } else {
                 Log.e("SelfLogComp", "Buffer not initialized");
                 throw new IllegalStateException("SelfLogComp buffer has not been initialized.");
@@ -56,35 +54,81 @@ public class SelfLogComp implements Component {
         }
     }
 
+    @Override
+    public void addDocumentsToBuffer(List<? extends ElasticDocument> documents) {
+        if (buffer == null) {
+            Log.e("SelfLogComp", "Buffer not initialized");
+            throw new IllegalStateException("SelfLogComp buffer has not been initialized.");
+        }
+
+        List<SelfLogCompDocument> batch = new ArrayList<>(documents.size());
+        for (ElasticDocument document : documents) {
+            if (!(document instanceof SelfLogCompDocument)) {
+                Log.e("SelfLogComp", "Invalid document type provided");
+                throw new IllegalArgumentException("Only SelfLogCompDocument instances can be added to the buffer.");
+            }
+            batch.add((SelfLogCompDocument) document);
+        }
+        if (!batch.isEmpty()) {
+            buffer.insertDocumentsAndCount(batch, BufferCounter.SELF_LOG);
+        }
+    }
+
 
     @Override
-    public <T extends ElasticDocument> List<T> getDocumentsFromBuffer(int maxDocuments) {
-        int toIndex = Math.min(maxDocuments, buffer.getDocumentCount());
-        List<SelfLogCompDocument> logBuffer = buffer.getOldestDocuments(toIndex);
-        buffer.deleteOldestDocuments(toIndex);
+    public <T extends ElasticDocument> List<T> claimDocumentsFromBuffer(String batchId, int afterId, int maxDocuments) {
+        if (buffer == null) {
+            return null;
+        }
+        List<SelfLogCompDocument> logBuffer = buffer.claimOldestDocuments(batchId, System.currentTimeMillis(), afterId, maxDocuments);
 
         @SuppressWarnings("unchecked") // Safe cast
         List<T> result = (List<T>) logBuffer;
         return result;
     }
 
+    @Override
+    public int acknowledgeDocuments(String batchId) {
+        return buffer != null ? buffer.deleteClaimedDocumentsAndCount(batchId, BufferCounter.SELF_LOG) : 0;
+    }
+
+    @Override
+    public int releaseDocuments(String batchId) {
+        return buffer != null ? buffer.releaseClaimedDocuments(batchId) : 0;
+    }
+
+    @Override
+    public int releaseDocuments(String batchId, List<Integer> documentIds) {
+        return buffer != null ? buffer.releaseClaimedDocuments(batchId, documentIds) : 0;
+    }
+
+    @Override
+    public int releaseStaleClaims(long claimedBefore) {
+        return buffer != null ? buffer.releaseStaleClaims(claimedBefore) : 0;
+    }
+
     public int getDocumentsInBufferCount() {
         return buffer.getDocumentCount();
     }
 
+    @Override
+    public long getOldestDocumentInBufferMillis() {
+        Long oldest = buffer != null ? buffer.getOldestTimestampMillis() : null;
+        return oldest != null ? oldest : 0;
+    }
+
     @Override
     public String getPathName() {
         return "self-log";
     }
 
+    /**
+     * Nothing to clean up: {@link AppLog} stops storing records as soon as the {@link ComponentPlan} of the policy
+     * no longer contains a self-log path, and keeps the logger itself running for the console output.
+     * The buffer stays available, as {@link AppLog} may still be writing the records accepted before.
+     */
     @Override
     public void disable(Context context, FleetEnrollData enrollmentData, PolicyData policyData) {
-        try {
-            AppLog.shutdownLogger();
-            this.statistic = null;
-            this.buffer = null;
-        } catch (Exception e) {
-            Log.e("SelfLogComp", "Failed to shut down logger properly", e);
-        }
+        // No-op, see above
     }
 }
@@ -2,6 +2,7 @@ package de.swiftbird.elasticandroid;
 
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 import com.google.gson.annotations.SerializedName;
 
@@ -18,7 +19,7 @@ import com.google.gson.annotations.SerializedName;
  *
  * <p>Note: The {@code eventAction} and {@code eventCategory} fields are preset to "syslog" and "log" respectively.</p>
  */
-@Entity
+@Entity(indices = {@Index("batch_id")})
 public class SelfLogCompDocument extends ElasticDocument {
     @PrimaryKey(autoGenerate = true)
     @ColumnInfo(name = "id")
@@ -47,11 +48,17 @@ public class SelfLogCompDocument extends ElasticDocument {
     // Constructor using superclass constructor and setting own fields
     public SelfLogCompDocument() {}
     public SelfLogCompDocument(FleetEnrollData fleetEnrollData, PolicyData policyData, String logLevel, String tag, String message) {
-        super(fleetEnrollData, policyData);
+        this(IngestionContext.of(fleetEnrollData, policyData), logLevel, tag, message);
+    }
+    public SelfLogCompDocument(IngestionContext ingestionContext, String logLevel, String tag, String message) {
+        super(ingestionContext);
         this.logLevel = logLevel;
         this.tag = tag;
         this.message = message;
     }
 
+    @Override
+    public int getBufferId() {
+        return id;
+    }
 }
-
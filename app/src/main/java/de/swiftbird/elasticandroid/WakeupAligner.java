@@ -0,0 +1,79 @@
+package de.swiftbird.elasticandroid;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aligns the wake-ups of the network jobs, the Fleet check-in and the Elasticsearch upload, so they share the
+ * radio-active period instead of powering up the cellular radio one after the other.
+ *
+ * <p>Both jobs schedule their next run independently with their own (backoff) interval. If
+ * {@link PolicyData#wakeupAlignmentWindow} is set, a job that is about to run pulls every other job that is due
+ * within the window forward, so both run on the same wake-up. A running job has no due time and is never pulled.
+ * Jobs that ran together stay in phase as long as their intervals are multiples of each other.</p>
+ *
+ * <p>The due times are kept in memory and recorded by {@link WorkScheduler}. After a process restart, a job is only
+ * pulled forward once it was scheduled again.</p>
+ */
+public class WakeupAligner {
+
+    public enum Job {
+        FLEET_CHECKIN,
+        ELASTICSEARCH_PUT
+    }
+
+    private static final WakeupAligner instance = new WakeupAligner();
+
+    private final Map<Job, Long> dueAt = new EnumMap<>(Job.class); // Elapsed realtime the scheduled run is due
+
+    WakeupAligner() {}
+
+    public static WakeupAligner getInstance() {
+        return instance;
+    }
+
+    /**
+     * Records the due time of a scheduled run.
+     *
+     * @param job The scheduled job.
+     * @param dueAt The elapsed realtime in milliseconds the run is due.
+     */
+    public synchronized void onScheduled(Job job, long dueAt) {
+        this.dueAt.put(job, dueAt);
+    }
+
+    /**
+     * Called when a job starts running. Returns the other jobs to pull forward onto this wake-up; their due time is
+     * cleared, as they are rescheduled to run right away.
+     *
+     * @param job The job that is about to run.
+     * @param now The current elapsed realtime in milliseconds.
+     * @param windowMillis How long before their due time other jobs may run, 0 disables the alignment.
+     * @return The jobs due within the window, empty if there are none.
+     */
+    public synchronized List<Job> onStarting(Job job, long now, long windowMillis) {
+        dueAt.remove(job);
+        List<Job> pulled = new ArrayList<>();
+        if (windowMillis <= 0) {
+            return pulled;
+        }
+        for (Map.Entry<Job, Long> entry : dueAt.entrySet()) {
+            if (entry.getValue() - now <= windowMillis) {
+                pulled.add(entry.getKey());
+            }
+        }
+        for (Job other : pulled) {
+            dueAt.remove(other);
+        }
+        return pulled;
+    }
+
+    /**
+     * Forgets all due times, e.g. after all work was cancelled.
+     */
+    public synchronized void clear() {
+        dueAt.clear();
+    }
+}
@@ -1,10 +1,14 @@
 package de.swiftbird.elasticandroid;
 
 import android.content.Context;
+import android.os.SystemClock;
+import androidx.work.BackoffPolicy;
 import androidx.work.Constraints;
 import androidx.work.ExistingWorkPolicy;
+import androidx.work.ListenableWorker;
 import androidx.work.NetworkType;
 import androidx.work.OneTimeWorkRequest;
+import androidx.work.OutOfQuotaPolicy;
 import androidx.work.WorkManager;
 import java.util.concurrent.TimeUnit;
 
@@ -16,10 +20,19 @@ import java.util.concurrent.TimeUnit;
  *
  * <p>Tasks are scheduled as unique, one-time work requests with a defined initial delay and network connectivity requirement. This approach ensures that tasks are executed in an efficient manner, respecting device constraints and optimizing for battery life.</p>
  * <p>The scheduler also provides the ability to cancel all scheduled tasks, offering control over task execution and resource management.</p>
+ *
+ * <p>The workers schedule their own next run while they are still running. Replacing the unique work would cancel
+ * the running worker, so they use the {@code scheduleNext...} variants, which append the next run instead.</p>
+ *
+ * <p>The due times of the check-in and upload are recorded in the {@link WakeupAligner}, so a worker that is about to
+ * run can pull the other one forward with {@link #alignWakeups}.</p>
  */
 public class WorkScheduler {
     protected static final String FLEET_CHECKIN_WORK_NAME = "fleet_checkin";
     protected static final String ELASTICSEARCH_PUT_WORK_NAME = "elasticsearch-put";
+    protected static final String LOG_INGESTION_WORK_NAME = "log-ingestion";
+    protected static final String COMPONENT_COLLECTION_WORK_NAME = "component-collection";
+    private static final long RETRY_BACKOFF_SECONDS = 30; // Initial delay if a worker asks WorkManager for a retry, doubled on every attempt
 
     /**
      * Schedules a one-time fleet check-in work task with a specified delay and under network connectivity constraints.
@@ -31,21 +44,27 @@ public class WorkScheduler {
      */
     public static void scheduleFleetCheckinWorker(Context context, long interval, TimeUnit timeUnit, boolean constraintBatteryNotLow) {
         AppLog.i("WorkScheduler", "Scheduling fleet check-in worker with interval " + interval + " " + timeUnit.toString());
-        Constraints constraints = new Constraints.Builder()
-                .setRequiredNetworkType(NetworkType.CONNECTED)
-                .setRequiresBatteryNotLow(constraintBatteryNotLow)
-                .build();
-
-        OneTimeWorkRequest.Builder builder = new OneTimeWorkRequest.Builder(FleetCheckinWorker.class)
-                .setInitialDelay(interval, timeUnit)
-                .setConstraints(constraints)
-                .addTag(FLEET_CHECKIN_WORK_NAME);
-
-        OneTimeWorkRequest workRequest = builder.build();
+        OneTimeWorkRequest workRequest = buildWorkRequest(FleetCheckinWorker.class, FLEET_CHECKIN_WORK_NAME, interval, timeUnit, constraintBatteryNotLow);
+        WakeupAligner.getInstance().onScheduled(WakeupAligner.Job.FLEET_CHECKIN, SystemClock.elapsedRealtime() + timeUnit.toMillis(interval));
         // We need to use unique work and not a periodic worker, as the interval is dynamic and likely under the minimum scheduling interval of 15 minutes.
         WorkManager.getInstance(context).enqueueUniqueWork(FLEET_CHECKIN_WORK_NAME, ExistingWorkPolicy.REPLACE, workRequest);
     }
 
+    /**
+     * Schedules the next fleet check-in from within the running {@link FleetCheckinWorker}.
+     * The work is appended, so it starts after the running worker completed instead of cancelling it.
+     *
+     * @param context   The application context, used to access the WorkManager instance.
+     * @param interval  The delay before the task is executed, specified in the units provided by the {@code timeUnit} parameter.
+     * @param timeUnit  The time unit for the {@code interval} parameter, e.g., {@link TimeUnit#MINUTES}.
+     */
+    public static void scheduleNextFleetCheckinWorker(Context context, long interval, TimeUnit timeUnit, boolean constraintBatteryNotLow) {
+        AppLog.i("WorkScheduler", "Scheduling next fleet check-in worker with interval " + interval + " " + timeUnit.toString());
+        OneTimeWorkRequest workRequest = buildWorkRequest(FleetCheckinWorker.class, FLEET_CHECKIN_WORK_NAME, interval, timeUnit, constraintBatteryNotLow);
+        WakeupAligner.getInstance().onScheduled(WakeupAligner.Job.FLEET_CHECKIN, SystemClock.elapsedRealtime() + timeUnit.toMillis(interval));
+        WorkManager.getInstance(context).enqueueUniqueWork(FLEET_CHECKIN_WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, workRequest);
+    }
+
     /**
      * Schedules a one-time Elasticsearch document upload work task with a specified delay and under network connectivity constraints.
      * This task enables the application to transmit stored data to Elasticsearch, supporting data analysis and monitoring efforts.
@@ -55,20 +74,122 @@ public class WorkScheduler {
      * @param timeUnit  The time unit for the {@code interval} parameter, e.g., {@link TimeUnit#MINUTES}.
      */
     public static void scheduleElasticsearchWorker(Context context, long interval, TimeUnit timeUnit, boolean constraintBatteryNotLow) {
-        AppLog.i("WorkScheduler", "Scheduling Elasticsearch put worker with interval " + interval + " " + timeUnit.toString());
+        AppLog.i(ElasticWorker.TAG, "Scheduling Elasticsearch put worker with interval " + interval + " " + timeUnit.toString());
+        OneTimeWorkRequest workRequest = buildWorkRequest(ElasticWorker.class, ELASTICSEARCH_PUT_WORK_NAME, interval, timeUnit, constraintBatteryNotLow);
+        WakeupAligner.getInstance().onScheduled(WakeupAligner.Job.ELASTICSEARCH_PUT, SystemClock.elapsedRealtime() + timeUnit.toMillis(interval));
+        // We need to use unique work and not a periodic worker, as the interval is dynamic and likely under the minimum scheduling interval of 15 minutes.
+        WorkManager.getInstance(context).enqueueUniqueWork(ELASTICSEARCH_PUT_WORK_NAME, ExistingWorkPolicy.REPLACE, workRequest);
+    }
+
+    /**
+     * Schedules the next Elasticsearch upload from within the running {@link ElasticWorker}.
+     * The work is appended, so it starts after the running worker completed instead of cancelling it.
+     *
+     * @param context   The application context, used to access the WorkManager instance.
+     * @param interval  The delay before the task is executed, specified in the units provided by the {@code timeUnit} parameter.
+     * @param timeUnit  The time unit for the {@code interval} parameter, e.g., {@link TimeUnit#MINUTES}.
+     */
+    public static void scheduleNextElasticsearchWorker(Context context, long interval, TimeUnit timeUnit, boolean constraintBatteryNotLow) {
+        AppLog.i(ElasticWorker.TAG, "Scheduling next Elasticsearch put worker with interval " + interval + " " + timeUnit.toString());
+        OneTimeWorkRequest workRequest = buildWorkRequest(ElasticWorker.class, ELASTICSEARCH_PUT_WORK_NAME, interval, timeUnit, constraintBatteryNotLow);
+        WakeupAligner.getInstance().onScheduled(WakeupAligner.Job.ELASTICSEARCH_PUT, SystemClock.elapsedRealtime() + timeUnit.toMillis(interval));
+        WorkManager.getInstance(context).enqueueUniqueWork(ELASTICSEARCH_PUT_WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, workRequest);
+    }
+
+    /**
+     * Called by the check-in and upload workers when they start. Reschedules the other job to run right away if it is
+     * due within the {@link PolicyData#wakeupAlignmentWindow}, so both share the wake-up and the radio-active period.
+     *
+     * @param context    The application context, used to access the WorkManager instance.
+     * @param job        The job that is about to run.
+     * @param policyData The current policy.
+     */
+    public static void alignWakeups(Context context, WakeupAligner.Job job, PolicyData policyData) {
+        for (WakeupAligner.Job other : WakeupAligner.getInstance().onStarting(job, SystemClock.elapsedRealtime(), policyData.wakeupAlignmentWindow * 1000L)) {
+            AppLog.i(ElasticWorker.TAG, "Pulling " + other + " forward to share the wake-up of " + job);
+            if (other == WakeupAligner.Job.FLEET_CHECKIN) {
+                scheduleFleetCheckinWorker(context, 0, TimeUnit.SECONDS, policyData.disableIfBatteryLow);
+            } else {
+                scheduleElasticsearchWorker(context, 0, TimeUnit.SECONDS, policyData.disableIfBatteryLow);
+            }
+        }
+    }
+
+    /**
+     * Schedules a {@link ComponentWorker} run, which collects the pull-based components that are due.
+     * Replaces a scheduled run, e.g. after the policy changed the enabled components.
+     *
+     * @param context   The application context, used to access the WorkManager instance.
+     * @param interval  The delay before the task is executed, specified in the units provided by the {@code timeUnit} parameter.
+     * @param timeUnit  The time unit for the {@code interval} parameter, e.g., {@link TimeUnit#MINUTES}.
+     */
+    public static void scheduleComponentWorker(Context context, long interval, TimeUnit timeUnit) {
+        AppLog.i("WorkScheduler", "Scheduling component worker with interval " + interval + " " + timeUnit.toString());
+        WorkManager.getInstance(context).enqueueUniqueWork(COMPONENT_COLLECTION_WORK_NAME, ExistingWorkPolicy.REPLACE, buildComponentWorkRequest(interval, timeUnit));
+    }
+
+    /**
+     * Schedules the next {@link ComponentWorker} run from within the running worker, for the next due component.
+     * The work is appended, so it starts after the running worker completed instead of cancelling it.
+     *
+     * @param context   The application context, used to access the WorkManager instance.
+     * @param interval  The delay before the task is executed, specified in the units provided by the {@code timeUnit} parameter.
+     * @param timeUnit  The time unit for the {@code interval} parameter, e.g., {@link TimeUnit#MINUTES}.
+     */
+    public static void scheduleNextComponentWorker(Context context, long interval, TimeUnit timeUnit) {
+        AppLog.i("WorkScheduler", "Scheduling next component worker with interval " + interval + " " + timeUnit.toString());
+        WorkManager.getInstance(context).enqueueUniqueWork(COMPONENT_COLLECTION_WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, buildComponentWorkRequest(interval, timeUnit));
+    }
+
+    /**
+     * Builds the request of a {@link ComponentWorker} run. Collecting only stores documents in the buffers,
+     * so unlike the other workers it doesn't need a network connection.
+     */
+    private static OneTimeWorkRequest buildComponentWorkRequest(long interval, TimeUnit timeUnit) {
+        return new OneTimeWorkRequest.Builder(ComponentWorker.class)
+                .setInitialDelay(interval, timeUnit)
+                .addTag(COMPONENT_COLLECTION_WORK_NAME)
+                .build();
+    }
+
+    /**
+     * Schedules the ingestion of a security or network log batch as expedited work, see {@link LogIngestionWorker}.
+     * Network log work is unique per batch token, so a repeated broadcast for the same batch doesn't retrieve it twice.
+     * Security logs have no token and every retrieval returns the events logged since the previous one, so their work
+     * is appended to a run that is still in progress; otherwise the events announced meanwhile would wait for the next
+     * broadcast.
+     *
+     * @param context    The application context, used to access the WorkManager instance.
+     * @param type       {@link LogIngestionWorker#TYPE_SECURITY} or {@link LogIngestionWorker#TYPE_NETWORK}.
+     * @param batchToken The token of the network log batch, 0 for security logs.
+     * @param count      The number of events announced, -1 if unknown.
+     */
+    public static void scheduleLogIngestionWorker(Context context, String type, long batchToken, int count) {
+        OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(LogIngestionWorker.class)
+                .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
+                .setInputData(LogIngestionWorker.buildInputData(type, batchToken, count))
+                .addTag(LOG_INGESTION_WORK_NAME)
+                .build();
+        String workName = LOG_INGESTION_WORK_NAME + "-" + type + "-" + batchToken;
+        ExistingWorkPolicy policy = LogIngestionWorker.TYPE_SECURITY.equals(type) ? ExistingWorkPolicy.APPEND_OR_REPLACE : ExistingWorkPolicy.KEEP;
+        WorkManager.getInstance(context).enqueueUniqueWork(workName, policy, workRequest);
+    }
+
+    /**
+     * Builds a one-time work request that requires a network connection and is retried with exponential backoff.
+     */
+    private static OneTimeWorkRequest buildWorkRequest(Class<? extends ListenableWorker> workerClass, String tag, long interval, TimeUnit timeUnit, boolean constraintBatteryNotLow) {
         Constraints constraints = new Constraints.Builder()
                 .setRequiredNetworkType(NetworkType.CONNECTED)
                 .setRequiresBatteryNotLow(constraintBatteryNotLow)
                 .build();
 
-        OneTimeWorkRequest.Builder builder = new OneTimeWorkRequest.Builder(ElasticWorker.class)
+        return new OneTimeWorkRequest.Builder(workerClass)
                 .setInitialDelay(interval, timeUnit)
                 .setConstraints(constraints)
-                .addTag(ELASTICSEARCH_PUT_WORK_NAME);
-
-        OneTimeWorkRequest workRequest = builder.build();
-        // We need to use unique work and not a periodic worker, as the interval is dynamic and likely under the minimum scheduling interval of 15 minutes.
-        WorkManager.getInstance(context).enqueueUniqueWork(ELASTICSEARCH_PUT_WORK_NAME, ExistingWorkPolicy.REPLACE, workRequest);
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, RETRY_BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .addTag(tag)
+                .build();
     }
 
     /**
@@ -79,6 +200,7 @@ public class WorkScheduler {
      */
     public static void cancelAllWork(Context context) {
         AppLog.i("WorkScheduler", "Cancelling all work");
+        WakeupAligner.getInstance().clear();
         WorkManager.getInstance(context).cancelAllWork();
     }
 }
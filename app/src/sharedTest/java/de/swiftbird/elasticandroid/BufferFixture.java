@@ -0,0 +1,40 @@
+package de.swiftbird.elasticandroid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fills component buffers with generated documents, shared by the unit tests and the instrumented benchmarks.
+ */
+final class BufferFixture {
+
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    private static final int INSERT_CHUNK_SIZE = 5_000; // Documents per insert, so large buffers don't need one huge transaction
+
+    private BufferFixture() {}
+
+    /**
+     * Inserts self-log documents named "Message 0" to "Message count - 1", one millisecond apart.
+     *
+     * @param buffer The buffer to fill.
+     * @param count The number of documents to insert.
+     */
+    static void fillSelfLogBuffer(SelfLogCompBuffer buffer, int count) {
+        List<SelfLogCompDocument> chunk = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SelfLogCompDocument document = new SelfLogCompDocument();
+            document.setTimestamp(START_MILLIS + i);
+            document.logLevel = "INFO";
+            document.tag = "BufferFixture";
+            document.message = "Message " + i;
+            chunk.add(document);
+            if (chunk.size() == INSERT_CHUNK_SIZE) {
+                buffer.insertDocuments(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            buffer.insertDocuments(chunk);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package de.swiftbird.elasticandroid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntFunction;
+
+/**
+ * Creates realistic documents of every component type, shared by the unit tests and the instrumented benchmarks.
+ */
+final class DocumentFixture {
+
+    private DocumentFixture() {}
+
+    // Fill the agent and host metadata shared by every document, like ElasticDocument(enrollmentData, policyData) does
+    private static <T extends ElasticDocument> T withMetadata(T document, int i) {
+        document.timestamp = String.format(Locale.US, "2024-05-01T12:%02d:%02d.%03dZ", (i / 60) % 60, i % 60, i % 1000);
+        document.agentEphemeralId = "Unknown";
+        document.agentId = "3f4b2c1e-5d6a-4e7f-8a9b-0c1d2e3f4a5b";
+        document.agentName = "pixel-7-pro";
+        document.agentType = "android";
+        document.agentVersion = "8.13.0";
+        document.hostArchitecture = "aarch64";
+        document.hostHostname = "pixel-7-pro";
+        document.hostId = "b9a8c7d6e5f4a3b2";
+        document.hostIp = Arrays.asList("192.168.178.42", "fe80::1c2d:3e4f:5a6b:7c8d");
+        document.sourceIp = document.hostIp;
+        document.hostMac = "02:00:00:00:00:00";
+        document.hostName = "pixel-7-pro";
+        document.hostOsType = "android";
+        document.hostOsBuild = "5.10.157-android13-4-00001-g5d9b8fc6a9a8-ab10812372";
+        document.hostOsFamily = "Google";
+        document.hostOsKernel = "5.10.157-android13-4-00001-g5d9b8fc6a9a8-ab10812372";
+        document.hostOsPlatform = "android";
+        document.hostOsVersion = "14";
+        document.componentId = "default";
+        document.componentOldState = "Healthy";
+        document.componentState = "Healthy";
+        document.dataStreamDataset = "android.default";
+        document.dataStreamNamespace = "default";
+        document.dataStreamType = "logs";
+        document.ecsVersion = "8.0.0";
+        document.elasticAgentId = document.agentId;
+        document.elasticAgentVersion = "8.13.0";
+        document.elasticAgentIdStatus = "verified";
+        document.eventDataset = "android.default";
+        return document;
+    }
+
+    static SelfLogCompDocument selfLog(int i) {
+        SelfLogCompDocument document = withMetadata(new SelfLogCompDocument(), i);
+        document.logLevel = "INFO";
+        document.tag = "ElasticWorker";
+        document.message = "Scheduling next Elasticsearch PUT in " + (60 + i % 240) + " seconds";
+        return document;
+    }
+
+    static SecurityLogsCompDocument securityLog(int i) {
+        SecurityLogsCompDocument document = withMetadata(new SecurityLogsCompDocument(), i);
+        document.logLevel = "INFO";
+        document.tag = "TAG_APP_PROCESS_START";
+        document.message = "App process started: com.example.app" + (i % 50) + ", uid " + (10000 + i % 50) + ", pid " + (2000 + i);
+        return document;
+    }
+
+    static NetworkLogsCompDocument networkLog(int i) {
+        NetworkLogsCompDocument document = withMetadata(new NetworkLogsCompDocument(), i);
+        document.eventAction = "network_flow";
+        document.eventCategory = "network";
+        document.networkProtocol = "tcp";
+        document.networkTransport = "tcp";
+        document.appPackageName = "com.example.app" + (i % 50);
+        document.processName = document.appPackageName;
+        document.destinationIP = "142.250." + (i % 256) + "." + ((i * 7) % 256);
+        document.destinationPort = 443;
+        document.message = "Connect event from " + document.appPackageName + " to " + document.destinationIP + ":443";
+        return document;
+    }
+
+    static LocationCompDocument location(int i) {
+        LocationCompDocument document = withMetadata(new LocationCompDocument(), i);
+        document.eventAction = "location";
+        document.eventCategory = "host";
+        document.observerGeoLocation = new LocationCompDocument.GeoLocation(52.520008 + i * 0.0001, 13.404954 - i * 0.0001);
+        document.observerGeoCityName = "Berlin";
+        document.observerGeoCountryIsoCode = "DE";
+        document.observerGeoCountryName = "Germany";
+        document.locationProvider = "fused";
+        document.locationAccuracy = 3.5f + (i % 10);
+        document.locationAltitude = 34.0 + (i % 5);
+        document.locationTime = 1714564800000L + i * 60_000L;
+        return document;
+    }
+
+    /**
+     * Creates documents with the given factory, which gets the index of each document to vary its fields.
+     *
+     * @param factory Creates the document with the given index, e.g. {@code DocumentFixture::selfLog}.
+     * @param count The number of documents to create.
+     * @return The documents.
+     */
+    static List<ElasticDocument> createDocuments(IntFunction<ElasticDocument> factory, int count) {
+        List<ElasticDocument> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            documents.add(factory.apply(i));
+        }
+        return documents;
+    }
+}
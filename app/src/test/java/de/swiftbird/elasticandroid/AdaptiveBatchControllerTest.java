@@ -0,0 +1,126 @@
+package de.swiftbird.elasticandroid;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveBatchControllerTest {
+
+    private static final int BYTES_PER_DOCUMENT = 600;
+    private static final int COMPONENTS = 2; // Components with a backlog, each one fills its share of the batch
+    private static final long OVERHEAD_MILLIS = 150; // Connection reuse, TLS and cluster overhead per request
+    private static final long TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * Simulated link and cluster: the latency grows linearly with the payload, requests above the timeout fail
+     * and the cluster answers 429 if a request holds more documents than it can take at once.
+     */
+    private static class Simulation {
+        final AdaptiveBatchController controller = new AdaptiveBatchController();
+        final int maxBatchSize;
+        double bytesPerMilli;
+        int clusterLimit = Integer.MAX_VALUE;
+        int rejected;
+        int accepted;
+        long acceptedBatchSizes;
+        long lastLatencyMillis;
+
+        Simulation(int maxBatchSize, double bytesPerMilli) {
+            this.maxBatchSize = maxBatchSize;
+            this.bytesPerMilli = bytesPerMilli;
+        }
+
+        int run(int requests) {
+            rejected = 0;
+            accepted = 0;
+            acceptedBatchSizes = 0;
+            for (int i = 0; i < requests; i++) {
+                int documents = controller.getBatchSize(maxBatchSize) * COMPONENTS;
+                long bytes = (long) documents * BYTES_PER_DOCUMENT;
+                lastLatencyMillis = OVERHEAD_MILLIS + (long) (bytes / bytesPerMilli);
+                if (lastLatencyMillis > TIMEOUT_MILLIS || documents > clusterLimit) {
+                    controller.onBackpressure(maxBatchSize);
+                    rejected++;
+                } else {
+                    controller.onAccepted(documents, bytes, lastLatencyMillis, true, maxBatchSize);
+                    accepted++;
+                    acceptedBatchSizes += documents / COMPONENTS;
+                }
+            }
+            return controller.getBatchSize(maxBatchSize);
+        }
+    }
+
+    // Largest batch per component that a link can send within the target latency
+    private static int optimalBatchSize(double bytesPerMilli) {
+        return (int) ((AdaptiveBatchController.TARGET_LATENCY_MILLIS - OVERHEAD_MILLIS) * bytesPerMilli / (COMPONENTS * BYTES_PER_DOCUMENT));
+    }
+
+    @Test
+    public void slowLink_convergesToTargetLatency() {
+        double bytesPerMilli = 40; // About 40 KB/s, a poor mobile link
+        Simulation simulation = new Simulation(5000, bytesPerMilli);
+        int optimal = optimalBatchSize(bytesPerMilli);
+
+        // Starting from the policy maximum, the first requests time out
+        simulation.run(10);
+        Assert.assertTrue(simulation.rejected <= 5);
+
+        int batchSize = simulation.run(100);
+
+        Assert.assertTrue("Batch size " + batchSize + " should be close to " + optimal, batchSize >= optimal / 2 && batchSize <= optimal);
+        Assert.assertEquals(0, simulation.rejected);
+        Assert.assertTrue("Latency " + simulation.lastLatencyMillis + " ms should be within the target",
+                simulation.lastLatencyMillis <= AdaptiveBatchController.TARGET_LATENCY_MILLIS);
+    }
+
+    @Test
+    public void fastLink_growsToPolicyMaximum() {
+        Simulation simulation = new Simulation(1000, 5_000); // About 5 MB/s
+        simulation.clusterLimit = 0; // Start at the minimum after a 429 storm
+        Assert.assertEquals(AdaptiveBatchController.MIN_BATCH_SIZE, simulation.run(20));
+
+        simulation.clusterLimit = Integer.MAX_VALUE;
+        Assert.assertEquals(1000, simulation.run(15));
+        Assert.assertEquals(1000, simulation.run(50)); // Never above the policy
+    }
+
+    @Test
+    public void linkGettingSlower_shrinksWithinFewRequests() {
+        Simulation simulation = new Simulation(2000, 5_000);
+        simulation.run(20);
+
+        simulation.bytesPerMilli = 50; // E.g. from Wi-Fi to a mobile link
+        int batchSize = simulation.run(10);
+        Assert.assertTrue("Batch size " + batchSize + " should fit the slower link", batchSize <= optimalBatchSize(50) * 1.1);
+        Assert.assertTrue(simulation.lastLatencyMillis <= AdaptiveBatchController.TARGET_LATENCY_MILLIS * 1.1);
+    }
+
+    @Test
+    public void overloadedCluster_staysBelowItsLimit() {
+        Simulation simulation = new Simulation(2000, 5_000);
+        simulation.clusterLimit = 600; // The cluster answers 429 above 300 documents per component
+        simulation.run(50); // Warm-up
+
+        simulation.run(200);
+        long average = simulation.acceptedBatchSizes / simulation.accepted;
+
+        Assert.assertTrue("Average batch size " + average + " should use most of the capacity", average >= 200);
+        Assert.assertTrue(simulation.rejected + " of 200 requests rejected, only few should be", simulation.rejected <= 30);
+    }
+
+    @Test
+    public void restore_continuesWithPersistedStateAndPolicyCap() {
+        AppStatisticsData statistics = new AppStatisticsData();
+        statistics.adaptiveBatchSize = 120;
+        statistics.bulkLatencyMillis = 800;
+
+        AdaptiveBatchController controller = new AdaptiveBatchController();
+        controller.restore(statistics);
+        Assert.assertEquals(120, controller.getBatchSize(500));
+        Assert.assertEquals(100, controller.getBatchSize(100)); // The policy was lowered
+
+        statistics.adaptiveBatchSize = 50;
+        controller.restore(statistics); // Already has a state
+        Assert.assertEquals(100, controller.getBatchSize(100));
+    }
+}
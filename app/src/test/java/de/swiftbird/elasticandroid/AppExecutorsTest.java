@@ -0,0 +1,35 @@
+package de.swiftbird.elasticandroid;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AppExecutorsTest {
+
+    @Test
+    public void callbacks_runOnCallerInsteadOfRejectingWhenFull() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        long runByCaller = AppExecutors.getCallbacksRunByCaller();
+        try {
+            // Occupy both threads and fill the queue
+            for (int i = 0; i < 2 + 256; i++) {
+                AppExecutors.callbacks().execute(() -> {
+                    try {
+                        blocked.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ignored) {
+                    }
+                });
+            }
+
+            AtomicReference<Thread> thread = new AtomicReference<>();
+            AppExecutors.callbacks().execute(() -> thread.set(Thread.currentThread())); // Must not throw
+
+            Assert.assertSame("The overflowing callback runs on the submitting thread", Thread.currentThread(), thread.get());
+            Assert.assertEquals(runByCaller + 1, AppExecutors.getCallbacksRunByCaller());
+        } finally {
+            blocked.countDown();
+        }
+    }
+}
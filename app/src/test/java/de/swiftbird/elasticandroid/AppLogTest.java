@@ -0,0 +1,252 @@
+package de.swiftbird.elasticandroid;
+
+import android.os.Build;
+import androidx.annotation.NonNull;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.N})  // API 24
+public class AppLogTest {
+
+    private static final String TAG = "AppLogTest";
+
+    private AppDatabase db;
+    private SelfLogCompBuffer buffer;
+    private IngestionContext ingestionContext;
+    private RecordingScheduler scheduler;
+
+    /**
+     * Records the delays of the scheduled flushes instead of running them, the tests flush into their own database.
+     */
+    private static class RecordingScheduler extends ScheduledThreadPoolExecutor {
+        final List<Long> delays = new CopyOnWriteArrayList<>();
+
+        RecordingScheduler() {
+            super(1);
+        }
+
+        @NonNull
+        @Override
+        public ScheduledFuture<?> schedule(@NonNull Runnable command, long delay, @NonNull TimeUnit unit) {
+            delays.add(unit.toMillis(delay));
+            return super.schedule(() -> {}, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Before
+    public void setUp() throws InterruptedException {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        buffer = db.selfLogCompBuffer();
+
+        FleetEnrollData enrollmentData = new FleetEnrollData();
+        enrollmentData.agentId = "agent";
+        enrollmentData.hostname = "host";
+        ingestionContext = IngestionContext.of(enrollmentData, applyPolicy("android://self-log.warn"));
+
+        // A flush scheduled by an earlier test would write to the app database and drop the records of this test
+        ThreadPoolExecutor appScheduler = (ThreadPoolExecutor) AppExecutors.scheduler();
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((!appScheduler.getQueue().isEmpty() || appScheduler.getActiveCount() > 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        scheduler = new RecordingScheduler();
+        AppLog.reset(scheduler);
+    }
+
+    @After
+    public void tearDown() {
+        AppLog.reset(AppExecutors.scheduler());
+        ComponentPlan.apply(null);
+        scheduler.shutdownNow();
+        db.close();
+    }
+
+    private static PolicyData applyPolicy(String paths) {
+        PolicyData policyData = new PolicyData();
+        policyData.paths = paths;
+        ComponentPlan.apply(policyData);
+        return policyData;
+    }
+
+    // Every record gets its own tag, so none of them is rate limited or collapsed
+    private static void logDistinct(int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            AppLog.w("Tag" + i, "Message " + i);
+        }
+    }
+
+    private List<String> storedMessages(String tagPattern) {
+        List<String> messages = new ArrayList<>();
+        for (SelfLogCompDocument document : buffer.getAllDocuments()) {
+            if (document.tag.matches(tagPattern)) {
+                messages.add(document.logLevel + " " + document.message);
+            }
+        }
+        return messages;
+    }
+
+    @Test
+    public void tokenBucket_allowsBurstThenSustainedRate() {
+        AppLog.TokenBucket bucket = new AppLog.TokenBucket(5, 2.0, 0);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(bucket.tryAcquire(0));
+        }
+        Assert.assertFalse(bucket.tryAcquire(0));
+        Assert.assertFalse(bucket.tryAcquire(400)); // 0.8 tokens refilled
+        Assert.assertTrue(bucket.tryAcquire(500));
+
+        // A long pause refills the bucket to its capacity, not beyond
+        int allowed = 0;
+        while (bucket.tryAcquire(60_000)) {
+            allowed++;
+        }
+        Assert.assertEquals(5, allowed);
+    }
+
+    @Test
+    public void insert_rejectsRecordsBelowCompiledThreshold() {
+        AppLog.d(TAG, "Debug");
+        AppLog.i(TAG, "Info");
+        AppLog.w(TAG, "Warning");
+        AppLog.e(TAG, "Error");
+        Assert.assertEquals("Only the first accepted record schedules a flush", 1, scheduler.delays.size());
+
+        // The rejected records were never buffered, so enabling all levels before the flush doesn't bring them back
+        applyPolicy("android://self-log.debug");
+        AppLog.flush(ingestionContext, buffer);
+
+        Assert.assertEquals(Arrays.asList("WARN Warning", "ERROR Error"), storedMessages(TAG));
+    }
+
+    @Test
+    public void insert_flushesImmediatelyWhenBatchIsFull() {
+        logDistinct(0, AppLog.FLUSH_BATCH_SIZE - 1);
+        Assert.assertEquals("Only the first record schedules a delayed flush", 1, scheduler.delays.size());
+        Assert.assertTrue(scheduler.delays.get(0) > 0);
+
+        logDistinct(AppLog.FLUSH_BATCH_SIZE - 1, 1);
+        Assert.assertEquals(2, scheduler.delays.size());
+        Assert.assertEquals("A full batch brings the flush forward", 0L, (long) scheduler.delays.get(1));
+    }
+
+    @Test
+    public void insert_dropsOldestRecordWhenBufferIsFull() {
+        logDistinct(0, AppLog.BUFFER_CAPACITY + 5);
+        Assert.assertEquals(5, AppLog.getDroppedLogCount());
+
+        AppLog.flush(ingestionContext, buffer);
+
+        List<String> messages = storedMessages("Tag\\d+");
+        Assert.assertEquals(AppLog.BUFFER_CAPACITY, messages.size());
+        Assert.assertEquals("WARN Message 5", messages.get(0));
+        Assert.assertEquals("WARN Message " + (AppLog.BUFFER_CAPACITY + 4), messages.get(messages.size() - 1));
+
+        // The drop is reported once, before the first written record
+        Assert.assertEquals(Collections.singletonList("WARN Dropped 5 log messages because the self-log buffer was full or could not be written"), storedMessages("AppLog"));
+        Assert.assertEquals("AppLog", buffer.getAllDocuments().get(0).tag);
+        Assert.assertEquals(0, AppLog.getDroppedLogCount());
+    }
+
+    @Test
+    public void flush_dropsOnlyFailedBatch() {
+        logDistinct(0, 2 * AppLog.FLUSH_BATCH_SIZE + 50);
+
+        // Every insert fails, as if the database was full
+        SelfLogCompBuffer failingBuffer = (SelfLogCompBuffer) Proxy.newProxyInstance(SelfLogCompBuffer.class.getClassLoader(),
+                new Class<?>[]{SelfLogCompBuffer.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("insertDocumentsAndCount")) {
+                        throw new IllegalStateException("database or disk is full");
+                    }
+                    try {
+                        return method.invoke(buffer, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        AppLog.flush(ingestionContext, failingBuffer);
+
+        Assert.assertTrue(storedMessages("Tag\\d+").isEmpty());
+        Assert.assertEquals(AppLog.FLUSH_BATCH_SIZE, AppLog.getDroppedLogCount());
+
+        // The remaining records were kept and are written with the report of the dropped batch
+        AppLog.flush(ingestionContext, buffer);
+
+        List<String> messages = storedMessages("Tag\\d+");
+        Assert.assertEquals(AppLog.FLUSH_BATCH_SIZE + 50, messages.size());
+        Assert.assertEquals("WARN Message " + AppLog.FLUSH_BATCH_SIZE, messages.get(0));
+        Assert.assertEquals(Collections.singletonList("WARN Dropped " + AppLog.FLUSH_BATCH_SIZE + " log messages because the self-log buffer was full or could not be written"), storedMessages("AppLog"));
+        Assert.assertEquals(0, AppLog.getDroppedLogCount());
+    }
+
+    @Test
+    public void insert_collapsesRepeatsIntoRecordWithLastTimestamp() throws InterruptedException {
+        AppLog.w(TAG, "Same");
+        Thread.sleep(20);
+        AppLog.w(TAG, "Same");
+        Thread.sleep(20);
+        long beforeLast = System.currentTimeMillis();
+        AppLog.w(TAG, "Same");
+        AppLog.w(TAG, "Other");
+
+        AppLog.flush(ingestionContext, buffer);
+
+        List<SelfLogCompDocument> documents = buffer.getAllDocuments();
+        Assert.assertEquals(Arrays.asList("WARN Same", "WARN Last message repeated 2 times", "WARN Other"), storedMessages(TAG));
+        Assert.assertTrue("The repeat record is timestamped with the last repetition", documents.get(1).timestampMillis >= beforeLast);
+        Assert.assertTrue(documents.get(0).timestampMillis < beforeLast);
+    }
+
+    @Test
+    public void insert_reportsSuppressedRecordsOfRateLimitedTag() {
+        for (int i = 0; i < AppLog.RATE_LIMIT_BURST + 5; i++) {
+            AppLog.w(TAG, "Message " + i);
+        }
+
+        AppLog.flush(ingestionContext, buffer);
+
+        List<String> messages = storedMessages(TAG);
+        Assert.assertEquals(AppLog.RATE_LIMIT_BURST + 1, messages.size());
+        Assert.assertEquals("WARN Message " + (AppLog.RATE_LIMIT_BURST - 1), messages.get(AppLog.RATE_LIMIT_BURST - 1));
+        Assert.assertEquals("WARN Rate limited, suppressed 5 log messages of this tag", messages.get(AppLog.RATE_LIMIT_BURST));
+
+        // The count is reset once it was reported
+        AppLog.flush(ingestionContext, buffer);
+        Assert.assertEquals(AppLog.RATE_LIMIT_BURST + 1, storedMessages(TAG).size());
+    }
+
+    @Test
+    public void insert_skipsDebugAndInfoOfPipelineTags() {
+        applyPolicy("android://self-log.debug");
+        AppLog.i(ElasticWorker.TAG, "Uploading");
+        AppLog.d("AppLog", "Flushing");
+        AppLog.i(TAG, "Info");
+        AppLog.w(ElasticWorker.TAG, "Upload failed");
+
+        AppLog.flush(ingestionContext, buffer);
+
+        Assert.assertEquals(Collections.singletonList("INFO Info"), storedMessages(TAG));
+        Assert.assertEquals(Collections.singletonList("WARN Upload failed"), storedMessages(ElasticWorker.TAG));
+        Assert.assertTrue(storedMessages("AppLog").isEmpty());
+    }
+}
@@ -0,0 +1,154 @@
+package de.swiftbird.elasticandroid;
+
+import android.database.Cursor;
+import android.os.Build;
+import androidx.room.Room;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.test.core.app.ApplicationProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.N})  // API 24
+public class BufferDrainTest {
+
+    private AppDatabase db;
+    private SelfLogCompBuffer buffer;
+    private final List<RecordedStatement> statements = new CopyOnWriteArrayList<>(); // Every statement run by the DAOs
+
+    private static class RecordedStatement {
+        final String sql;
+        final Object[] bindArgs;
+
+        RecordedStatement(String sql, List<Object> bindArgs) {
+            this.sql = sql;
+            this.bindArgs = bindArgs.toArray();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), AppDatabase.class)
+                .allowMainThreadQueries()
+                .setQueryCallback((sql, bindArgs) -> statements.add(new RecordedStatement(sql, bindArgs)), Runnable::run)
+                .build();
+        buffer = db.selfLogCompBuffer();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void claim_walksBufferInInsertionOrderFromCursor() {
+        BufferFixture.fillSelfLogBuffer(buffer, 10);
+
+        List<SelfLogCompDocument> first = buffer.claimOldestDocuments("first", 1L, 0, 4);
+        Assert.assertEquals(4, first.size());
+        int cursor = first.get(first.size() - 1).getBufferId();
+
+        List<SelfLogCompDocument> second = buffer.claimOldestDocuments("second", 1L, cursor, 4);
+        Assert.assertEquals(4, second.size());
+        Assert.assertTrue(second.get(0).getBufferId() > cursor);
+        Assert.assertEquals("Message 4", second.get(0).message);
+
+        // Released documents are claimed again when starting from the beginning
+        Assert.assertEquals(4, buffer.releaseClaimedDocuments("first"));
+        List<SelfLogCompDocument> third = buffer.claimOldestDocuments("third", 1L, 0, 10);
+        Assert.assertEquals(6, third.size());
+        Assert.assertEquals("Message 0", third.get(0).message);
+    }
+
+    @Test
+    public void bufferTables_haveOnlyBatchIndex() {
+        for (String table : AppDatabase.BUFFER_TABLES) {
+            List<String> indices = new ArrayList<>();
+            try (Cursor cursor = db.getOpenHelper().getWritableDatabase().query("PRAGMA index_list(`" + table + "`)")) {
+                while (cursor.moveToNext()) {
+                    indices.add(cursor.getString(cursor.getColumnIndexOrThrow("name")));
+                }
+            }
+            Assert.assertTrue(table + ": " + indices, indices.contains("index_" + table + "_batch_id"));
+            Assert.assertFalse("No query searches by timestamp: " + indices, indices.contains("index_" + table + "_timestamp_millis"));
+        }
+    }
+
+    // Plan of a statement as recorded from a DAO, with the arguments it was run with
+    private List<String> queryPlan(RecordedStatement statement) {
+        List<String> details = new ArrayList<>();
+        try (Cursor cursor = db.getOpenHelper().getWritableDatabase().query(new SimpleSQLiteQuery("EXPLAIN QUERY PLAN " + statement.sql, statement.bindArgs))) {
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(cursor.getColumnIndexOrThrow("detail")));
+            }
+        }
+        return details;
+    }
+
+    // Draining a batch must not get slower as the backlog grows: the statements the DAOs run to claim a batch, read
+    // it back, settle it and find the oldest document must search by key instead of scanning or sorting the buffer.
+    // The timing itself is measured by the instrumented BufferDrainBenchmark.
+    @Test
+    public void drainStatements_searchByKeyWithoutSorting() {
+        BufferFixture.fillSelfLogBuffer(buffer, 10);
+        statements.clear();
+
+        SelfLogCompBuffer selfLog = db.selfLogCompBuffer();
+        selfLog.claimOldestDocuments("batch", 1L, 0, 4);
+        selfLog.getOldestTimestampMillis();
+        selfLog.releaseClaimedDocuments("batch", List.of(1));
+        selfLog.releaseClaimedDocuments("batch");
+        selfLog.deleteClaimedDocuments("batch");
+
+        SecurityLogsCompBuffer securityLogs = db.securityLogCompBuffer();
+        securityLogs.claimOldestDocuments("batch", 1L, 0, 4);
+        securityLogs.getOldestTimestampMillis();
+        securityLogs.releaseClaimedDocuments("batch", List.of(1));
+        securityLogs.releaseClaimedDocuments("batch");
+        securityLogs.deleteClaimedDocuments("batch");
+
+        NetworkLogsCompBuffer networkLogs = db.networkLogsCompBuffer();
+        networkLogs.claimOldestDocuments("batch", 1L, 0, 4);
+        networkLogs.getOldestTimestampMillis();
+        networkLogs.releaseClaimedDocuments("batch", List.of(1));
+        networkLogs.releaseClaimedDocuments("batch");
+        networkLogs.deleteClaimedDocuments("batch");
+
+        LocationCompBuffer location = db.locationCompBuffer();
+        location.claimOldestDocuments("batch", 1L, 0, 4);
+        location.getOldestTimestampMillis();
+        location.releaseClaimedDocuments("batch", List.of(1));
+        location.releaseClaimedDocuments("batch");
+        location.deleteClaimedDocuments("batch");
+
+        List<RecordedStatement> recorded = new ArrayList<>(statements);
+        for (String table : AppDatabase.BUFFER_TABLES) {
+            Set<String> checked = new HashSet<>();
+            for (RecordedStatement statement : recorded) {
+                if (!statement.sql.contains(" " + table + " ")) {
+                    continue;
+                }
+                checked.add(statement.sql);
+                List<String> plan = queryPlan(statement);
+                for (String detail : plan) {
+                    Assert.assertFalse(statement.sql + " must not sort: " + plan, detail.contains("TEMP B-TREE"));
+                    if (detail.contains(table)) {
+                        Assert.assertTrue(statement.sql + " must search by key: " + plan, detail.startsWith("SEARCH"));
+                    }
+                }
+            }
+            // Claim, read back, oldest document, release of single documents and of the batch, acknowledgement
+            Assert.assertEquals(table + ": " + checked, 6, checked.size());
+        }
+    }
+}
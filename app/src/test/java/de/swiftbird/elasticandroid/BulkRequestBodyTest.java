@@ -0,0 +1,151 @@
+package de.swiftbird.elasticandroid;
+
+import com.google.gson.Gson;
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+public class BulkRequestBodyTest {
+
+    /**
+     * Sink that discards everything written to it, but keeps track of the total amount of bytes
+     * and the largest chunk that was handed over at once (i.e. the peak held in memory by the body).
+     */
+    private static class MeasuringSink extends ForwardingSink {
+        long totalBytes = 0;
+        long peakBytes = 0;
+
+        MeasuringSink() {
+            super(Okio.blackhole());
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            totalBytes += byteCount;
+            peakBytes = Math.max(peakBytes, byteCount);
+            super.write(source, byteCount);
+        }
+    }
+
+    private static List<ElasticDocument> createDocuments(int count) {
+        List<ElasticDocument> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SelfLogCompDocument document = new SelfLogCompDocument();
+            document.logLevel = "INFO";
+            document.tag = "BulkRequestBodyTest";
+            document.message = "Document number " + i + " with some payload to make it a bit larger than tiny";
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    private static MeasuringSink writeBody(int documentCount) throws IOException {
+        MeasuringSink measuringSink = new MeasuringSink();
+        BufferedSink sink = Okio.buffer(measuringSink);
+        new BulkRequestBody(createDocuments(documentCount), new Gson()).writeTo(sink);
+        sink.flush();
+        return measuringSink;
+    }
+
+    // The body has to produce the same NDJSON as the previous StringBuilder based implementation
+    @Test
+    public void writeTo_producesNdjsonWithActionLinePerDocument() throws IOException {
+        Gson gson = new Gson();
+        List<ElasticDocument> documents = createDocuments(3);
+
+        Buffer buffer = new Buffer();
+        new BulkRequestBody(documents, gson).writeTo(buffer);
+
+        StringBuilder expected = new StringBuilder();
+        for (ElasticDocument document : documents) {
+            expected.append("{\"create\": {}}").append("\n");
+            expected.append(gson.toJson(document)).append("\n");
+        }
+        Assert.assertEquals(expected.toString(), buffer.readUtf8());
+    }
+
+    @Test
+    public void getBytesWritten_matchesPayloadSize() throws IOException {
+        List<ElasticDocument> documents = createDocuments(50);
+        ((SelfLogCompDocument) documents.get(0)).message = "Umlauts take two bytes: \u00e4\u00f6\u00fc";
+        BulkRequestBody body = new BulkRequestBody(documents, new Gson());
+        Assert.assertEquals(0, body.getBytesWritten());
+
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        Assert.assertEquals(buffer.size(), body.getBytesWritten());
+    }
+
+    // The byte budget relies on the measured sizes adding up to the written payload
+    @Test
+    public void measure_matchesWrittenBytes() throws IOException {
+        Gson gson = ElasticDocument.createGson();
+        List<ElasticDocument> documents = createDocuments(20);
+        ((SelfLogCompDocument) documents.get(1)).message = "Umlauts \u00e4\u00f6\u00fc, euro \u20ac and an emoji \ud83d\ude00";
+        ((SelfLogCompDocument) documents.get(2)).message = "Escaped \"quotes\", <html> and a\nnewline";
+
+        long measured = 0;
+        for (ElasticDocument document : documents) {
+            measured += BulkRequestBody.measure(document, gson);
+        }
+
+        Buffer buffer = new Buffer();
+        new BulkRequestBody(documents, gson).writeTo(buffer);
+        Assert.assertEquals(buffer.size(), measured);
+    }
+
+    @Test
+    public void writeTo_stopsWhereTheByteBudgetRunsOut() throws IOException {
+        Gson gson = ElasticDocument.createGson();
+        List<ElasticDocument> documents = createDocuments(5);
+        ((SelfLogCompDocument) documents.get(2)).message = "A document larger than expected " + "x".repeat(2000);
+        long budget = BulkRequestBody.measure(documents.get(0), gson) + BulkRequestBody.measure(documents.get(1), gson) + 100;
+
+        BulkRequestBody body = new BulkRequestBody(documents, gson, budget);
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+
+        Assert.assertEquals(2, body.getDocumentsWritten());
+        Assert.assertEquals(buffer.size(), body.getBytesWritten());
+        Assert.assertTrue(body.getBytesWritten() <= budget);
+        Assert.assertTrue(BulkRequestBody.getLargestDocumentBytes() >= BulkRequestBody.measure(documents.get(2), gson));
+    }
+
+    @Test
+    public void writeTo_alwaysWritesTheFirstDocument() throws IOException {
+        BulkRequestBody body = new BulkRequestBody(createDocuments(3), new Gson(), 1);
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+
+        Assert.assertEquals(1, body.getDocumentsWritten());
+        Assert.assertEquals(2, buffer.readUtf8().split("\n").length);
+    }
+
+    @Test
+    public void contentLength_isUnknownForStreamingBody() {
+        BulkRequestBody body = new BulkRequestBody(createDocuments(1), new Gson());
+
+        Assert.assertEquals(-1, body.contentLength());
+        Assert.assertEquals("application/x-ndjson", String.valueOf(body.contentType()));
+    }
+
+    // Peak memory held by the body must not grow with the batch size
+    @Test
+    public void writeTo_peakAllocationIsIndependentOfBatchSize() throws IOException {
+        MeasuringSink small = writeBody(100);
+        MeasuringSink large = writeBody(10_000);
+
+        // The large batch really is a lot bigger than what is ever held at once
+        Assert.assertTrue("Large batch should write ~100x more bytes", large.totalBytes > small.totalBytes * 90);
+        Assert.assertTrue("Peak should be a tiny fraction of the payload", large.peakBytes * 100 < large.totalBytes);
+
+        // Peak is bounded by a segment plus one document, for both batch sizes
+        Assert.assertTrue("Peak must not scale with the batch size", large.peakBytes <= small.peakBytes * 2);
+    }
+}
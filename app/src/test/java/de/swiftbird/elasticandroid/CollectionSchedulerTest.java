@@ -0,0 +1,147 @@
+package de.swiftbird.elasticandroid;
+
+import android.content.Context;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CollectionSchedulerTest {
+
+    /**
+     * Pull-based component that only counts its collections.
+     */
+    private static class PullComponent implements Component {
+        final long intervalSeconds;
+        int collections;
+
+        PullComponent(long intervalSeconds) {
+            this.intervalSeconds = intervalSeconds;
+        }
+
+        @Override
+        public boolean setup(Context context, FleetEnrollData enrollmentData, PolicyData policyData, String subComponent) {
+            return true;
+        }
+
+        @Override
+        public void collectEvents(FleetEnrollData enrollmentData, PolicyData policyData) {
+            collections++;
+        }
+
+        @Override
+        public long getCollectionIntervalSeconds() {
+            return intervalSeconds;
+        }
+
+        @Override
+        public void addDocumentToBuffer(ElasticDocument document) {}
+
+        @Override
+        public void addDocumentsToBuffer(List<? extends ElasticDocument> documents) {}
+
+        @Override
+        public <T extends ElasticDocument> List<T> claimDocumentsFromBuffer(String batchId, int afterId, int maxDocuments) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public int acknowledgeDocuments(String batchId) {
+            return 0;
+        }
+
+        @Override
+        public int releaseDocuments(String batchId) {
+            return 0;
+        }
+
+        @Override
+        public int releaseDocuments(String batchId, List<Integer> documentIds) {
+            return 0;
+        }
+
+        @Override
+        public int releaseStaleClaims(long claimedBefore) {
+            return 0;
+        }
+
+        @Override
+        public int getDocumentsInBufferCount() {
+            return 0;
+        }
+
+        @Override
+        public String getPathName() {
+            return "pull-test";
+        }
+    }
+
+    private static List<ComponentPlan.Entry> entries(Component... components) {
+        List<ComponentPlan.Entry> entries = new ArrayList<>();
+        for (Component component : components) {
+            entries.add(new ComponentPlan.Entry("android://pull-test", component, ""));
+        }
+        return entries;
+    }
+
+    /**
+     * Runs the scheduler like the ComponentWorker for the given time and returns the number of wake-ups.
+     */
+    private static int simulate(CollectionScheduler scheduler, List<ComponentPlan.Entry> enabled, long durationMillis) {
+        long now = 0;
+        int wakeups = 0;
+        while (now < durationMillis) {
+            wakeups++;
+            for (ComponentPlan.Entry entry : scheduler.claimDue(enabled, now)) {
+                entry.getComponent().collectEvents(null, null);
+            }
+            long delay = scheduler.getNextWakeupDelayMillis(now);
+            if (delay < 0) {
+                break;
+            }
+            now += delay;
+        }
+        return wakeups;
+    }
+
+    @Test
+    public void claimDue_coalescesComponentsDueWithinTheWindow() {
+        CollectionScheduler scheduler = new CollectionScheduler();
+        PullComponent fiveMinutes = new PullComponent(300);
+        PullComponent almostFiveMinutes = new PullComponent(290);
+        PullComponent hourly = new PullComponent(3600);
+        List<ComponentPlan.Entry> enabled = entries(fiveMinutes, almostFiveMinutes, hourly);
+
+        int wakeups = simulate(scheduler, enabled, 60 * 60 * 1000);
+
+        int collections = fiveMinutes.collections + almostFiveMinutes.collections + hourly.collections;
+        Assert.assertEquals("One wake-up per 290 s, the 300 s component is pulled forward", 13, wakeups);
+        Assert.assertTrue("Without coalescing every collection would be its own wake-up", collections > wakeups);
+        Assert.assertEquals(1, hourly.collections);
+    }
+
+    @Test
+    public void claimDue_ignoresEventDrivenAndDuplicateComponents() {
+        CollectionScheduler scheduler = new CollectionScheduler();
+        PullComponent pull = new PullComponent(60);
+        PullComponent eventDriven = new PullComponent(0);
+
+        List<ComponentPlan.Entry> due = scheduler.claimDue(entries(pull, pull, eventDriven), 0);
+
+        Assert.assertEquals(1, due.size());
+        Assert.assertSame(pull, due.get(0).getComponent());
+        Assert.assertEquals(60 * 1000, scheduler.getNextWakeupDelayMillis(0));
+        Assert.assertTrue("Not due before the interval", scheduler.claimDue(entries(pull), 1000).isEmpty());
+    }
+
+    @Test
+    public void getNextWakeupDelayMillis_forgetsDisabledComponents() {
+        CollectionScheduler scheduler = new CollectionScheduler();
+        scheduler.claimDue(entries(new PullComponent(60)), 0);
+
+        scheduler.claimDue(Arrays.asList(), 1000); // Removed by the policy
+
+        Assert.assertEquals(-1, scheduler.getNextWakeupDelayMillis(1000));
+    }
+}
@@ -0,0 +1,158 @@
+package de.swiftbird.elasticandroid;
+
+import android.content.Context;
+import android.os.Build;
+import androidx.test.core.app.ApplicationProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.N})  // API 24
+public class ComponentLifecycleManagerTest {
+
+    private static final String KEY = "android://lifecycle-test";
+
+    /**
+     * Component that only counts its transitions.
+     */
+    private static class CountingComponent implements Component {
+        final List<String> setups = new ArrayList<>();
+        int disables;
+        boolean setupSucceeds = true;
+
+        @Override
+        public boolean setup(Context context, FleetEnrollData enrollmentData, PolicyData policyData, String subComponent) {
+            setups.add(subComponent);
+            return setupSucceeds;
+        }
+
+        @Override
+        public void disable(Context context, FleetEnrollData enrollmentData, PolicyData policyData) {
+            disables++;
+        }
+
+        @Override
+        public void addDocumentToBuffer(ElasticDocument document) {}
+
+        @Override
+        public void addDocumentsToBuffer(List<? extends ElasticDocument> documents) {}
+
+        @Override
+        public <T extends ElasticDocument> List<T> claimDocumentsFromBuffer(String batchId, int afterId, int maxDocuments) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public int acknowledgeDocuments(String batchId) {
+            return 0;
+        }
+
+        @Override
+        public int releaseDocuments(String batchId) {
+            return 0;
+        }
+
+        @Override
+        public int releaseDocuments(String batchId, List<Integer> documentIds) {
+            return 0;
+        }
+
+        @Override
+        public int releaseStaleClaims(long claimedBefore) {
+            return 0;
+        }
+
+        @Override
+        public int getDocumentsInBufferCount() {
+            return 0;
+        }
+
+        @Override
+        public String getPathName() {
+            return "lifecycle-test";
+        }
+    }
+
+    private Context context;
+    private CountingComponent component;
+    private ComponentLifecycleManager manager;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        component = new CountingComponent();
+        ComponentFactory.registerComponent(KEY, () -> component);
+        manager = new ComponentLifecycleManager();
+    }
+
+    private List<ComponentPlan.Entry> apply(String paths) {
+        PolicyData policyData = new PolicyData();
+        policyData.paths = paths;
+        return manager.apply(context, null, policyData, ComponentPlan.compile(policyData));
+    }
+
+    @Test
+    public void apply_setsUpOnlyOnTransitions() {
+        Assert.assertEquals(1, apply(KEY + ".a").size());
+        apply(KEY + ".a");
+        apply(KEY + ".a");
+        Assert.assertEquals(1, component.setups.size());
+        Assert.assertEquals(ComponentLifecycleManager.State.ENABLED, manager.getState(component));
+
+        apply("android://self-log.warn"); // Removed by the policy
+        apply("android://self-log.warn");
+        Assert.assertEquals(1, component.disables);
+        Assert.assertEquals(ComponentLifecycleManager.State.DISABLED, manager.getState(component));
+
+        apply(KEY + ".a"); // Added again
+        Assert.assertEquals(2, component.setups.size());
+    }
+
+    @Test
+    public void apply_reconfiguresOnNewSubComponent() {
+        apply(KEY + ".fine?minTimeMs=1000&minDistanceMeters=5");
+        List<ComponentPlan.Entry> enabled = apply(KEY + ".coarse");
+
+        Assert.assertEquals(1, component.disables);
+        Assert.assertEquals("coarse", component.setups.get(1));
+        Assert.assertEquals("coarse", enabled.get(0).getSubComponent());
+    }
+
+    @Test
+    public void apply_disablesUninitializedComponentOnce() {
+        apply("android://self-log.warn");
+        apply("android://self-log.warn");
+
+        Assert.assertEquals(1, component.disables); // Undoes what a previous process may have enabled
+        Assert.assertTrue(component.setups.isEmpty());
+    }
+
+    @Test
+    public void apply_doesNotRetryFailedSetupOnEveryRun() {
+        component.setupSucceeds = false;
+        Assert.assertTrue(apply(KEY + ".a").isEmpty());
+        Assert.assertTrue(apply(KEY + ".a").isEmpty());
+        Assert.assertEquals(1, component.setups.size());
+        Assert.assertEquals(ComponentLifecycleManager.State.DISABLED, manager.getState(component));
+
+        component.setupSucceeds = true;
+        Assert.assertEquals(1, apply(KEY + ".b").size()); // A policy change retries right away
+        Assert.assertEquals(2, component.setups.size());
+    }
+
+    @Test
+    public void apply_setsUpComponentListedTwiceOnce() {
+        List<ComponentPlan.Entry> enabled = apply(KEY + ".a," + KEY + ".b");
+        apply(KEY + ".a," + KEY + ".b");
+
+        Assert.assertEquals(2, enabled.size());
+        Assert.assertEquals(1, component.setups.size());
+        Assert.assertEquals(0, component.disables);
+    }
+}
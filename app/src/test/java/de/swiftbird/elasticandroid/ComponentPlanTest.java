@@ -0,0 +1,69 @@
+package de.swiftbird.elasticandroid;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ComponentPlanTest {
+
+    private static ComponentPlan compile(String paths) {
+        PolicyData policyData = new PolicyData();
+        policyData.paths = paths;
+        return ComponentPlan.compile(policyData);
+    }
+
+    private static boolean[] levels(String paths) {
+        return compile(paths).getSelfLogLevels();
+    }
+
+    @Test
+    public void entries_resolveComponentsAndSubComponentsInPolicyOrder() {
+        ComponentPlan plan = compile("android://location.fine?minTimeMs=300000&minDistanceMeters=50,android://self-log.warn,android://security-logs.all");
+
+        Assert.assertEquals(3, plan.getEntries().size());
+        Assert.assertSame(LocationComp.getInstance(), plan.getEntries().get(0).getComponent());
+        Assert.assertEquals("fine?minTimeMs=300000&minDistanceMeters=50", plan.getEntries().get(0).getSubComponent());
+        Assert.assertSame(SelfLogComp.getInstance(), plan.getEntries().get(1).getComponent());
+        Assert.assertEquals("warn", plan.getEntries().get(1).getSubComponent());
+        Assert.assertEquals("android://security-logs.all", plan.getEntries().get(2).getPath());
+        Assert.assertTrue(plan.getUnsupportedPaths().isEmpty());
+    }
+
+    @Test
+    public void isEnabled_matchesComponentsExactly() {
+        // Both paths contain "self-log" and "location" as substrings, but neither is a registered component
+        ComponentPlan plan = compile("android://self-logger.info,android://location-history,android://network-logs");
+
+        Assert.assertFalse(plan.isEnabled(SelfLogComp.getInstance()));
+        Assert.assertFalse(plan.isEnabled(LocationComp.getInstance()));
+        Assert.assertTrue(plan.isEnabled(NetworkLogsComp.getInstance()));
+        Assert.assertEquals(2, plan.getUnsupportedPaths().size());
+        Assert.assertArrayEquals(new boolean[]{false, false, false, false}, plan.getSelfLogLevels());
+    }
+
+    @Test
+    public void compile_emptyWithoutPolicy() {
+        ComponentPlan plan = ComponentPlan.compile(null);
+        Assert.assertTrue(plan.getEntries().isEmpty());
+        Assert.assertFalse(plan.isEnabled(SelfLogComp.getInstance()));
+    }
+
+    @Test
+    public void selfLogLevels_disabledWithoutSelfLogPath() {
+        Assert.assertArrayEquals(new boolean[]{false, false, false, false}, ComponentPlan.compile(null).getSelfLogLevels());
+        Assert.assertArrayEquals(new boolean[]{false, false, false, false}, levels("android://location.fine"));
+    }
+
+    @Test
+    public void selfLogLevels_appliesMinimumLevel() {
+        // Levels are DEBUG, INFO, WARN, ERROR
+        Assert.assertArrayEquals(new boolean[]{true, true, true, true}, levels("android://self-log.debug"));
+        Assert.assertArrayEquals(new boolean[]{false, true, true, true}, levels("android://location.fine,android://self-log.info"));
+        Assert.assertArrayEquals(new boolean[]{false, false, true, true}, levels("android://self-log.warn"));
+        Assert.assertArrayEquals(new boolean[]{false, false, false, true}, levels("android://self-log.error"));
+    }
+
+    @Test
+    public void selfLogLevels_onlyInfoWithoutLevel() {
+        Assert.assertArrayEquals(new boolean[]{false, true, false, false}, levels("android://self-log"));
+    }
+}
@@ -0,0 +1,66 @@
+package de.swiftbird.elasticandroid;
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+public class EcsTimestampTest {
+
+    // The previous implementation, as used per document and per response
+    private static String legacyFormat(long epochMillis) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat.format(new Date(epochMillis));
+    }
+
+    @Test
+    public void format_matchesSimpleDateFormatForEdgeCases() {
+        long[] edgeCases = {
+                0L,                 // 1970-01-01T00:00:00.000Z
+                951_782_400_000L,   // 2000-02-29, leap day of a year divisible by 400
+                4_107_542_399_999L, // 2100-02-28T23:59:59.999Z, 2100 is no leap year
+                4_107_542_400_000L, // 2100-03-01
+                1_710_883_527_937L, // 2024-03-19T21:25:27.937Z
+                253_402_300_799_999L, // 9999-12-31T23:59:59.999Z
+                -1L,                // 1969-12-31T23:59:59.999Z
+        };
+        for (long epochMillis : edgeCases) {
+            Assert.assertEquals(legacyFormat(epochMillis), EcsTimestamp.format(epochMillis));
+        }
+    }
+
+    @Test
+    public void format_matchesSimpleDateFormatForRandomTimes() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long epochMillis = (long) (random.nextDouble() * 4_102_444_800_000L); // 1970 - 2100
+            Assert.assertEquals(legacyFormat(epochMillis), EcsTimestamp.format(epochMillis));
+        }
+    }
+
+    @Test
+    public void format_isThreadSafe() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        boolean[] failed = new boolean[1];
+        for (int t = 0; t < threads.length; t++) {
+            long offset = t * 86_400_000L * 365;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    long epochMillis = 1_700_000_000_000L + offset + i * 1_234L;
+                    if (!legacyFormat(epochMillis).equals(EcsTimestamp.format(epochMillis))) {
+                        failed[0] = true;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertFalse(failed[0]);
+    }
+}
@@ -0,0 +1,51 @@
+package de.swiftbird.elasticandroid;
+
+import com.google.gson.Gson;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ElasticResponseTest {
+
+    private static final String PARTIAL_FAILURE = "{\"took\":30,\"errors\":true,\"items\":["
+            + "{\"create\":{\"_index\":\"logs-test\",\"status\":201}},"
+            + "{\"create\":{\"_index\":\"logs-test\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}},"
+            + "{\"create\":{\"_index\":\"logs-test\",\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse\"}}},"
+            + "{\"create\":{\"_index\":\"logs-test\",\"status\":503}}"
+            + "]}";
+
+    @Test
+    public void items_areParsedInOrderWithStatusAndError() {
+        ElasticResponse response = new Gson().fromJson(PARTIAL_FAILURE, ElasticResponse.class);
+
+        Assert.assertEquals("true", response.getErrors());
+        Assert.assertEquals(4, response.getItems().size());
+        Assert.assertEquals(201, response.getItems().get(0).getStatus());
+        Assert.assertNull(response.getItems().get(0).getError());
+        Assert.assertEquals("mapper_parsing_exception", response.getItems().get(2).getError().getType());
+    }
+
+    @Test
+    public void items_areClassifiedAsSuccessfulRetryableOrPermanent() {
+        ElasticResponse response = new Gson().fromJson(PARTIAL_FAILURE, ElasticResponse.class);
+
+        ElasticResponse.Item created = response.getItems().get(0);
+        ElasticResponse.Item tooManyRequests = response.getItems().get(1);
+        ElasticResponse.Item mappingError = response.getItems().get(2);
+        ElasticResponse.Item unavailable = response.getItems().get(3);
+
+        Assert.assertTrue(created.isSuccessful());
+        Assert.assertFalse(tooManyRequests.isSuccessful());
+        Assert.assertTrue(tooManyRequests.isRetryable());
+        Assert.assertTrue(unavailable.isRetryable());
+        Assert.assertFalse(mappingError.isSuccessful());
+        Assert.assertFalse(mappingError.isRetryable());
+    }
+
+    @Test
+    public void items_acceptIndexActions() {
+        ElasticResponse response = new Gson().fromJson("{\"errors\":false,\"items\":[{\"index\":{\"status\":200}}]}", ElasticResponse.class);
+
+        Assert.assertEquals("false", response.getErrors());
+        Assert.assertTrue(response.getItems().get(0).isSuccessful());
+    }
+}
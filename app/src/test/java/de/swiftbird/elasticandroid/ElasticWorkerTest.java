@@ -0,0 +1,484 @@
+package de.swiftbird.elasticandroid;
+
+import android.content.Context;
+import android.os.Build;
+import androidx.annotation.NonNull;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.work.ListenableWorker;
+import androidx.work.WorkerParameters;
+import androidx.work.testing.TestListenableWorkerBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import retrofit2.Call;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.N})  // API 24
+public class ElasticWorkerTest {
+
+    private static final int BATCH_SIZE = 10;
+    private static final String ACCEPTED = "{\"took\":1,\"errors\":false,\"items\":[]}";
+    private static final String MIXED_ITEMS = "{\"took\":1,\"errors\":true,\"items\":["
+            + "{\"create\":{\"status\":201}},"
+            + "{\"create\":{\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}},"
+            + "{\"create\":{\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse\"}}}"
+            + "]}";
+
+    private final Gson gson = ElasticDocument.createGson();
+    private MockWebServer server;
+    private BulkDispatcher dispatcher;
+    private AppDatabase db;
+    private MockElasticWorker worker;
+    private final List<Boolean> outcomes = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final CountDownLatch finishedTwice = new CountDownLatch(2);
+
+    /**
+     * Worker that sends its bulk requests to the MockWebServer instead of the hosts of the policy.
+     */
+    public static class MockElasticWorker extends ElasticWorker {
+        ElasticApi api;
+
+        public MockElasticWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+            super(context, workerParams);
+        }
+
+        @Override
+        Call<ElasticResponse> createBulkCall(PolicyData policyData, BulkRequestBody requestBody) {
+            return api.putBulk("ApiKey test", "logs-android.default-test", requestBody);
+        }
+    }
+
+    /**
+     * Answers every bulk request with the same response and records how many requests were in flight at once.
+     */
+    private static class BulkDispatcher extends Dispatcher {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        volatile MockResponse response = new MockResponse().setBody(ACCEPTED);
+        volatile long delayMillis;
+
+        @NonNull
+        @Override
+        public MockResponse dispatch(@NonNull RecordedRequest request) throws InterruptedException {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(delayMillis);
+                return response;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Component with an in-memory buffer that claims, acknowledges and releases documents like the Room buffers.
+     */
+    private static class BufferedComponent implements Component {
+        final String pathName;
+        final TreeMap<Integer, ElasticDocument> buffer = new TreeMap<>();
+        final Map<Integer, String> claims = new HashMap<>(); // Buffer id to batch id
+        final List<Integer> released = new ArrayList<>();
+        int nextId = 1;
+
+        BufferedComponent(String pathName) {
+            this.pathName = pathName;
+        }
+
+        @Override
+        public boolean setup(Context context, FleetEnrollData enrollmentData, PolicyData policyData, String subComponent) {
+            return true;
+        }
+
+        @Override
+        public synchronized void addDocumentToBuffer(ElasticDocument document) {
+            ((SelfLogCompDocument) document).id = nextId++;
+            buffer.put(document.getBufferId(), document);
+        }
+
+        @Override
+        public synchronized void addDocumentsToBuffer(List<? extends ElasticDocument> documents) {
+            for (ElasticDocument document : documents) {
+                addDocumentToBuffer(document);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized <T extends ElasticDocument> List<T> claimDocumentsFromBuffer(String batchId, int afterId, int maxDocuments) {
+            List<T> claimed = new ArrayList<>();
+            for (ElasticDocument document : buffer.tailMap(afterId, false).values()) {
+                if (claimed.size() >= maxDocuments) {
+                    break;
+                }
+                if (!claims.containsKey(document.getBufferId())) {
+                    claims.put(document.getBufferId(), batchId);
+                    claimed.add((T) document);
+                }
+            }
+            return claimed;
+        }
+
+        @Override
+        public synchronized int acknowledgeDocuments(String batchId) {
+            int acknowledged = 0;
+            for (Integer id : new ArrayList<>(claims.keySet())) {
+                if (batchId.equals(claims.get(id))) {
+                    claims.remove(id);
+                    buffer.remove(id);
+                    acknowledged++;
+                }
+            }
+            return acknowledged;
+        }
+
+        @Override
+        public synchronized int releaseDocuments(String batchId) {
+            int count = 0;
+            for (Integer id : new ArrayList<>(claims.keySet())) {
+                if (batchId.equals(claims.get(id))) {
+                    claims.remove(id);
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public synchronized int releaseDocuments(String batchId, List<Integer> documentIds) {
+            int count = 0;
+            for (Integer id : documentIds) {
+                if (batchId.equals(claims.get(id))) {
+                    claims.remove(id);
+                    released.add(id);
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public int releaseStaleClaims(long claimedBefore) {
+            return 0;
+        }
+
+        @Override
+        public synchronized int getDocumentsInBufferCount() {
+            return buffer.size();
+        }
+
+        @Override
+        public String getPathName() {
+            return pathName;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dispatcher = new BulkDispatcher();
+        server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+
+        Context context = ApplicationProvider.getApplicationContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        worker = TestListenableWorkerBuilder.from(context, MockElasticWorker.class).build();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .retryOnConnectionFailure(false) // A dropped connection has to fail the batch, not be retried
+                .readTimeout(10, TimeUnit.SECONDS)
+                .build();
+        worker.api = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .client(client)
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(ElasticApi.class);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        db.close();
+    }
+
+    private static PolicyData policy(int maxInFlight) {
+        PolicyData policyData = new PolicyData();
+        policyData.maxDocumentsPerRequest = BATCH_SIZE;
+        policyData.maxBytesPerRequest = 10 * 1024 * 1024;
+        policyData.catchupMaxInFlight = maxInFlight;
+        policyData.catchupMaxDuration = 60;
+        policyData.catchupMaxBytes = 50 * 1024 * 1024;
+        return policyData;
+    }
+
+    private ListenableFuture<ListenableWorker.Result> drain(PolicyData policyData, Component... components) {
+        List<ComponentPlan.Entry> entries = new ArrayList<>();
+        for (Component component : components) {
+            entries.add(new ComponentPlan.Entry("android://" + component.getPathName(), component, ""));
+        }
+        return worker.drain(db, null, policyData, entries, success -> {
+            outcomes.add(success);
+            finished.countDown();
+            finishedTwice.countDown();
+        });
+    }
+
+    // Waits for the run to finish through its callback, which must happen exactly once
+    private void awaitFinished() throws InterruptedException {
+        Assert.assertTrue("The run did not finish", finished.await(20, TimeUnit.SECONDS));
+        Assert.assertFalse("The run finished twice", finishedTwice.await(500, TimeUnit.MILLISECONDS));
+    }
+
+    private static SelfLogCompDocument document(int messageLength) {
+        SelfLogCompDocument document = new SelfLogCompDocument();
+        document.logLevel = "INFO";
+        document.tag = "ElasticWorkerTest";
+        char[] message = new char[messageLength];
+        Arrays.fill(message, 'x');
+        document.message = new String(message);
+        return document;
+    }
+
+    private static BufferedComponent component(String pathName, int documents, int messageLength) {
+        BufferedComponent component = new BufferedComponent(pathName);
+        for (int i = 0; i < documents; i++) {
+            component.addDocumentToBuffer(document(messageLength));
+        }
+        return component;
+    }
+
+    private static List<ElasticWorker.ClaimedDocuments> claimAll(String batchId, BufferedComponent... components) {
+        List<ElasticWorker.ClaimedDocuments> claimedBatches = new ArrayList<>();
+        for (BufferedComponent component : components) {
+            claimedBatches.add(new ElasticWorker.ClaimedDocuments(component, component.claimDocumentsFromBuffer(batchId, 0, 100)));
+        }
+        return claimedBatches;
+    }
+
+    private long size(List<ElasticWorker.ClaimedDocuments> claimedBatches) {
+        long bytes = 0;
+        for (ElasticWorker.ClaimedDocuments claimed : claimedBatches) {
+            for (ElasticDocument document : claimed.documents) {
+                bytes += BulkRequestBody.measure(document, gson);
+            }
+        }
+        return bytes;
+    }
+
+    @Test
+    public void limitToByteBudget_sharesTheBudgetFairlyAndRewindsTheCursors() {
+        BufferedComponent small = component("small", 2, 200);
+        BufferedComponent medium = component("medium", 3, 600);
+        BufferedComponent large = component("large", 4, 900);
+        List<ElasticWorker.ClaimedDocuments> claimedBatches = claimAll("batch", small, medium, large);
+        Map<Component, Integer> cursors = new LinkedHashMap<>();
+        long budget = 3000;
+
+        // A document as large as the largest one was sent before, so the batch can't skip measuring
+        BulkRequestBody.measure(large.buffer.lastEntry().getValue(), gson);
+        Assert.assertTrue(ElasticWorker.limitToByteBudget("batch", claimedBatches, cursors, budget, gson));
+
+        Assert.assertTrue("Kept " + size(claimedBatches) + " bytes", size(claimedBatches) <= budget);
+        Assert.assertEquals(3, claimedBatches.size());
+        Assert.assertEquals("The small component keeps all of its documents", 2, claimedBatches.get(0).documents.size());
+        Assert.assertTrue(small.released.isEmpty());
+        Assert.assertFalse(cursors.containsKey(small));
+
+        // The others split the rest and continue with their first released document
+        Assert.assertEquals(1, claimedBatches.get(1).documents.size());
+        Assert.assertEquals(Arrays.asList(2, 3), medium.released);
+        Assert.assertEquals(Integer.valueOf(1), cursors.get(medium));
+        Assert.assertEquals(1, claimedBatches.get(2).documents.size());
+        Assert.assertEquals(Arrays.asList(2, 3, 4), large.released);
+        Assert.assertEquals(Integer.valueOf(1), cursors.get(large));
+        Assert.assertEquals(3, large.claimDocumentsFromBuffer("next", cursors.get(large), 100).size());
+    }
+
+    @Test
+    public void limitToByteBudget_sendsSingleOversizedDocumentAlone() {
+        BufferedComponent small = component("small", 2, 300);
+        BufferedComponent oversized = component("oversized", 2, 2000);
+        List<ElasticWorker.ClaimedDocuments> claimedBatches = claimAll("batch", small, oversized);
+        Map<Component, Integer> cursors = new LinkedHashMap<>();
+
+        Assert.assertTrue(ElasticWorker.limitToByteBudget("batch", claimedBatches, cursors, 200, gson));
+
+        Assert.assertEquals(1, claimedBatches.size());
+        Assert.assertSame(oversized, claimedBatches.get(0).component);
+        Assert.assertEquals(1, claimedBatches.get(0).documents.get(0).getBufferId());
+        Assert.assertEquals(Arrays.asList(1, 2), small.released);
+        Assert.assertEquals(Integer.valueOf(0), cursors.get(small));
+        Assert.assertEquals(Arrays.asList(2), oversized.released);
+        Assert.assertEquals(Integer.valueOf(1), cursors.get(oversized));
+    }
+
+    @Test
+    public void limitToByteBudget_keepsBatchWithinTheBudget() {
+        BufferedComponent small = component("small", 3, 100);
+        BufferedComponent medium = component("medium", 2, 500);
+        List<ElasticWorker.ClaimedDocuments> claimedBatches = claimAll("batch", small, medium);
+        Map<Component, Integer> cursors = new LinkedHashMap<>();
+
+        Assert.assertFalse(ElasticWorker.limitToByteBudget("batch", claimedBatches, cursors, 100_000, gson));
+
+        Assert.assertEquals(3, claimedBatches.get(0).documents.size());
+        Assert.assertEquals(2, claimedBatches.get(1).documents.size());
+        Assert.assertTrue(cursors.isEmpty());
+        Assert.assertTrue(small.released.isEmpty() && medium.released.isEmpty());
+    }
+
+    @Test
+    public void drain_keepsAtMostMaxInFlightRequestsAndDrainsTheBacklog() throws Exception {
+        BufferedComponent component = component("self-log", 10 * BATCH_SIZE, 50);
+        dispatcher.delayMillis = 200;
+
+        drain(policy(2), component);
+        awaitFinished();
+
+        Assert.assertEquals(Collections.singletonList(true), outcomes);
+        Assert.assertEquals(10, server.getRequestCount());
+        Assert.assertEquals(2, dispatcher.maxInFlight.get());
+        Assert.assertEquals(0, component.getDocumentsInBufferCount());
+    }
+
+    @Test
+    public void drain_finishesOnceAfterConcurrentBatchesSettled() throws Exception {
+        BufferedComponent first = component("first", 3 * BATCH_SIZE, 50);
+        BufferedComponent second = component("second", 3 * BATCH_SIZE, 50);
+        dispatcher.delayMillis = 100;
+
+        drain(policy(3), first, second);
+        awaitFinished();
+
+        Assert.assertEquals(Collections.singletonList(true), outcomes);
+        Assert.assertTrue(dispatcher.maxInFlight.get() <= 3);
+        Assert.assertEquals(0, first.getDocumentsInBufferCount() + second.getDocumentsInBufferCount());
+    }
+
+    @Test
+    public void drain_stopsOnceTheTimeBudgetIsUsedUp() throws Exception {
+        BufferedComponent component = component("self-log", 10 * BATCH_SIZE, 50);
+        PolicyData policyData = policy(2);
+        policyData.catchupMaxDuration = 0; // Only the first batch is sent
+
+        drain(policyData, component);
+        awaitFinished();
+
+        Assert.assertEquals(Collections.singletonList(true), outcomes);
+        Assert.assertEquals(1, server.getRequestCount());
+        Assert.assertEquals(9 * BATCH_SIZE, component.getDocumentsInBufferCount());
+        Assert.assertTrue("The backlog is left unclaimed for the next run", component.claims.isEmpty());
+    }
+
+    @Test
+    public void drain_stopsOnceTheByteBudgetIsUsedUp() throws Exception {
+        BufferedComponent component = component("self-log", 10 * BATCH_SIZE, 50);
+        PolicyData policyData = policy(1);
+        policyData.catchupMaxBytes = 1;
+
+        drain(policyData, component);
+        awaitFinished();
+
+        Assert.assertEquals(Collections.singletonList(true), outcomes);
+        Assert.assertEquals(1, server.getRequestCount());
+        Assert.assertEquals(9 * BATCH_SIZE, component.getDocumentsInBufferCount());
+    }
+
+    @Test
+    public void drain_stopsAfterAFailedBatch() throws Exception {
+        BufferedComponent component = component("self-log", 10 * BATCH_SIZE, 50);
+        dispatcher.response = new MockResponse().setResponseCode(400).setBody("{\"error\":\"mapper_parsing_exception\"}");
+
+        drain(policy(1), component);
+        awaitFinished();
+
+        Assert.assertEquals(Collections.singletonList(false), outcomes);
+        Assert.assertEquals(1, server.getRequestCount());
+        Assert.assertEquals(10 * BATCH_SIZE, component.getDocumentsInBufferCount());
+        Assert.assertTrue("The failed batch is released", component.claims.isEmpty());
+    }
+
+    @Test
+    public void drain_retriesOnTransportFailure() throws Exception {
+        BufferedComponent component = component("self-log", 10 * BATCH_SIZE, 50);
+        dispatcher.response = new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START);
+
+        ListenableFuture<ListenableWorker.Result> result = drain(policy(2), component);
+
+        Assert.assertEquals(ListenableWorker.Result.retry(), result.get(20, TimeUnit.SECONDS));
+        Assert.assertTrue("The run completes with a retry instead of the callback", outcomes.isEmpty());
+        Assert.assertEquals(10 * BATCH_SIZE, component.getDocumentsInBufferCount());
+        Assert.assertTrue("The batches are released", component.claims.isEmpty());
+    }
+
+    @Test
+    public void drain_settlesEveryItemOfAPartiallyRejectedBatch() throws Exception {
+        db.statisticsDataDAO().updateStatistics(new AppStatisticsData());
+        BufferedComponent component = component("self-log", 3, 50);
+        dispatcher.response = new MockResponse().setBody(MIXED_ITEMS);
+
+        drain(policy(1), component);
+        awaitFinished();
+
+        Assert.assertEquals("Temporarily rejected documents fail the run", Collections.singletonList(false), outcomes);
+        Assert.assertEquals(1, server.getRequestCount());
+        Assert.assertEquals("Only the document rejected with 429 is kept", Collections.singleton(2), component.buffer.keySet());
+        Assert.assertEquals(Collections.singletonList(2), component.released);
+        Assert.assertTrue(component.claims.isEmpty());
+
+        List<DeadLetterDocument> deadLetters = db.deadLetterDocumentDAO().getNewestDocuments(10);
+        Assert.assertEquals(1, deadLetters.size());
+        Assert.assertEquals("self-log", deadLetters.get(0).component);
+        Assert.assertEquals(400, deadLetters.get(0).status);
+        Assert.assertEquals("mapper_parsing_exception", deadLetters.get(0).errorType);
+        Assert.assertEquals("failed to parse", deadLetters.get(0).errorReason);
+        Assert.assertTrue(deadLetters.get(0).document.contains("\"tag\":\"ElasticWorkerTest\""));
+        Assert.assertEquals(1, db.statisticsDataDAO().getStatisticsSync().droppedDocuments);
+    }
+
+    @Test
+    public void drain_releasesTheWholeBatchIfTheItemsDontMatch() throws Exception {
+        db.statisticsDataDAO().updateStatistics(new AppStatisticsData());
+        BufferedComponent component = component("self-log", 4, 50);
+        dispatcher.response = new MockResponse().setBody(MIXED_ITEMS); // 3 items for 4 documents
+
+        drain(policy(1), component);
+        awaitFinished();
+
+        Assert.assertEquals(Collections.singletonList(false), outcomes);
+        Assert.assertEquals(4, component.getDocumentsInBufferCount());
+        Assert.assertTrue("The batch is released as a whole", component.claims.isEmpty());
+        Assert.assertTrue(component.released.isEmpty());
+        Assert.assertEquals(0, db.deadLetterDocumentDAO().getDocumentCount());
+        Assert.assertEquals(0, db.statisticsDataDAO().getStatisticsSync().droppedDocuments);
+    }
+}
@@ -0,0 +1,144 @@
+package de.swiftbird.elasticandroid;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Call;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * Long-poll check-ins against a MockWebServer standing in for a Fleet Server that holds the check-in open
+ * until an action is available or the poll timeout expires.
+ */
+public class FleetLongPollTest {
+
+    private static final String AGENT_ID = "agent-1";
+    private static final String NO_ACTIONS = "{\"action\":\"checkin\",\"actions\":[]}";
+    private static final String POLICY_CHANGE = "{\"action\":\"checkin\",\"actions\":[{\"id\":\"action-1\",\"type\":\"POLICY_CHANGE\"}]}";
+    private static final long HOLD_MILLIS = 2000; // The Fleet Server holds the check-in open this long
+    private static final int SHORT_TIMEOUT_SECONDS = 1; // Shorter than the hold, like the short check-in client
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    private FleetApi createApi(OkHttpClient client) {
+        return new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .client(client)
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(FleetApi.class);
+    }
+
+    private Call<FleetCheckinResponse> checkin(OkHttpClient client, int pollTimeoutSeconds) {
+        FleetCheckinRequest request = new FleetCheckinRequest("online", null, null, "test");
+        if (pollTimeoutSeconds > 0) {
+            request.setPollTimeout(pollTimeoutSeconds);
+        }
+        return createApi(client).postCheckin("ApiKey test", AGENT_ID, request);
+    }
+
+    private static OkHttpClient longPollClient(int pollTimeoutSeconds) {
+        return NetworkBuilder.configureLongPoll(new OkHttpClient.Builder(), pollTimeoutSeconds).build();
+    }
+
+    @Test
+    public void longPoll_waitsForHeldResponse() throws Exception {
+        server.enqueue(new MockResponse().setBody(NO_ACTIONS).setHeadersDelay(HOLD_MILLIS, TimeUnit.MILLISECONDS));
+
+        long start = System.nanoTime();
+        Response<FleetCheckinResponse> response = checkin(longPollClient(1), 1).execute();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertTrue(response.isSuccessful());
+        Assert.assertNotNull(response.body());
+        Assert.assertTrue("An expired long-poll has no actions", response.body().getActions().isEmpty());
+        Assert.assertTrue("The response should have been held for " + HOLD_MILLIS + " ms", elapsedMillis >= HOLD_MILLIS);
+
+        RecordedRequest recorded = server.takeRequest();
+        Assert.assertEquals("/api/fleet/agents/" + AGENT_ID + "/checkin", recorded.getPath());
+        Assert.assertTrue(recorded.getBody().readUtf8().contains("\"poll_timeout\":\"1s\""));
+    }
+
+    @Test
+    public void longPoll_deliversActionAsSoonAsAvailable() throws Exception {
+        server.enqueue(new MockResponse().setBody(POLICY_CHANGE).setHeadersDelay(200, TimeUnit.MILLISECONDS));
+
+        long start = System.nanoTime();
+        Response<FleetCheckinResponse> response = checkin(longPollClient(300), 300).execute();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertNotNull(response.body());
+        Assert.assertEquals("POLICY_CHANGE", response.body().getActions().get(0).getType());
+        Assert.assertTrue("The action should arrive without waiting for the poll timeout", elapsedMillis < 5000);
+    }
+
+    @Test
+    public void shortCheckin_timesOutOnHeldRequest() throws Exception {
+        server.enqueue(new MockResponse().setBody(NO_ACTIONS).setHeadersDelay(HOLD_MILLIS, TimeUnit.MILLISECONDS));
+        OkHttpClient shortClient = new OkHttpClient.Builder().readTimeout(SHORT_TIMEOUT_SECONDS, TimeUnit.SECONDS).build();
+
+        try {
+            checkin(shortClient, 0).execute();
+            Assert.fail("The short check-in client should give up on a held request");
+        } catch (SocketTimeoutException expected) {
+            // Handled as a check-in without updates by FleetCheckinRepository
+        }
+
+        String body = server.takeRequest().getBody().readUtf8();
+        Assert.assertFalse("A short check-in must not ask the server to hold it", body.contains("poll_timeout"));
+    }
+
+    @Test
+    public void longPoll_canBeCancelledWhileHeld() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE)); // Never answered
+        Call<FleetCheckinResponse> call = checkin(longPollClient(300), 300);
+
+        AppExecutors.scheduler().schedule(call::cancel, 300, TimeUnit.MILLISECONDS); // Like a stopped worker
+        long start = System.nanoTime();
+        try {
+            call.execute();
+            Assert.fail("A cancelled long-poll should fail");
+        } catch (IOException expected) {
+            Assert.assertTrue(call.isCanceled());
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+    }
+
+    @Test
+    public void configureLongPoll_waitsLongerThanThePollTimeout() {
+        OkHttpClient client = longPollClient(300);
+
+        Assert.assertEquals((300 + NetworkBuilder.LONG_POLL_GRACE_SECONDS) * 1000, client.readTimeoutMillis());
+        Assert.assertTrue(client.callTimeoutMillis() > client.readTimeoutMillis());
+    }
+
+    @Test
+    public void parsePollTimeout_disabledByDefaultAndCapped() {
+        Assert.assertEquals(0, FleetCheckinRepository.parsePollTimeout(null));
+        Assert.assertEquals(0, FleetCheckinRepository.parsePollTimeout("0s"));
+        Assert.assertEquals(90, FleetCheckinRepository.parsePollTimeout("90s"));
+        Assert.assertEquals(FleetCheckinRepository.MAX_POLL_TIMEOUT_SECONDS, FleetCheckinRepository.parsePollTimeout("1h"));
+    }
+}
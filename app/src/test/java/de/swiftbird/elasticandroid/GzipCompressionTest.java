@@ -0,0 +1,63 @@
+package de.swiftbird.elasticandroid;
+
+import com.google.gson.Gson;
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.IntFunction;
+import okio.Buffer;
+
+/**
+ * Tests the opt-in gzip compression of _bulk requests: bytes on the wire per 1k documents, for every component
+ * document type.
+ */
+public class GzipCompressionTest {
+
+    private static final int DOCUMENTS = 1000;
+
+    private static long measure(List<ElasticDocument> documents, Gson gson, boolean compress) throws IOException {
+        Buffer wire = new Buffer();
+        BulkRequestBody body = new BulkRequestBody(documents, gson);
+        if (compress) {
+            GzipRequestInterceptor.gzip(body).writeTo(wire);
+        } else {
+            body.writeTo(wire);
+        }
+        return wire.size();
+    }
+
+    private static void assertCompresses(String name, IntFunction<ElasticDocument> factory) throws IOException {
+        Gson gson = ElasticDocument.createGson();
+        List<ElasticDocument> documents = DocumentFixture.createDocuments(factory, DOCUMENTS);
+
+        long raw = measure(documents, gson, false);
+        long gzip = measure(documents, gson, true);
+
+        // The repeated ECS metadata has to compress well for every document type
+        Assert.assertTrue(name + " should compress at least 5x, raw: " + raw + " bytes, gzip: " + gzip + " bytes", gzip * 5 < raw);
+    }
+
+    @Test
+    public void gzip_compressesEveryDocumentTypeAtLeastFiveTimes() throws IOException {
+        assertCompresses("SelfLogCompDocument", DocumentFixture::selfLog);
+        assertCompresses("SecurityLogsCompDocument", DocumentFixture::securityLog);
+        assertCompresses("NetworkLogsCompDocument", DocumentFixture::networkLog);
+        assertCompresses("LocationCompDocument", DocumentFixture::location);
+    }
+
+    @Test
+    public void gzip_roundTripsTheBulkPayload() throws IOException {
+        Gson gson = ElasticDocument.createGson();
+        List<ElasticDocument> documents = DocumentFixture.createDocuments(DocumentFixture::selfLog, DOCUMENTS);
+
+        Buffer raw = new Buffer();
+        new BulkRequestBody(documents, gson).writeTo(raw);
+        Buffer compressed = new Buffer();
+        GzipRequestInterceptor.gzip(new BulkRequestBody(documents, gson)).writeTo(compressed);
+
+        Buffer decompressed = new Buffer();
+        decompressed.writeAll(new okio.GzipSource(compressed));
+        Assert.assertEquals(raw.readUtf8(), decompressed.readUtf8());
+    }
+}
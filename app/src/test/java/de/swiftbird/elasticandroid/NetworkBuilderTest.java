@@ -0,0 +1,56 @@
+package de.swiftbird.elasticandroid;
+
+import android.os.Build;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import retrofit2.Retrofit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.N})  // API 24
+public class NetworkBuilderTest {
+
+    private static final String ES_URL = "https://elasticsearch.example.com:9200/";
+    private static final String OTHER_ES_URL = "https://elasticsearch-2.example.com:9200/";
+    private static final String FLEET_URL = "https://fleet.example.com:8220/";
+
+    @After
+    public void tearDown() {
+        NetworkBuilder.resetClients();
+    }
+
+    @Test
+    public void getClient_reusesClientForSameConfiguration() {
+        Retrofit first = NetworkBuilder.getClientElasticsearch(ES_URL, true, null, 30, true);
+
+        Assert.assertSame(first, NetworkBuilder.getClientElasticsearch(ES_URL, true, null, 30, true));
+    }
+
+    // A policy change must replace the client instead of keeping one per configuration ever seen
+    @Test
+    public void getClient_replacesClientWhenConfigurationChanges() {
+        Retrofit first = NetworkBuilder.getClientElasticsearch(ES_URL, true, null, 30, true);
+        Retrofit changed = NetworkBuilder.getClientElasticsearch(OTHER_ES_URL, true, null, 30, true);
+        Assert.assertNotSame(first, changed);
+
+        // The stale client was dropped, so going back to the old configuration builds it again
+        Retrofit again = NetworkBuilder.getClientElasticsearch(ES_URL, true, null, 30, true);
+        Assert.assertNotSame(first, again);
+        Assert.assertEquals(ES_URL, again.baseUrl().toString());
+    }
+
+    @Test
+    public void getClient_keepsOneClientPerEndpoint() {
+        Retrofit elasticsearch = NetworkBuilder.getClientElasticsearch(ES_URL, true, null, 30, false);
+        Retrofit fleet = NetworkBuilder.getClientFleet(FLEET_URL, true, null, 30);
+        Retrofit longPoll = NetworkBuilder.getClientFleetLongPoll(FLEET_URL, true, null, 300);
+
+        Assert.assertSame(elasticsearch, NetworkBuilder.getClientElasticsearch(ES_URL, true, null, 30, false));
+        Assert.assertSame(fleet, NetworkBuilder.getClientFleet(FLEET_URL, true, null, 30));
+        Assert.assertSame(longPoll, NetworkBuilder.getClientFleetLongPoll(FLEET_URL, true, null, 300));
+        Assert.assertNotSame(fleet, longPoll);
+    }
+}
@@ -0,0 +1,97 @@
+package de.swiftbird.elasticandroid;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WakeupAlignerTest {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long CHECKIN_RUNTIME_MILLIS = 1500; // The next run is scheduled once the current one finished
+    private static final long PUT_RUNTIME_MILLIS = 4000;
+    private static final long WINDOW_MILLIS = 30 * 1000;
+
+    /**
+     * Simulates a day of check-ins and uploads that schedule their next run like the workers do.
+     *
+     * @return The distinct times the device was woken up.
+     */
+    private static Set<Long> simulateDay(long checkinIntervalMillis, long putIntervalMillis, long windowMillis) {
+        WakeupAligner aligner = new WakeupAligner();
+        Map<WakeupAligner.Job, Long> due = new EnumMap<>(WakeupAligner.Job.class);
+        schedule(aligner, due, WakeupAligner.Job.FLEET_CHECKIN, 0);
+        schedule(aligner, due, WakeupAligner.Job.ELASTICSEARCH_PUT, 1000); // Enrollment runs the first upload right away
+
+        Set<Long> wakeups = new TreeSet<>();
+        while (true) {
+            WakeupAligner.Job job = due.get(WakeupAligner.Job.FLEET_CHECKIN) <= due.get(WakeupAligner.Job.ELASTICSEARCH_PUT)
+                    ? WakeupAligner.Job.FLEET_CHECKIN : WakeupAligner.Job.ELASTICSEARCH_PUT;
+            long now = due.get(job);
+            if (now >= DAY_MILLIS) {
+                return wakeups;
+            }
+            wakeups.add(now);
+
+            List<WakeupAligner.Job> pulled = aligner.onStarting(job, now, windowMillis);
+            schedule(aligner, due, job, now + runtime(job) + (job == WakeupAligner.Job.FLEET_CHECKIN ? checkinIntervalMillis : putIntervalMillis));
+            for (WakeupAligner.Job other : pulled) {
+                Assert.assertTrue("Only pulled forward, never delayed", due.get(other) >= now);
+                schedule(aligner, due, other, now + runtime(other) + (other == WakeupAligner.Job.FLEET_CHECKIN ? checkinIntervalMillis : putIntervalMillis)); // Runs on the same wake-up
+            }
+        }
+    }
+
+    private static void schedule(WakeupAligner aligner, Map<WakeupAligner.Job, Long> due, WakeupAligner.Job job, long dueAt) {
+        due.put(job, dueAt);
+        aligner.onScheduled(job, dueAt);
+    }
+
+    private static long runtime(WakeupAligner.Job job) {
+        return job == WakeupAligner.Job.FLEET_CHECKIN ? CHECKIN_RUNTIME_MILLIS : PUT_RUNTIME_MILLIS;
+    }
+
+    @Test
+    public void simulatedDay_alignmentHalvesWakeupsOfEqualIntervals() {
+        // The intervals of the README: both jobs every minute, but with different run times they never coincide
+        int unaligned = simulateDay(60 * 1000, 60 * 1000, 0).size();
+        int aligned = simulateDay(60 * 1000, 60 * 1000, WINDOW_MILLIS).size();
+
+        Assert.assertTrue("Unaligned wake-ups: " + unaligned, unaligned > 2600);
+        Assert.assertTrue("Aligned wake-ups: " + aligned + ", unaligned: " + unaligned, aligned <= unaligned * 6 / 10);
+    }
+
+    @Test
+    public void simulatedDay_alignmentReducesWakeupsOfDifferentIntervals() {
+        // Check-in every 5 minutes, upload every 2 minutes: only the check-ins that are close to an upload can share it
+        int unaligned = simulateDay(5 * 60 * 1000, 2 * 60 * 1000, 0).size();
+        int aligned = simulateDay(5 * 60 * 1000, 2 * 60 * 1000, WINDOW_MILLIS).size();
+
+        Assert.assertTrue("Unaligned wake-ups: " + unaligned, unaligned > 950);
+        Assert.assertTrue("Aligned wake-ups: " + aligned + ", unaligned: " + unaligned, aligned <= unaligned * 9 / 10);
+    }
+
+    @Test
+    public void onStarting_pullsOnlyJobsDueWithinTheWindow() {
+        WakeupAligner aligner = new WakeupAligner();
+        aligner.onScheduled(WakeupAligner.Job.ELASTICSEARCH_PUT, 100_000);
+
+        Assert.assertTrue(aligner.onStarting(WakeupAligner.Job.FLEET_CHECKIN, 0, WINDOW_MILLIS).isEmpty());
+        Assert.assertEquals(List.of(WakeupAligner.Job.ELASTICSEARCH_PUT), aligner.onStarting(WakeupAligner.Job.FLEET_CHECKIN, 80_000, WINDOW_MILLIS));
+        Assert.assertTrue("Already pulled", aligner.onStarting(WakeupAligner.Job.FLEET_CHECKIN, 80_000, WINDOW_MILLIS).isEmpty());
+    }
+
+    @Test
+    public void onStarting_neverPullsRunningJobOrWithoutWindow() {
+        WakeupAligner aligner = new WakeupAligner();
+        aligner.onScheduled(WakeupAligner.Job.FLEET_CHECKIN, 10_000);
+        aligner.onScheduled(WakeupAligner.Job.ELASTICSEARCH_PUT, 20_000);
+
+        Assert.assertTrue("Alignment disabled", aligner.onStarting(WakeupAligner.Job.ELASTICSEARCH_PUT, 0, 0).isEmpty());
+        aligner.onStarting(WakeupAligner.Job.FLEET_CHECKIN, 10_000, WINDOW_MILLIS); // The check-in is running now
+        Assert.assertTrue(aligner.onStarting(WakeupAligner.Job.ELASTICSEARCH_PUT, 20_000, WINDOW_MILLIS).isEmpty());
+    }
+}